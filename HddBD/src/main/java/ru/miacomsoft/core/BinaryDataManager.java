@@ -1,32 +1,25 @@
 package ru.miacomsoft.core;
 
 import ru.miacomsoft.core.exceptions.DataManagerException;
-import ru.miacomsoft.core.exceptions.KeyNotFoundException;
+import ru.miacomsoft.core.lsm.LsmStorageEngine;
 
-import java.io.*;
-import java.util.*;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 public class BinaryDataManager implements AutoCloseable {
-    private final RandomAccessFile dataFile;
-    private final HeaderIndex headerIndex;
-    private final DataCache cache;
-    private final FreeSpaceManager freeSpaceManager;
+    private final StorageEngine engine;
     private final MemoryManager memoryManager;
-    private final ReadWriteLock dataFileLock;
-    private final ScheduledExecutorService backgroundScheduler;
     private final String dataFileName;
     private final String indexFileName;
     private final SqlProcessor sqlProcessor;
+    private final StorageConfig config;
 
-    // Константы разделителей
-    private static final byte[] HEADER_DATA_DELIMITER = "%%HEADER_DATA%%".getBytes();
-    private static final byte[] DATA_VECTOR_DELIMITER = "%%DATA_VECTOR%%".getBytes();
-    private static final byte[] RECORD_END_DELIMITER = "%%RECORD_END%%".getBytes();
+    // Размер страницы ленивого обхода диапазона ключей
+    public static final int DEFAULT_SCAN_PAGE_SIZE = 1000;
 
     // Константы памяти
     private static final long DEFAULT_MEMORY_LIMIT = 100 * 1024 * 1024; // 100 MB
@@ -41,633 +34,204 @@ public class BinaryDataManager implements AutoCloseable {
     }
 
     public BinaryDataManager(String dataFileName, String indexFileName, MemoryManager memoryManager) throws IOException {
+        this(dataFileName, indexFileName, memoryManager, StorageConfig.defaults());
+    }
+
+    public BinaryDataManager(String dataFileName, String indexFileName, MemoryManager memoryManager,
+                             StorageConfig config) throws IOException {
         this.dataFileName = dataFileName;
         this.indexFileName = indexFileName;
         this.memoryManager = memoryManager;
+        this.config = config;
 
         this.sqlProcessor = new SqlProcessor(this);
 
-        // Создаем директорию если не существует
-        File baseDataDir = new File(dataFileName);
-        File baseIndexDir = new File(indexFileName);
-
-        if (baseDataDir.getParentFile() != null && !baseDataDir.getParentFile().exists()) {
-            baseDataDir.getParentFile().mkdirs();
-        }
-
-        if (baseIndexDir.getParentFile() != null && !baseIndexDir.getParentFile().exists()) {
-            baseIndexDir.getParentFile().mkdirs();
-        }
-
-        // Инициализация файла данных
-        this.dataFile = new RandomAccessFile(dataFileName, "rw");
-
-        // Инициализация индекса заголовков
-        this.headerIndex = new HeaderIndex(indexFileName);
-
-        // Инициализация остальных компонентов
-        this.cache = new DataCache();
-        this.freeSpaceManager = new FreeSpaceManager();
-        this.dataFileLock = new ReentrantReadWriteLock();
-        this.backgroundScheduler = Executors.newScheduledThreadPool(2);
-
-        startBackgroundTasks();
-        initializeFreeSpaceManager();
-
         System.out.println("BinaryDataManager initialized:");
         System.out.println("  Data file: " + dataFileName);
         System.out.println("  Index file: " + indexFileName);
         System.out.println("  Memory limit: " + (memoryManager.getMaxMemory() / (1024 * 1024)) + " MB");
+        System.out.println("  Storage engine: " + config.getStorageEngine());
+
+        // Движок хранения выбирается для каждого экземпляра
+        switch (config.getStorageEngine()) {
+            case LSM:
+                this.engine = new LsmStorageEngine(dataFileName, indexFileName, memoryManager, config);
+                break;
+            case IN_PLACE:
+            default:
+                this.engine = new InPlaceStorageEngine(dataFileName, indexFileName, memoryManager, config);
+                break;
+        }
     }
 
     // Основные методы API
 
     public byte[] get(byte[] key) {
-        // 1. Проверка кэша
-        byte[] cachedData = cache.get(key);
-        if (cachedData != null) {
-            return cachedData;
-        }
-
-        dataFileLock.readLock().lock();
-        try {
-            // 2. Поиск в Header Index
-            HeaderRecord header = headerIndex.get(key);
-            if (header == null || !header.isActive || isExpired(header.expiryTime)) {
-                return null;
-            }
-
-            // 3. Чтение данных из файла
-            byte[] data = readDataBlock(header);
-            if (data != null) {
-                // Выделяем память для кэша
-                long memoryNeeded = estimateMemoryUsage(data, header);
-                if (memoryManager.allocateMemory(memoryNeeded)) {
-                    cache.put(key, data, header);
-                } else {
-                    System.err.println("Warning: Cannot cache data due to memory limit");
-                }
-            }
-
-            return data;
-        } catch (IOException e) {
-            throw new DataManagerException("Error reading data for key: " + Arrays.toString(key), e);
-        } finally {
-            dataFileLock.readLock().unlock();
-        }
+        return engine.get(key);
     }
 
-    public void put(byte[] key, byte[] value) {
-        put(key, value, -1, null, null);
+    // Значение в виде read-only буфера (в LSM - без копирования, буфер неизменяемой записи)
+    public ByteBuffer getBuffer(byte[] key) {
+        return engine.getBuffer(key);
     }
 
-    public void put(byte[] key, byte[] value, long expiryTime, float[] nameVector, float[] dataVector) {
-        if (key == null || key.length == 0) {
-            throw new DataManagerException("Key cannot be null or empty");
-        }
-        if (value == null) {
-            throw new DataManagerException("Value cannot be null");
-        }
-
-        // Оценка необходимой памяти
-        long memoryNeeded = estimateMemoryUsage(key, value, nameVector, dataVector);
-        if (!memoryManager.allocateMemory(memoryNeeded)) {
-            throw new DataManagerException("Memory limit exceeded. Required: " + memoryNeeded +
-                    ", Available: " + (memoryManager.getMaxMemory() - memoryManager.getUsedMemory()));
-        }
-
-        dataFileLock.writeLock().lock();
-        try {
-            // Проверка существования блока
-            HeaderRecord existing = headerIndex.get(key);
-            if (existing != null && existing.isActive && !isExpired(existing.expiryTime)) {
-                // Помечаем старый блок на удаление
-                markForDeletion(existing);
-            }
-
-            // Поиск свободного места или запись в конец
-            int totalBlockSize = calculateTotalBlockSize(key, value, dataVector);
-            long dataAddress = freeSpaceManager.findFreeSpace(totalBlockSize);
-            if (dataAddress == -1) {
-                dataAddress = dataFile.length();
-            }
-
-            // Запись блока данных
-            writeDataBlock(key, value, expiryTime, dataVector, dataAddress);
-
-            // Обновление Header Index
-            HeaderRecord newHeader = new HeaderRecord(true, expiryTime, key,
-                    dataAddress, value.length, nameVector);
-            headerIndex.put(key, newHeader);
-
-            // Обновление кэша
-            cache.put(key, value, newHeader);
-
-        } catch (IOException e) {
-            // Освобождаем память в случае ошибки
-            memoryManager.releaseMemory(memoryNeeded);
-            throw new DataManagerException("Error writing data for key: " + Arrays.toString(key), e);
-        } finally {
-            dataFileLock.writeLock().unlock();
-        }
+    public CompletableFuture<Void> put(byte[] key, byte[] value) {
+        return put(key, value, -1, null, null);
     }
 
-    public void update(byte[] key, byte[] newValue) {
-        if (key == null || key.length == 0) {
-            throw new DataManagerException("Key cannot be null or empty");
-        }
-        if (newValue == null) {
-            throw new DataManagerException("New value cannot be null");
-        }
-
-        dataFileLock.writeLock().lock();
-        try {
-            HeaderRecord existing = headerIndex.get(key);
-            if (existing == null || !existing.isActive) {
-                throw new KeyNotFoundException(key);
-            }
-
-            // Оценка необходимой памяти
-            long memoryNeeded = estimateMemoryUsage(key, newValue, existing.nameVector, null);
-            if (!memoryManager.allocateMemory(memoryNeeded)) {
-                throw new DataManagerException("Memory limit exceeded for update operation");
-            }
-
-            try {
-                if (newValue.length <= existing.dataSize) {
-                    // Перезапись на том же месте
-                    updateDataBlock(existing, newValue);
-
-                    // Обновление Header Index
-                    HeaderRecord updatedHeader = new HeaderRecord(true, existing.expiryTime,
-                            existing.name, existing.dataAddress, newValue.length, existing.nameVector);
-                    headerIndex.put(key, updatedHeader);
-
-                    // Обновление кэша
-                    cache.put(key, newValue, updatedHeader);
-                } else {
-                    // Новое размещение
-                    put(key, newValue, existing.expiryTime, existing.nameVector, null);
-                }
-            } finally {
-                memoryManager.releaseMemory(memoryNeeded);
-            }
-
-        } catch (IOException e) {
-            throw new DataManagerException("Error updating data for key: " + Arrays.toString(key), e);
-        } finally {
-            dataFileLock.writeLock().unlock();
-        }
+    // Возвращает future, который завершается после записи блока согласно FsyncPolicy
+    public CompletableFuture<Void> put(byte[] key, byte[] value, long expiryTime, float[] nameVector, float[] dataVector) {
+        return engine.put(key, value, expiryTime, nameVector, dataVector);
     }
 
-    public void delete(byte[] key) {
-        if (key == null || key.length == 0) {
-            throw new DataManagerException("Key cannot be null or empty");
-        }
+    public CompletableFuture<Void> update(byte[] key, byte[] newValue) {
+        return engine.update(key, newValue);
+    }
 
-        dataFileLock.writeLock().lock();
-        try {
-            HeaderRecord header = headerIndex.get(key);
-            if (header != null) {
-                // Помечаем на удаление в Header Index
-                HeaderRecord deletedHeader = new HeaderRecord(false,
-                        System.currentTimeMillis() / 1000,
-                        header.name, header.dataAddress, header.dataSize, header.nameVector);
-                headerIndex.put(key, deletedHeader);
-
-                // Помечаем в кэше
-                cache.remove(key);
-
-                // Помечаем в данных
-                markDataBlockForDeletion(header.dataAddress);
-
-                // Добавляем в менеджер свободного пространства
-                freeSpaceManager.addFreeBlock(header.dataAddress,
-                        calculateTotalBlockSize(header.name, new byte[header.dataSize], null));
-            }
-        } catch (IOException e) {
-            throw new DataManagerException("Error deleting data for key: " + Arrays.toString(key), e);
-        } finally {
-            dataFileLock.writeLock().unlock();
-        }
+    public CompletableFuture<Void> delete(byte[] key) {
+        return engine.delete(key);
     }
 
+    // Все найденные значения списком (для больших выборок - find(query, options))
     public List<byte[]> find(SearchQuery query) {
-        if (query == null) {
-            throw new DataManagerException("Search query cannot be null");
-        }
-
         List<byte[]> results = new ArrayList<>();
-
-        dataFileLock.readLock().lock();
-        try {
-            // Поиск в Header Index
-            for (Map.Entry<HeaderIndex.ByteArrayWrapper, HeaderRecord> entry : headerIndex.entrySet()) {
-                HeaderRecord header = entry.getValue();
-
-                if (!header.isActive || isExpired(header.expiryTime)) {
-                    continue;
-                }
-
-                if (matchesSearchQuery(header, query)) {
-                    byte[] data = get(header.name); // Используем get для кэширования
-                    if (data != null) {
-                        results.add(data);
-                    }
-                }
-            }
-
-        } finally {
-            dataFileLock.readLock().unlock();
+        try (FindCursor cursor = engine.find(query, FindOptions.defaults())) {
+            cursor.forEachRemaining(entry -> results.add(entry.getValue()));
         }
-
         return results;
     }
 
-    // Вспомогательные методы
-
-    private boolean isExpired(long expiryTime) {
-        return expiryTime != -1 && expiryTime < (System.currentTimeMillis() / 1000);
+    // Курсор результатов: совпадения вычисляются и значения читаются по мере обхода,
+    // обход прекращается после options.limit результатов или закрытия курсора
+    public FindCursor find(SearchQuery query, FindOptions options) {
+        return engine.find(query, options != null ? options : FindOptions.defaults());
     }
 
-    private byte[] readDataBlock(HeaderRecord header) throws IOException {
-        dataFileLock.readLock().lock();
-        try {
-            dataFile.seek(header.dataAddress);
-
-            // Чтение дублированного заголовка
-            boolean isActive = dataFile.readBoolean();
-            long expiryTime = dataFile.readLong();
-
-            int keyLength = dataFile.readInt();
-            byte[] key = new byte[keyLength];
-            dataFile.readFully(key);
-
-            // Проверка совпадения заголовков
-            if (!Arrays.equals(key, header.name) || isActive != header.isActive) {
-                throw new IOException("Header mismatch in data block");
-            }
-
-            // Чтение разделителя
-            byte[] delimiter = new byte[HEADER_DATA_DELIMITER.length];
-            dataFile.readFully(delimiter);
-            if (!Arrays.equals(delimiter, HEADER_DATA_DELIMITER)) {
-                throw new IOException("Invalid header-data delimiter");
-            }
-
-            // Читаем данные
-            byte[] data = new byte[header.dataSize];
-            dataFile.readFully(data);
-
-            // Пропускаем оставшуюся часть блока (векторы и разделители)
-            // В реальной реализации нужно читать до RECORD_END_DELIMITER
-
-            return data;
-        } finally {
-            dataFileLock.readLock().unlock();
-        }
+    // Просмотр диапазона ключей [fromKey, toKey) по порядку ключей (беззнаковый порядок байт,
+    // null - без границы). Стоимость пропорциональна размеру результата, а не числу ключей.
+    // Страница - не более limit записей после pageToken (null - первая страница)
+    public ScanPage scan(byte[] fromKey, byte[] toKey, byte[] pageToken, int limit) {
+        return engine.scan(fromKey, toKey, pageToken, limit);
     }
 
-    private void writeDataBlock(byte[] key, byte[] value, long expiryTime,
-                                float[] dataVector, long address) throws IOException {
-        dataFileLock.writeLock().lock();
-        try {
-            dataFile.seek(address);
-
-            // Запись дублированного заголовка
-            dataFile.writeBoolean(true);
-            dataFile.writeLong(expiryTime);
-            dataFile.writeInt(key.length);
-            dataFile.write(key);
-
-            // Разделитель заголовок-данные
-            dataFile.write(HEADER_DATA_DELIMITER);
-
-            // Данные
-            dataFile.write(value);
-
-            // Вектор данных (если есть)
-            if (dataVector != null) {
-                dataFile.write(DATA_VECTOR_DELIMITER);
-                dataFile.writeInt(dataVector.length);
-                for (float f : dataVector) {
-                    dataFile.writeFloat(f);
-                }
-            }
-
-            // Конец записи
-            dataFile.write(RECORD_END_DELIMITER);
-        } finally {
-            dataFileLock.writeLock().unlock();
+    // Все ключи с префиксом, например "user:123:"
+    public ScanPage scanPrefix(byte[] prefix, byte[] pageToken, int limit) {
+        if (prefix == null) {
+            throw new DataManagerException("Prefix cannot be null");
         }
+        return engine.scan(prefix, ScanPage.prefixEnd(prefix), pageToken, limit);
     }
 
-    private boolean matchesSearchQuery(HeaderRecord header, SearchQuery query) {
-        switch (query.getType()) {
-            case EXACT_MATCH:
-                return Arrays.equals(header.name, query.getKey());
-
-            case MASK_SEARCH:
-                return matchesMask(header.name, query.getMask());
-
-            case VECTOR_SEARCH:
-                if (header.nameVector != null && query.getVector() != null) {
-                    double similarity = calculateCosineSimilarity(header.nameVector, query.getVector());
-                    return similarity >= query.getSimilarityThreshold();
-                }
-                return false;
-
-            default:
-                return false;
-        }
+    // Ленивый обход диапазона: страницы по DEFAULT_SCAN_PAGE_SIZE записей читаются по мере обхода
+    public Iterator<ScanPage.Entry> scan(byte[] fromKey, byte[] toKey) {
+        return new ScanIterator(pageToken -> scan(fromKey, toKey, pageToken, DEFAULT_SCAN_PAGE_SIZE));
     }
 
-    private boolean matchesMask(byte[] data, byte[] mask) {
-        if (mask == null) return false;
-
-        // Простая реализация поиска по маске с поддержкой wildcard '?'
-        if (data.length != mask.length) return false;
-
-        for (int i = 0; i < data.length; i++) {
-            if (mask[i] != (byte) '?' && data[i] != mask[i]) {
-                return false;
-            }
+    public Iterator<ScanPage.Entry> scanPrefix(byte[] prefix) {
+        if (prefix == null) {
+            throw new DataManagerException("Prefix cannot be null");
         }
-        return true;
+        byte[] end = ScanPage.prefixEnd(prefix);
+        return new ScanIterator(pageToken -> scan(prefix, end, pageToken, DEFAULT_SCAN_PAGE_SIZE));
     }
 
-    private double calculateCosineSimilarity(float[] v1, float[] v2) {
-        if (v1 == null || v2 == null || v1.length != v2.length) return 0.0;
-
-        double dotProduct = 0;
-        double norm1 = 0;
-        double norm2 = 0;
-
-        for (int i = 0; i < v1.length; i++) {
-            dotProduct += v1[i] * v2[i];
-            norm1 += v1[i] * v1[i];
-            norm2 += v2[i] * v2[i];
-        }
+    // Фоновая обработка
 
-        if (norm1 == 0 || norm2 == 0) return 0.0;
-        return dotProduct / (Math.sqrt(norm1) * Math.sqrt(norm2));
+    public void runGarbageCollector() {
+        engine.runGarbageCollector();
     }
 
-    private int calculateTotalBlockSize(byte[] key, byte[] data, float[] dataVector) {
-        int size = 0;
-
-        // Дублированный заголовок
-        size += 1 + 8 + 4 + key.length;
-
-        // Разделители
-        size += HEADER_DATA_DELIMITER.length;
-        size += RECORD_END_DELIMITER.length;
-
-        // Данные
-        size += data.length;
-
-        // Вектор данных (если есть)
-        if (dataVector != null) {
-            size += DATA_VECTOR_DELIMITER.length + 4 + dataVector.length * 4;
-        }
-
-        return size;
+    public void compact() throws IOException {
+        engine.compact();
     }
 
-    private long estimateMemoryUsage(byte[] key, byte[] value, float[] nameVector, float[] dataVector) {
-        long usage = 0;
-
-        // Основные данные
-        if (key != null) usage += key.length;
-        if (value != null) usage += value.length;
-
-        // Векторы
-        if (nameVector != null) usage += nameVector.length * 4L;
-        if (dataVector != null) usage += dataVector.length * 4L;
-
-        // Накладные расходы (объекты, служебные структуры)
-        usage += 1024; // +1KB для служебных структур
-
-        return usage;
+    public void backup(String backupPath) throws IOException {
+        engine.backup(backupPath);
     }
 
-    private long estimateMemoryUsage(byte[] data, HeaderRecord header) {
-        long usage = 0;
-
-        if (data != null) usage += data.length;
-        if (header != null && header.name != null) usage += header.name.length;
-        if (header != null && header.nameVector != null) usage += header.nameVector.length * 4L;
-
-        // Накладные расходы
-        usage += 512; // +0.5KB для служебных структур кэша
+    // Дополнительные методы
 
-        return usage;
+    public void setCacheTTL(int seconds) {
+        engine.setCacheTTL(seconds);
     }
 
-    private void markForDeletion(HeaderRecord header) throws IOException {
-        HeaderRecord deletedHeader = new HeaderRecord(false,
-                System.currentTimeMillis() / 1000,
-                header.name, header.dataAddress, header.dataSize, header.nameVector);
-        headerIndex.put(header.name, deletedHeader);
-
-        freeSpaceManager.addFreeBlock(header.dataAddress,
-                calculateTotalBlockSize(header.name, new byte[header.dataSize], null));
+    public int getIndexSize() {
+        return engine.getIndexSize();
     }
 
-    private void markDataBlockForDeletion(long address) throws IOException {
-        dataFileLock.writeLock().lock();
-        try {
-            dataFile.seek(address);
-            dataFile.writeBoolean(false); // Помечаем как неактивный
-        } finally {
-            dataFileLock.writeLock().unlock();
-        }
+    public long getDataFileSize() throws IOException {
+        return engine.getDataFileSize();
     }
 
-    private void updateDataBlock(HeaderRecord header, byte[] newData) throws IOException {
-        dataFileLock.writeLock().lock();
-        try {
-            dataFile.seek(header.dataAddress);
-
-            // Перезаписываем только данные, сохраняя заголовок
-            // Пропускаем заголовок (isActive + expiryTime + keyLength + key)
-            dataFile.skipBytes(1 + 8 + 4 + header.name.length);
-
-            // Пропускаем разделитель
-            dataFile.skipBytes(HEADER_DATA_DELIMITER.length);
-
-            // Записываем новые данные
-            dataFile.write(newData);
-        } finally {
-            dataFileLock.writeLock().unlock();
-        }
+    // Принудительно записывает все ожидающие блоки и сбрасывает их на диск
+    public void flush() {
+        engine.flush();
     }
 
-    private void initializeFreeSpaceManager() throws IOException {
-        // При инициализации сканируем файл данных для поиска удаленных блоков
-        // Это упрощенная реализация - в реальной системе нужно хранить карту свободных блоков
-        dataFileLock.readLock().lock();
-        try {
-            // Сканируем файл для поиска удаленных блоков
-            long filePointer = 0;
-            while (filePointer < dataFile.length()) {
-                dataFile.seek(filePointer);
-
-                try {
-                    boolean isActive = dataFile.readBoolean();
-                    long expiryTime = dataFile.readLong();
-
-                    int keyLength = dataFile.readInt();
-                    byte[] key = new byte[keyLength];
-                    dataFile.readFully(key);
-
-                    // Пропускаем разделитель
-                    dataFile.skipBytes(HEADER_DATA_DELIMITER.length);
-
-                    int dataSize = dataFile.readInt();
-
-                    // Вычисляем размер блока
-                    int blockSize = calculateTotalBlockSize(key, new byte[dataSize], null);
-
-                    // Если блок неактивен, добавляем в свободное пространство
-                    if (!isActive) {
-                        freeSpaceManager.addFreeBlock(filePointer, blockSize);
-                    }
-
-                    // Переходим к следующему блоку
-                    filePointer += blockSize;
-
-                } catch (EOFException e) {
-                    break; // Достигнут конец файла
-                } catch (IOException e) {
-                    // Пропускаем поврежденные блоки
-                    System.err.println("Warning: Corrupted data block at position " + filePointer);
-                    break;
-                }
-            }
-        } finally {
-            dataFileLock.readLock().unlock();
-        }
+    public SystemStats getSystemStats() throws IOException {
+        return engine.getSystemStats();
     }
 
-    private void startBackgroundTasks() {
-        // Сборщик мусора
-        backgroundScheduler.scheduleAtFixedRate(this::runGarbageCollector, 1, 1, TimeUnit.HOURS);
-
-        // Дефрагментатор
-        backgroundScheduler.scheduleAtFixedRate(this::runDefragmentation, 6, 6, TimeUnit.HOURS);
-
-        // Объединение смежных свободных блоков
-        backgroundScheduler.scheduleAtFixedRate(freeSpaceManager::mergeAdjacentBlocks, 30, 30, TimeUnit.MINUTES);
-
-        // Мониторинг памяти
-        backgroundScheduler.scheduleAtFixedRate(this::logMemoryStats, 5, 5, TimeUnit.MINUTES);
+    public StorageEngine getEngine() {
+        return engine;
     }
 
-    // Фоновая обработка
+    public MemoryManager getMemoryManager() {
+        return memoryManager;
+    }
 
-    public void runGarbageCollector() {
-        dataFileLock.writeLock().lock();
-        try {
-            List<byte[]> keysToRemove = new ArrayList<>();
-            int removedCount = 0;
-
-            for (Map.Entry<HeaderIndex.ByteArrayWrapper, HeaderRecord> entry : headerIndex.entrySet()) {
-                HeaderRecord header = entry.getValue();
-                if (!header.isActive && isExpired(header.expiryTime)) {
-                    keysToRemove.add(entry.getKey().getData());
-                    removedCount++;
-                }
-            }
-
-            // Удаляем просроченные записи
-            for (byte[] key : keysToRemove) {
-                headerIndex.remove(key);
-            }
-
-            if (removedCount > 0) {
-                System.out.println("Garbage collector removed " + removedCount + " expired records");
-            }
-
-        } catch (IOException e) {
-            System.err.println("Error during garbage collection: " + e.getMessage());
-        } finally {
-            dataFileLock.writeLock().unlock();
-        }
+    public StorageConfig getConfig() {
+        return config;
     }
 
-    private void runDefragmentation() {
-        dataFileLock.writeLock().lock();
-        try {
-            // Упрощенная реализация дефрагментации
-            // В реальной системе нужно переписывать блоки для устранения фрагментации
-            System.out.println("Defragmentation cycle completed - free blocks: " +
-                    freeSpaceManager.getFreeSpaceCount() + ", total free space: " +
-                    freeSpaceManager.getTotalFreeSpace() + " bytes");
-        } finally {
-            dataFileLock.writeLock().unlock();
-        }
+    public String getDataFileName() {
+        return dataFileName;
     }
 
-    private void logMemoryStats() {
-        double usageRatio = memoryManager.getMemoryUsageRatio();
-        if (usageRatio > 0.8) {
-            System.out.printf("Memory warning: %.1f%% used (%d/%d bytes)%n",
-                    usageRatio * 100, memoryManager.getUsedMemory(), memoryManager.getMaxMemory());
-        }
+    public String getIndexFileName() {
+        return indexFileName;
     }
 
-    // Дополнительные методы
+    // Структуры, которые есть только у движка IN_PLACE
 
-    public void setCacheTTL(int seconds) {
-        cache.setCacheTTL(seconds);
+    public FreeSpaceManager getFreeSpaceManager() {
+        return inPlaceEngine().getFreeSpaceManager();
     }
 
-    public int getIndexSize() {
-        return headerIndex.size();
+    public DataCache getCache() {
+        return inPlaceEngine().getCache();
     }
 
-    public long getDataFileSize() throws IOException {
-        dataFileLock.readLock().lock();
-        try {
-            return dataFile.length();
-        } finally {
-            dataFileLock.readLock().unlock();
-        }
+    public OffHeapCache getOffHeapCache() {
+        return inPlaceEngine().getOffHeapCache();
     }
 
-    public FreeSpaceManager getFreeSpaceManager() {
-        return freeSpaceManager;
+    public SegmentManager getSegmentManager() {
+        return inPlaceEngine().getSegmentManager();
     }
 
-    public MemoryManager getMemoryManager() {
-        return memoryManager;
+    public ValueCompressor getCompressor() {
+        return inPlaceEngine().getCompressor();
     }
 
-    public String getDataFileName() {
-        return dataFileName;
+    public HeaderIndex getHeaderIndex() {
+        return inPlaceEngine().getHeaderIndex();
     }
 
-    public String getIndexFileName() {
-        return indexFileName;
+    public GarbageCollectorStats getGarbageCollectorStats() {
+        return inPlaceEngine().getGarbageCollectorStats();
     }
 
-    public SystemStats getSystemStats() throws IOException {
-        dataFileLock.readLock().lock();
-        try {
-            return new SystemStats(
-                    headerIndex.size(),
-                    getDataFileSize(),
-                    freeSpaceManager.getFreeSpaceCount(),
-                    freeSpaceManager.getTotalFreeSpace(),
-                    memoryManager.getUsedMemory(),
-                    memoryManager.getMaxMemory(),
-                    memoryManager.getMemoryUsageRatio(),
-                    cache.getSize()
-            );
-        } finally {
-            dataFileLock.readLock().unlock();
+    // Пакетная загрузка (только движок IN_PLACE)
+    public BulkLoader bulkLoader() {
+        return inPlaceEngine().bulkLoader();
+    }
+
+    private InPlaceStorageEngine inPlaceEngine() {
+        if (!(engine instanceof InPlaceStorageEngine)) {
+            throw new DataManagerException("Operation is not supported by storage engine " + config.getStorageEngine());
         }
+        return (InPlaceStorageEngine) engine;
     }
 
     public static class SystemStats {
@@ -679,10 +243,22 @@ public class BinaryDataManager implements AutoCloseable {
         private final long maxMemory;
         private final double memoryUsageRatio;
         private final int cacheSize;
+        private final long cacheBytes;
+        private final long cacheHits;
+        private final long cacheMisses;
+        private final long cacheEvictions;
+        private final int largestFreeBlock;
+        private final double fragmentation;
+        private final double avgAllocationNanos;
+        private final long maxAllocationNanos;
+        private final int segmentCount;
 
         public SystemStats(int indexSize, long dataFileSize, int freeSpaceBlocks,
                            long totalFreeSpace, long usedMemory, long maxMemory,
-                           double memoryUsageRatio, int cacheSize) {
+                           double memoryUsageRatio, int cacheSize, long cacheBytes,
+                           long cacheHits, long cacheMisses, long cacheEvictions,
+                           int largestFreeBlock, double fragmentation,
+                           double avgAllocationNanos, long maxAllocationNanos, int segmentCount) {
             this.indexSize = indexSize;
             this.dataFileSize = dataFileSize;
             this.freeSpaceBlocks = freeSpaceBlocks;
@@ -691,6 +267,15 @@ public class BinaryDataManager implements AutoCloseable {
             this.maxMemory = maxMemory;
             this.memoryUsageRatio = memoryUsageRatio;
             this.cacheSize = cacheSize;
+            this.cacheBytes = cacheBytes;
+            this.cacheHits = cacheHits;
+            this.cacheMisses = cacheMisses;
+            this.cacheEvictions = cacheEvictions;
+            this.largestFreeBlock = largestFreeBlock;
+            this.fragmentation = fragmentation;
+            this.avgAllocationNanos = avgAllocationNanos;
+            this.maxAllocationNanos = maxAllocationNanos;
+            this.segmentCount = segmentCount;
         }
 
         // Getters
@@ -702,107 +287,41 @@ public class BinaryDataManager implements AutoCloseable {
         public long getMaxMemory() { return maxMemory; }
         public double getMemoryUsageRatio() { return memoryUsageRatio; }
         public int getCacheSize() { return cacheSize; }
+        public long getCacheBytes() { return cacheBytes; }
+        public long getCacheHits() { return cacheHits; }
+        public long getCacheMisses() { return cacheMisses; }
+        public long getCacheEvictions() { return cacheEvictions; }
+        public int getLargestFreeBlock() { return largestFreeBlock; }
+        public double getFragmentation() { return fragmentation; }
+        public double getAvgAllocationNanos() { return avgAllocationNanos; }
+        public long getMaxAllocationNanos() { return maxAllocationNanos; }
+        public int getSegmentCount() { return segmentCount; }
 
         @Override
         public String toString() {
             return String.format(
                     "SystemStats{indexSize=%d, dataFileSize=%,d, freeBlocks=%d, freeSpace=%,d, " +
-                            "memory=%,d/%,d (%.1f%%), cacheSize=%d}",
+                            "memory=%,d/%,d (%.1f%%), cacheSize=%d, cacheBytes=%,d, " +
+                            "cacheHits=%d, cacheMisses=%d, cacheEvictions=%d, largestFreeBlock=%,d, " +
+                            "fragmentation=%.1f%%, allocation=%.0f ns avg/%,d ns max, segments=%d}",
                     indexSize, dataFileSize, freeSpaceBlocks, totalFreeSpace,
-                    usedMemory, maxMemory, memoryUsageRatio * 100, cacheSize
+                    usedMemory, maxMemory, memoryUsageRatio * 100, cacheSize, cacheBytes,
+                    cacheHits, cacheMisses, cacheEvictions, largestFreeBlock,
+                    fragmentation * 100, avgAllocationNanos, maxAllocationNanos, segmentCount
             );
         }
     }
 
-    public void compact() throws IOException {
-        dataFileLock.writeLock().lock();
-        try {
-            // Реализация компрессии/дефрагментации файла данных
-            // В реальной системе нужно переписать все активные блоки в новый файл
-            // и заменить старый файл новым
-            System.out.println("Compaction started...");
-
-            // Временная реализация - просто запускаем сборщик мусора
-            runGarbageCollector();
-            freeSpaceManager.mergeAdjacentBlocks();
-
-            System.out.println("Compaction completed");
-        } finally {
-            dataFileLock.writeLock().unlock();
-        }
-    }
-
-    public void backup(String backupPath) throws IOException {
-        dataFileLock.readLock().lock();
-        try {
-            System.out.println("Starting backup to: " + backupPath);
-
-            // Создаем директорию для бэкапа
-            File backupDir = new File(backupPath);
-            if (!backupDir.exists()) {
-                backupDir.mkdirs();
-            }
-
-            // Копируем файл данных
-            File dataFileSrc = new File(dataFileName);
-            File dataFileDst = new File(backupPath, "data.bin.backup");
-            copyFile(dataFileSrc, dataFileDst);
-
-            // Копируем файл индекса
-            File indexFileSrc = new File(indexFileName);
-            File indexFileDst = new File(backupPath, "index.idx.backup");
-            copyFile(indexFileSrc, indexFileDst);
-
-            System.out.println("Backup completed successfully");
-        } finally {
-            dataFileLock.readLock().unlock();
-        }
-    }
-
-    private void copyFile(File source, File destination) throws IOException {
-        try (FileInputStream fis = new FileInputStream(source);
-             FileOutputStream fos = new FileOutputStream(destination)) {
-            byte[] buffer = new byte[8192];
-            int bytesRead;
-            while ((bytesRead = fis.read(buffer)) != -1) {
-                fos.write(buffer, 0, bytesRead);
-            }
-        }
-    }
-
     @Override
     public void close() {
-        dataFileLock.writeLock().lock();
-        try {
-            System.out.println("Closing BinaryDataManager...");
-
-            // Закрываем кэш
-            cache.close();
+        System.out.println("Closing BinaryDataManager...");
+        engine.close();
 
-            // Останавливаем фоновые задачи
-            backgroundScheduler.shutdown();
-            if (!backgroundScheduler.awaitTermination(10, TimeUnit.SECONDS)) {
-                backgroundScheduler.shutdownNow();
-            }
-
-            // Закрываем индекс
-            headerIndex.close();
-
-            // Закрываем файл данных
-            dataFile.close();
-
-            // Закрываем менеджер памяти
-            if (memoryManager != null) {
-                memoryManager.close();
-            }
-
-            System.out.println("BinaryDataManager closed successfully");
-
-        } catch (IOException | InterruptedException e) {
-            throw new DataManagerException("Error closing BinaryDataManager", e);
-        } finally {
-            dataFileLock.writeLock().unlock();
+        // Закрываем менеджер памяти
+        if (memoryManager != null) {
+            memoryManager.close();
         }
+        System.out.println("BinaryDataManager closed successfully");
     }
 
     // Статические методы для создания экземпляров с различной конфигурацией
@@ -821,9 +340,7 @@ public class BinaryDataManager implements AutoCloseable {
         }
         return new BinaryDataManager(dataFile, indexFile, memoryBytes);
     }
-    public DataCache getCache() {
-        return cache;
-    }
+
     // Новые методы для SQL операций
     public SqlResult executeSql(SqlQuery query) {
         return sqlProcessor.execute(query);
@@ -832,4 +349,4 @@ public class BinaryDataManager implements AutoCloseable {
     public SqlProcessor getSqlProcessor() {
         return sqlProcessor;
     }
-}
\ No newline at end of file
+}
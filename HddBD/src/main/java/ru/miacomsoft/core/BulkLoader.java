@@ -0,0 +1,179 @@
+package ru.miacomsoft.core;
+
+import ru.miacomsoft.core.exceptions.DataManagerException;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+// Пакетная загрузка ключей в движок с размещением на месте.
+// Блоки пишутся последовательно большими буферами в отдельные (зарезервированные) сегменты,
+// в обход групповой записи и журнала индекса. Заголовки копятся в памяти и в finish()
+// одним проходом устанавливаются в индекс, который сохраняется снимком; освобожденные
+// старые блоки попадают в карту свободного места там же.
+// Порядок ключей на входе произвольный (при повторе ключа побеждает последнее значение);
+// блоки лежат на диске в порядке добавления. Загрузчик не потокобезопасен.
+// Ключи, записанные через put() во время загрузки, перезаписываются загруженными значениями.
+public class BulkLoader implements AutoCloseable {
+    private static final int WRITE_BUFFER_BYTES = 8 * 1024 * 1024; // 8 MB
+
+    private final InPlaceStorageEngine engine;
+    private final SegmentManager segments;
+    private final long segmentBytes;
+    private final ByteBuffer buffer;
+    private final Map<HeaderIndex.ByteArrayWrapper, HeaderRecord> loaded = new HashMap<>();
+    private final List<HeaderRecord> replaced = new ArrayList<>();
+    private final List<SegmentManager.Segment> reservedSegments = new ArrayList<>();
+    private final long startNanos;
+
+    private SegmentManager.Segment segment;
+    private long position;         // конец записанных в сегмент данных (включая буфер)
+    private long bufferPosition;   // смещение в сегменте, с которого начинается буфер
+    private long bytesWritten;
+    private boolean installing; // сегменты переданы индексу и при отмене не удаляются
+    private boolean closed;
+
+    BulkLoader(InPlaceStorageEngine engine, SegmentManager segments, StorageConfig config) {
+        this.engine = engine;
+        this.segments = segments;
+        this.segmentBytes = config.getSegmentBytes();
+        this.buffer = ByteBuffer.allocateDirect((int) Math.min(WRITE_BUFFER_BYTES, segmentBytes));
+        this.startNanos = System.nanoTime();
+    }
+
+    public void add(byte[] key, byte[] value) {
+        add(key, value, -1, null, null);
+    }
+
+    public void add(byte[] key, byte[] value, long expiryTime, float[] nameVector, float[] dataVector) {
+        if (key == null || key.length == 0) {
+            throw new DataManagerException("Key cannot be null or empty");
+        }
+        if (value == null) {
+            throw new DataManagerException("Value cannot be null");
+        }
+        checkOpen();
+
+        try {
+            // Блок в том же формате, что и при put(): сжатие, дублированный заголовок, векторы
+            byte[] compressed = engine.getCompressor().compress(key, value);
+            CompressionCodec codec = compressed != null ? engine.getCompressor().getCodec() : CompressionCodec.NONE;
+            byte[] stored = compressed != null ? compressed : value;
+            byte[] block = engine.encodeDataBlock(key, stored, codec, expiryTime, dataVector);
+
+            long address = append(block);
+            byte[] name = key.clone();
+            HeaderRecord header = new HeaderRecord(true, expiryTime, name, address, stored.length,
+                    nameVector, block.length);
+            HeaderRecord previous = loaded.put(new HeaderIndex.ByteArrayWrapper(name), header);
+            if (previous != null) {
+                replaced.add(previous);
+            }
+        } catch (IOException e) {
+            throw new DataManagerException("Error writing bulk data for key: " + Arrays.toString(key), e);
+        }
+    }
+
+    // Размещает блок в конце текущего сегмента; заполненный сегмент сменяется новым
+    private long append(byte[] block) throws IOException {
+        if (segment == null || (position > 0 && position + block.length > segmentBytes)) {
+            nextSegment();
+        }
+        long address = HeaderRecord.toAddress(segment.getId(), position);
+
+        int offset = 0;
+        while (offset < block.length) {
+            if (!buffer.hasRemaining()) {
+                writeBuffer();
+            }
+            int length = Math.min(buffer.remaining(), block.length - offset);
+            buffer.put(block, offset, length);
+            offset += length;
+        }
+        position += block.length;
+        bytesWritten += block.length;
+        return address;
+    }
+
+    private void writeBuffer() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            bufferPosition += segment.getChannel().write(buffer, bufferPosition);
+        }
+        buffer.clear();
+    }
+
+    private void nextSegment() throws IOException {
+        completeSegment();
+        segment = segments.reserve();
+        reservedSegments.add(segment);
+        position = 0;
+        bufferPosition = 0;
+    }
+
+    // Дописывает буфер и сбрасывает сегмент на диск; после этого место в нем считается занятым
+    private void completeSegment() throws IOException {
+        if (segment == null) {
+            return;
+        }
+        writeBuffer();
+        segment.getChannel().force(false);
+        segments.completeReserved(segment, position);
+    }
+
+    // Завершает загрузку: данные сбрасываются на диск, заголовки устанавливаются в индекс.
+    // Возвращает количество загруженных ключей
+    public int finish() {
+        checkOpen();
+        try {
+            completeSegment();
+            segment = null;
+            installing = true;
+            engine.installBulk(loaded.values(), replaced);
+
+            double seconds = (System.nanoTime() - startNanos) / 1_000_000_000.0;
+            System.out.printf("Bulk load completed: %d keys, %d bytes in %d segments, %.1f s%n",
+                    loaded.size(), bytesWritten, reservedSegments.size(), seconds);
+            return loaded.size();
+        } catch (IOException e) {
+            throw new DataManagerException("Error completing bulk load", e);
+        } finally {
+            closed = true;
+        }
+    }
+
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("Bulk loader is already closed");
+        }
+    }
+
+    public int getKeyCount() {
+        return loaded.size();
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    // Без finish() загрузка отменяется: записанные сегменты удаляются
+    @Override
+    public void close() {
+        if (installing || (closed && reservedSegments.isEmpty())) {
+            return;
+        }
+        closed = true;
+        try {
+            for (SegmentManager.Segment reserved : reservedSegments) {
+                segments.delete(reserved);
+            }
+            System.out.println("Bulk load aborted: " + reservedSegments.size() + " segments removed");
+        } catch (IOException e) {
+            throw new DataManagerException("Error aborting bulk load", e);
+        } finally {
+            reservedSegments.clear();
+            loaded.clear();
+            replaced.clear();
+        }
+    }
+}
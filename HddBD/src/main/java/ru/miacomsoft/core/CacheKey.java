@@ -0,0 +1,28 @@
+package ru.miacomsoft.core;
+
+import java.util.Arrays;
+
+// Ключ кэша: байтовый массив с заранее вычисленным хешем,
+// чтобы поиск не создавал промежуточных объектов
+final class CacheKey {
+    private final byte[] data;
+    private final int hash;
+
+    CacheKey(byte[] data) {
+        this.data = data;
+        this.hash = Arrays.hashCode(data);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) return true;
+        if (!(obj instanceof CacheKey)) return false;
+        CacheKey that = (CacheKey) obj;
+        return hash == that.hash && Arrays.equals(data, that.data);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+}
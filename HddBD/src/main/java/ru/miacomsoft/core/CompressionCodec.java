@@ -0,0 +1,27 @@
+package ru.miacomsoft.core;
+
+public enum CompressionCodec {
+    NONE(0),    // Значение хранится как есть
+    DEFLATE(1), // java.util.zip.Deflater
+    DEFLATE_DICTIONARY(2); // Deflater с обучаемым словарем keyspace (CompressionDictionaries)
+
+    // Идентификатор кодека в заголовке блока данных (7 бит)
+    private final int id;
+
+    CompressionCodec(int id) {
+        this.id = id;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public static CompressionCodec fromId(int id) {
+        for (CompressionCodec codec : values()) {
+            if (codec.id == id) {
+                return codec;
+            }
+        }
+        throw new IllegalArgumentException("Unknown compression codec id: " + id);
+    }
+}
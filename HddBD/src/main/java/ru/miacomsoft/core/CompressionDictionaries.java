@@ -0,0 +1,424 @@
+package ru.miacomsoft.core;
+
+import ru.miacomsoft.core.exceptions.DataManagerException;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+// Обучаемые словари сжатия по keyspace (префикс ключа до ':', например "user" для "user:42").
+// Для каждого keyspace собирается случайная выборка значений, по ней в фоне строится
+// словарь deflate из фрагментов, которые чаще всего повторяются в разных значениях.
+// Словари версионируются: переобученный словарь получает новый id, старые остаются
+// в файле, чтобы читались блоки, сжатые ими.
+// Формат файла: записи [id][длина keyspace][keyspace][длина словаря][словарь][CRC32].
+public class CompressionDictionaries implements Closeable {
+    private static final byte KEYSPACE_DELIMITER = ':';
+    private static final String DEFAULT_KEYSPACE = "";
+    private static final int MAX_KEYSPACES = 256;
+    private static final int MAX_KEYSPACE_LENGTH = 64;
+
+    // Большие значения хорошо сжимаются и без словаря - в выборку не попадают
+    private static final int MAX_SAMPLE_VALUE_BYTES = 16 * 1024;
+
+    // Переобучение после RETRAIN_FACTOR * размер выборки новых значений;
+    // новый словарь принимается, если сжимает отложенную часть выборки заметно лучше
+    private static final int RETRAIN_FACTOR = 100;
+    private static final double MIN_IMPROVEMENT = 0.05;
+
+    // Обучение: фрагменты длиной SEGMENT с шагом SEGMENT_STEP оцениваются
+    // по частоте входящих в них 8-байтовых подстрок
+    static final int GRAM = 8;
+    private static final int SEGMENT = 64;
+    private static final int SEGMENT_STEP = 16;
+
+    public static final class Dictionary {
+        final int id;
+        final String keyspace;
+        final byte[] data;
+
+        Dictionary(int id, String keyspace, byte[] data) {
+            this.id = id;
+            this.keyspace = keyspace;
+            this.data = data;
+        }
+
+        public int getId() { return id; }
+        public String getKeyspace() { return keyspace; }
+        public int getSize() { return data.length; }
+    }
+
+    private static final class Keyspace {
+        final String name;
+        volatile Dictionary current;
+        final List<byte[]> sample = new ArrayList<>();
+        long seen; // значений с последнего обучения
+        boolean training;
+
+        Keyspace(String name) {
+            this.name = name;
+        }
+    }
+
+    private final File file;
+    private final FileChannel channel;
+    private final int dictionaryBytes;
+    private final int sampleValues;
+    private final int level;
+    private final Executor executor;
+    private final Map<Integer, Dictionary> dictionaries = new ConcurrentHashMap<>();
+    private final Map<String, Keyspace> keyspaces = new ConcurrentHashMap<>();
+    private final AtomicInteger nextId = new AtomicInteger(1);
+
+    public CompressionDictionaries(File file, StorageConfig config, Executor executor) throws IOException {
+        this.file = file;
+        this.dictionaryBytes = config.getCompressionDictionaryBytes();
+        this.sampleValues = config.getCompressionDictionarySamples();
+        this.level = config.getCompressionLevel();
+        this.executor = executor;
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        load();
+    }
+
+    // Читает словари из файла. Недописанная последняя запись (сбой во время добавления)
+    // отбрасывается - блоки со ссылкой на нее не записывались
+    private void load() throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(file), 64 * 1024));
+        long validLength = 0;
+        try (in) {
+            while (true) {
+                int id = in.readInt();
+                int keyspaceLength = in.readInt();
+                if (keyspaceLength < 0 || keyspaceLength > MAX_KEYSPACE_LENGTH * 4) {
+                    break;
+                }
+                byte[] keyspace = new byte[keyspaceLength];
+                in.readFully(keyspace);
+                int dataLength = in.readInt();
+                if (dataLength < 0 || dataLength > StorageConfig.MAX_DICTIONARY_BYTES) {
+                    break;
+                }
+                byte[] data = new byte[dataLength];
+                in.readFully(data);
+                int checksum = in.readInt();
+
+                Dictionary dictionary = new Dictionary(id, new String(keyspace, StandardCharsets.UTF_8), data);
+                if (checksum != checksumOf(dictionary)) {
+                    break;
+                }
+                install(dictionary);
+                validLength += 4 + 4 + keyspace.length + 4 + data.length + 4;
+            }
+        } catch (EOFException e) {
+            // Конец файла или недописанная запись
+        }
+
+        channel.truncate(validLength);
+        channel.position(validLength);
+        if (!dictionaries.isEmpty()) {
+            System.out.println("Compression dictionaries loaded: " + dictionaries.size() +
+                    " versions for " + keyspaces.size() + " keyspaces");
+        }
+    }
+
+    private void install(Dictionary dictionary) {
+        dictionaries.put(dictionary.id, dictionary);
+        nextId.accumulateAndGet(dictionary.id + 1, Math::max);
+        Keyspace keyspace = keyspaces.computeIfAbsent(dictionary.keyspace, Keyspace::new);
+        if (keyspace.current == null || keyspace.current.id < dictionary.id) {
+            keyspace.current = dictionary;
+        }
+    }
+
+    private static int checksumOf(Dictionary dictionary) {
+        CRC32 crc = new CRC32();
+        crc.update(dictionary.id);
+        crc.update(dictionary.keyspace.getBytes(StandardCharsets.UTF_8));
+        crc.update(dictionary.data);
+        return (int) crc.getValue();
+    }
+
+    // Текущий словарь keyspace ключа или null, если словарь еще не обучен
+    public Dictionary current(byte[] key) {
+        Keyspace keyspace = keyspaces.get(keyspaceName(key));
+        if (keyspace == null) {
+            keyspace = keyspaces.get(DEFAULT_KEYSPACE);
+        }
+        return keyspace != null ? keyspace.current : null;
+    }
+
+    // Словарь по id (в том числе устаревшие версии)
+    public Dictionary get(int id) {
+        return dictionaries.get(id);
+    }
+
+    // Добавляет значение в выборку keyspace (reservoir sampling) и запускает обучение,
+    // когда набрано достаточно значений
+    public void sample(byte[] key, byte[] value) {
+        if (value.length < GRAM || value.length > MAX_SAMPLE_VALUE_BYTES) {
+            return;
+        }
+        Keyspace keyspace = keyspaceOf(key);
+        List<byte[]> trainingSample = null;
+        synchronized (keyspace) {
+            if (keyspace.training) {
+                return;
+            }
+            keyspace.seen++;
+            if (keyspace.sample.size() < sampleValues) {
+                keyspace.sample.add(value.clone());
+            } else {
+                long slot = ThreadLocalRandom.current().nextLong(keyspace.seen);
+                if (slot < sampleValues) {
+                    keyspace.sample.set((int) slot, value.clone());
+                }
+            }
+
+            long interval = keyspace.current == null ? sampleValues : (long) sampleValues * RETRAIN_FACTOR;
+            if (keyspace.seen >= interval) {
+                keyspace.training = true;
+                trainingSample = new ArrayList<>(keyspace.sample);
+                keyspace.sample.clear();
+                keyspace.seen = 0;
+            }
+        }
+
+        if (trainingSample != null) {
+            List<byte[]> values = trainingSample;
+            try {
+                executor.execute(() -> train(keyspace, values));
+            } catch (RejectedExecutionException e) {
+                finishTraining(keyspace);
+            }
+        }
+    }
+
+    private Keyspace keyspaceOf(byte[] key) {
+        String name = keyspaceName(key);
+        Keyspace keyspace = keyspaces.get(name);
+        if (keyspace != null) {
+            return keyspace;
+        }
+        // Число keyspace ограничено: ключи с новыми префиксами делят общий словарь
+        if (keyspaces.size() >= MAX_KEYSPACES) {
+            name = DEFAULT_KEYSPACE;
+        }
+        return keyspaces.computeIfAbsent(name, Keyspace::new);
+    }
+
+    private static String keyspaceName(byte[] key) {
+        for (int i = 0; i < key.length && i <= MAX_KEYSPACE_LENGTH; i++) {
+            if (key[i] == KEYSPACE_DELIMITER) {
+                return new String(key, 0, i, StandardCharsets.UTF_8);
+            }
+        }
+        return DEFAULT_KEYSPACE;
+    }
+
+    private void train(Keyspace keyspace, List<byte[]> sample) {
+        try {
+            // Каждое пятое значение откладывается для оценки словаря
+            List<byte[]> trainingValues = new ArrayList<>();
+            List<byte[]> testValues = new ArrayList<>();
+            for (int i = 0; i < sample.size(); i++) {
+                (i % 5 == 0 ? testValues : trainingValues).add(sample.get(i));
+            }
+
+            byte[] data = buildDictionary(trainingValues);
+            if (data.length == 0) {
+                return;
+            }
+            Dictionary current = keyspace.current;
+            long withNew = compressedSize(testValues, data);
+            long withCurrent = compressedSize(testValues, current != null ? current.data : null);
+            if (withNew >= withCurrent * (1 - MIN_IMPROVEMENT)) {
+                return;
+            }
+
+            // Словарь сохраняется на диск до того, как им будет сжат первый блок
+            Dictionary dictionary = new Dictionary(nextId.getAndIncrement(), keyspace.name, data);
+            append(dictionary);
+            install(dictionary);
+            System.out.printf("Compression dictionary %d trained for keyspace '%s': %d bytes, " +
+                            "sample %d -> %d bytes (%d without this dictionary)%n",
+                    dictionary.id, keyspace.name, data.length,
+                    totalSize(testValues), withNew, withCurrent);
+        } catch (IOException e) {
+            System.err.println("Error saving compression dictionary: " + e.getMessage());
+        } catch (RuntimeException e) {
+            System.err.println("Error training compression dictionary: " + e.getMessage());
+        } finally {
+            finishTraining(keyspace);
+        }
+    }
+
+    private void finishTraining(Keyspace keyspace) {
+        synchronized (keyspace) {
+            keyspace.training = false;
+        }
+    }
+
+    private synchronized void append(Dictionary dictionary) throws IOException {
+        if (!channel.isOpen()) {
+            throw new DataManagerException("Compression dictionaries are closed");
+        }
+        byte[] keyspace = dictionary.keyspace.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer record = ByteBuffer.allocate(4 + 4 + keyspace.length + 4 + dictionary.data.length + 4);
+        record.putInt(dictionary.id);
+        record.putInt(keyspace.length);
+        record.put(keyspace);
+        record.putInt(dictionary.data.length);
+        record.put(dictionary.data);
+        record.putInt(checksumOf(dictionary));
+        record.flip();
+        while (record.hasRemaining()) {
+            channel.write(record);
+        }
+        channel.force(true);
+    }
+
+    // Жадный выбор фрагментов: оценка фрагмента - сколько раз его 8-байтовые подстроки
+    // встречаются в других значениях выборки (уже покрытые словарем подстроки не учитываются).
+    // Самые полезные фрагменты ставятся в конец словаря - deflate кодирует близкие ссылки короче.
+    private byte[] buildDictionary(List<byte[]> values) {
+        // В скольких значениях встречается подстрока
+        Map<Long, Integer> frequency = new HashMap<>();
+        for (byte[] value : values) {
+            Set<Long> grams = new HashSet<>();
+            for (int i = 0; i + GRAM <= value.length; i++) {
+                if (grams.add(gramAt(value, i))) {
+                    frequency.merge(gramAt(value, i), 1, Integer::sum);
+                }
+            }
+        }
+
+        Set<Long> covered = new HashSet<>();
+        PriorityQueue<long[]> candidates = new PriorityQueue<>((a, b) -> Long.compare(b[0], a[0]));
+        for (int v = 0; v < values.size(); v++) {
+            byte[] value = values.get(v);
+            for (int start = 0; start + GRAM <= value.length; start += SEGMENT_STEP) {
+                int end = Math.min(start + SEGMENT, value.length);
+                long score = segmentScore(value, start, end, frequency, covered);
+                if (score > 0) {
+                    candidates.add(new long[]{score, v, start, end});
+                }
+            }
+        }
+
+        List<byte[]> selected = new ArrayList<>();
+        int size = 0;
+        while (size < dictionaryBytes && !candidates.isEmpty()) {
+            long[] candidate = candidates.poll();
+            byte[] value = values.get((int) candidate[1]);
+            int start = (int) candidate[2];
+            int end = (int) candidate[3];
+
+            // Оценка устаревает по мере покрытия подстрок - пересчитывается перед выбором
+            long score = segmentScore(value, start, end, frequency, covered);
+            if (score <= 0) {
+                continue;
+            }
+            if (!candidates.isEmpty() && score < candidates.peek()[0]) {
+                candidate[0] = score;
+                candidates.add(candidate);
+                continue;
+            }
+
+            int length = Math.min(end - start, dictionaryBytes - size);
+            selected.add(Arrays.copyOfRange(value, start, start + length));
+            size += length;
+            for (int i = start; i + GRAM <= end; i++) {
+                covered.add(gramAt(value, i));
+            }
+        }
+
+        byte[] dictionary = new byte[size];
+        int position = size;
+        for (byte[] segment : selected) {
+            position -= segment.length;
+            System.arraycopy(segment, 0, dictionary, position, segment.length);
+        }
+        return dictionary;
+    }
+
+    private static long segmentScore(byte[] value, int start, int end, Map<Long, Integer> frequency,
+                                     Set<Long> covered) {
+        long score = 0;
+        for (int i = start; i + GRAM <= end; i++) {
+            long gram = gramAt(value, i);
+            Integer count = frequency.get(gram);
+            if (count != null && count > 1 && !covered.contains(gram)) {
+                score += count - 1;
+            }
+        }
+        return score;
+    }
+
+    private static long gramAt(byte[] value, int offset) {
+        long gram = 0;
+        for (int i = 0; i < GRAM; i++) {
+            gram = (gram << 8) | (value[offset + i] & 0xFF);
+        }
+        return gram;
+    }
+
+    // Суммарный размер сжатых значений (dictionary == null - без словаря)
+    private long compressedSize(List<byte[]> values, byte[] dictionary) {
+        Deflater deflater = new Deflater(level);
+        byte[] buffer = new byte[MAX_SAMPLE_VALUE_BYTES * 2];
+        long total = 0;
+        try {
+            for (byte[] value : values) {
+                deflater.reset();
+                if (dictionary != null && dictionary.length > 0) {
+                    deflater.setDictionary(dictionary);
+                }
+                deflater.setInput(value);
+                deflater.finish();
+                while (!deflater.finished()) {
+                    total += deflater.deflate(buffer);
+                }
+            }
+        } finally {
+            deflater.end();
+        }
+        return total;
+    }
+
+    private static long totalSize(List<byte[]> values) {
+        long total = 0;
+        for (byte[] value : values) {
+            total += value.length;
+        }
+        return total;
+    }
+
+    public int getDictionaryCount() {
+        return dictionaries.size();
+    }
+
+    public int getKeyspaceCount() {
+        return keyspaces.size();
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        channel.close();
+    }
+}
@@ -1,25 +1,67 @@
 package ru.miacomsoft.core;
 
+import java.io.IOException;
 import java.util.Arrays;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
 
+// Кэш с ограничением по объему в байтах и политикой W-TinyLFU:
+// новые записи попадают в небольшое окно LRU, вытесненные из окна конкурируют за место
+// в основной области (SLRU: probation + protected) по частоте обращений из FrequencySketch.
 public class DataCache {
-    private final Map<String, CacheEntry> cache;
+    private final Map<CacheKey, Node> cache;
     private final ScheduledExecutorService cleanupScheduler;
+    private final MemoryManager memoryManager;
+    private final ReentrantLock evictionLock = new ReentrantLock();
+    private final FrequencySketch sketch;
+    private final ValueCompressor compressor; // null - значения хранятся только несжатыми
     private int cacheTTL = 3600; // 1 час по умолчанию
 
-    private static class CacheEntry {
+    // Очереди и их веса (защищены evictionLock)
+    private final AccessQueue window = new AccessQueue();
+    private final AccessQueue probation = new AccessQueue();
+    private final AccessQueue protectedQueue = new AccessQueue();
+    private final long maximumWeight;
+    private final long windowMaximum;
+    private final long protectedMaximum;
+    private long windowWeight;
+    private long protectedWeight;
+    private long totalWeight;
+
+    // Статистика
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+    private final LongAdder evictionCount = new LongAdder();
+    private final LongAdder rejectionCount = new LongAdder();
+
+    private static final int ENTRY_OVERHEAD = 512; // служебные структуры записи кэша
+    private static final int WINDOW = 0;
+    private static final int PROBATION = 1;
+    private static final int PROTECTED = 2;
+
+    private static class Node {
+        final CacheKey key;
         byte[] data;
-        long timestamp;
+        CompressionCodec codec;
         HeaderRecord header;
+        long timestamp;
+        long weight;
+        int queue;
+        boolean removed;
+        Node prev;
+        Node next;
 
-        CacheEntry(byte[] data, HeaderRecord header) {
+        Node(CacheKey key, byte[] data, CompressionCodec codec, HeaderRecord header, long weight) {
+            this.key = key;
             this.data = data;
+            this.codec = codec;
             this.header = header;
+            this.weight = weight;
             this.timestamp = System.currentTimeMillis();
         }
 
@@ -28,44 +70,344 @@ public class DataCache {
         }
     }
 
-    public DataCache() {
+    // Двусвязный список в порядке обращений: голова - давно не использованные записи
+    private static class AccessQueue {
+        Node head;
+        Node tail;
+
+        void addLast(Node node) {
+            node.prev = tail;
+            node.next = null;
+            if (tail == null) {
+                head = node;
+            } else {
+                tail.next = node;
+            }
+            tail = node;
+        }
+
+        void remove(Node node) {
+            if (node.prev == null) {
+                head = node.next;
+            } else {
+                node.prev.next = node.next;
+            }
+            if (node.next == null) {
+                tail = node.prev;
+            } else {
+                node.next.prev = node.prev;
+            }
+            node.prev = null;
+            node.next = null;
+        }
+
+        void moveToLast(Node node) {
+            if (tail != node) {
+                remove(node);
+                addLast(node);
+            }
+        }
+
+        void clear() {
+            head = null;
+            tail = null;
+        }
+    }
+
+    public DataCache(MemoryManager memoryManager, long maximumWeight) {
+        this(memoryManager, maximumWeight, null);
+    }
+
+    // С компрессором кэш может хранить значения в сжатом виде (как в блоке данных)
+    // и распаковывать их при чтении: в тот же объем помещается больше значений
+    public DataCache(MemoryManager memoryManager, long maximumWeight, ValueCompressor compressor) {
+        if (maximumWeight <= 0) {
+            throw new IllegalArgumentException("Cache capacity must be positive");
+        }
         this.cache = new ConcurrentHashMap<>();
+        this.memoryManager = memoryManager;
+        this.compressor = compressor;
+        this.maximumWeight = maximumWeight;
+        this.windowMaximum = Math.max(1, maximumWeight / 100);                     // 1% - окно
+        this.protectedMaximum = (long) ((maximumWeight - windowMaximum) * 0.8);   // 80% основной области
+        this.sketch = new FrequencySketch(maximumWeight / 1024);
         this.cleanupScheduler = Executors.newSingleThreadScheduledExecutor();
         startCleanupTask();
     }
 
     public void put(byte[] key, byte[] data, HeaderRecord header) {
-        String keyStr = Arrays.toString(key);
-        cache.put(keyStr, new CacheEntry(data, header));
+        put(key, data, CompressionCodec.NONE, header);
+    }
+
+    // data - значение в представлении кодека codec
+    public void put(byte[] key, byte[] data, CompressionCodec codec, HeaderRecord header) {
+        if (codec != CompressionCodec.NONE && compressor == null) {
+            throw new IllegalStateException("Cache has no compressor for codec " + codec);
+        }
+        CacheKey cacheKey = new CacheKey(key);
+        long weight = estimateWeight(key, data, header);
+        if (weight > maximumWeight) {
+            remove(key);
+            return;
+        }
+
+        evictionLock.lock();
+        try {
+            sketch.increment(cacheKey.hashCode());
+            Node node = cache.get(cacheKey);
+            if (node != null && node.codec != codec) {
+                // Читатели берут данные и кодек без блокировки - при смене кодека запись заменяется целиком
+                removeNode(node);
+                node = null;
+            }
+            if (node != null) {
+                // Замена значения: перерасчет веса
+                if (!memoryManager.allocateMemory(weight)) {
+                    removeNode(node);
+                    return;
+                }
+                memoryManager.releaseMemory(node.weight);
+                adjustWeight(node, weight - node.weight);
+                node.data = data;
+                node.header = header;
+                node.timestamp = System.currentTimeMillis();
+                onAccess(node);
+            } else {
+                if (!memoryManager.allocateMemory(weight)) {
+                    // Освобождаем место вытеснением, пока менеджер памяти не разрешит выделение
+                    if (!makeRoomInMemoryManager(weight)) {
+                        rejectionCount.increment();
+                        return;
+                    }
+                }
+                // Ключ копируется только при вставке: вызывающий код может переиспользовать массив
+                node = new Node(new CacheKey(key.clone()), data, codec, header, weight);
+                node.queue = WINDOW;
+                window.addLast(node);
+                windowWeight += weight;
+                totalWeight += weight;
+                cache.put(node.key, node);
+            }
+            evictEntries();
+        } finally {
+            evictionLock.unlock();
+        }
     }
 
     public byte[] get(byte[] key) {
-        String keyStr = Arrays.toString(key);
-        CacheEntry entry = cache.get(keyStr);
+        CacheKey cacheKey = new CacheKey(key);
+        Node node = cache.get(cacheKey);
 
-        if (entry != null && !entry.isExpired(cacheTTL)) {
-            return entry.data;
+        if (node != null && !node.isExpired(cacheTTL)) {
+            hitCount.increment();
+            // Перестановка в очереди не обязательна: если блокировка занята, обращение пропускается
+            if (evictionLock.tryLock()) {
+                try {
+                    sketch.increment(cacheKey.hashCode());
+                    if (!node.removed) {
+                        onAccess(node);
+                    }
+                } finally {
+                    evictionLock.unlock();
+                }
+            }
+            byte[] data = node.data;
+            CompressionCodec codec = node.codec;
+            if (codec == CompressionCodec.NONE) {
+                return data;
+            }
+            try {
+                return compressor.decompress(codec, data);
+            } catch (IOException e) {
+                // Поврежденная запись кэша считается промахом
+                remove(key);
+                return null;
+            }
         }
 
-        if (entry != null && entry.isExpired(cacheTTL)) {
-            cache.remove(keyStr);
+        missCount.increment();
+        if (node != null) {
+            remove(key);
         }
 
         return null;
     }
 
     public void remove(byte[] key) {
-        String keyStr = Arrays.toString(key);
-        cache.remove(keyStr);
+        CacheKey cacheKey = new CacheKey(key);
+        if (!cache.containsKey(cacheKey)) {
+            return;
+        }
+        evictionLock.lock();
+        try {
+            Node node = cache.get(cacheKey);
+            if (node != null) {
+                removeNode(node);
+            }
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    // Память на время операции вне кэша (запись, обновление) из общего лимита MemoryManager:
+    // если лимит исчерпан, место освобождается вытеснением записей кэша. false - кэш пуст,
+    // а памяти все равно не хватает
+    public boolean reserveMemory(long bytes) {
+        if (memoryManager.allocateMemory(bytes)) {
+            return true;
+        }
+        evictionLock.lock();
+        try {
+            return makeRoomInMemoryManager(bytes);
+        } finally {
+            evictionLock.unlock();
+        }
     }
 
     public void setCacheTTL(int seconds) {
         this.cacheTTL = seconds;
     }
 
+    private long estimateWeight(byte[] key, byte[] data, HeaderRecord header) {
+        long weight = ENTRY_OVERHEAD;
+        weight += key.length;
+        if (data != null) weight += data.length;
+        if (header != null && header.nameVector != null) weight += header.nameVector.length * 4L;
+        return weight;
+    }
+
+    // Вызываются под evictionLock
+
+    private void onAccess(Node node) {
+        switch (node.queue) {
+            case WINDOW:
+                window.moveToLast(node);
+                break;
+            case PROBATION:
+                // Повторное обращение переводит запись в защищенную область
+                probation.remove(node);
+                node.queue = PROTECTED;
+                protectedQueue.addLast(node);
+                protectedWeight += node.weight;
+                demoteProtected();
+                break;
+            case PROTECTED:
+                protectedQueue.moveToLast(node);
+                break;
+        }
+    }
+
+    private void adjustWeight(Node node, long delta) {
+        node.weight += delta;
+        totalWeight += delta;
+        if (node.queue == WINDOW) {
+            windowWeight += delta;
+        } else if (node.queue == PROTECTED) {
+            protectedWeight += delta;
+        }
+    }
+
+    private void demoteProtected() {
+        while (protectedWeight > protectedMaximum && protectedQueue.head != null) {
+            Node demoted = protectedQueue.head;
+            protectedQueue.remove(demoted);
+            protectedWeight -= demoted.weight;
+            demoted.queue = PROBATION;
+            probation.addLast(demoted);
+        }
+    }
+
+    private void evictEntries() {
+        // Записи, вытесненные из окна, становятся кандидатами в основную область
+        while (windowWeight > windowMaximum && window.head != null) {
+            Node candidate = window.head;
+            window.remove(candidate);
+            windowWeight -= candidate.weight;
+            candidate.queue = PROBATION;
+            probation.addLast(candidate);
+        }
+
+        while (totalWeight > maximumWeight) {
+            if (!evictOne()) {
+                break;
+            }
+        }
+    }
+
+    // Вытесняет одну запись: последний кандидат из окна (хвост probation) сравнивается
+    // по частоте с жертвой (голова probation), проигравший удаляется
+    private boolean evictOne() {
+        Node victim = probation.head;
+        Node candidate = probation.tail;
+        if (victim == null) {
+            victim = protectedQueue.head != null ? protectedQueue.head : window.head;
+            if (victim == null) {
+                return false;
+            }
+            evict(victim);
+            return true;
+        }
+
+        if (candidate != victim
+                && sketch.frequency(candidate.key.hashCode()) <= sketch.frequency(victim.key.hashCode())) {
+            // Политика допуска TinyLFU: редкий кандидат не вытесняет более частую запись
+            rejectionCount.increment();
+            evict(candidate);
+        } else {
+            evict(victim);
+        }
+        return true;
+    }
+
+    private boolean makeRoomInMemoryManager(long weight) {
+        while (!memoryManager.allocateMemory(weight)) {
+            if (!evictOne()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void evict(Node node) {
+        removeNode(node);
+        evictionCount.increment();
+    }
+
+    private void removeNode(Node node) {
+        if (node.removed) {
+            return;
+        }
+        node.removed = true;
+        cache.remove(node.key, node);
+        switch (node.queue) {
+            case WINDOW:
+                window.remove(node);
+                windowWeight -= node.weight;
+                break;
+            case PROBATION:
+                probation.remove(node);
+                break;
+            case PROTECTED:
+                protectedQueue.remove(node);
+                protectedWeight -= node.weight;
+                break;
+        }
+        totalWeight -= node.weight;
+        memoryManager.releaseMemory(node.weight);
+    }
+
     private void startCleanupTask() {
         cleanupScheduler.scheduleAtFixedRate(() -> {
-            cache.entrySet().removeIf(entry -> entry.getValue().isExpired(cacheTTL));
+            evictionLock.lock();
+            try {
+                for (Node node : cache.values()) {
+                    if (node.isExpired(cacheTTL)) {
+                        removeNode(node);
+                    }
+                }
+            } finally {
+                evictionLock.unlock();
+            }
         }, 1, 1, TimeUnit.HOURS);
     }
 
@@ -79,11 +421,113 @@ public class DataCache {
             cleanupScheduler.shutdownNow();
             Thread.currentThread().interrupt();
         }
-        cache.clear();
+        clear();
+    }
+
+    public void clear() {
+        evictionLock.lock();
+        try {
+            memoryManager.releaseMemory(totalWeight);
+            cache.clear();
+            window.clear();
+            probation.clear();
+            protectedQueue.clear();
+            windowWeight = 0;
+            protectedWeight = 0;
+            totalWeight = 0;
+        } finally {
+            evictionLock.unlock();
+        }
     }
+
     public int getSize() {
         return cache.size();
     }
 
+    public long getWeightedSize() {
+        evictionLock.lock();
+        try {
+            return totalWeight;
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    public long getMaximumWeight() { return maximumWeight; }
+    public long getHitCount() { return hitCount.sum(); }
+    public long getMissCount() { return missCount.sum(); }
+    public long getEvictionCount() { return evictionCount.sum(); }
+    public long getRejectionCount() { return rejectionCount.sum(); }
+
+    public double getHitRatio() {
+        long hits = hitCount.sum();
+        long total = hits + missCount.sum();
+        return total == 0 ? 0.0 : (double) hits / total;
+    }
+
+    // Count-Min Sketch с 4-битными счетчиками (16 счетчиков в long) и периодическим
+    // старением: после sampleSize увеличений все счетчики делятся пополам
+    private static class FrequencySketch {
+        private static final long[] SEEDS = {
+                0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+        private static final long RESET_MASK = 0x7777777777777777L;
 
-}
\ No newline at end of file
+        private final long[] table;
+        private final int tableMask;
+        private final int sampleSize;
+        private int size;
+
+        FrequencySketch(long expectedEntries) {
+            int capacity = (int) Math.min(Math.max(expectedEntries, 64), 1 << 24);
+            int length = Integer.highestOneBit(capacity - 1) << 1;
+            this.table = new long[length];
+            this.tableMask = length - 1;
+            this.sampleSize = 10 * length;
+        }
+
+        int frequency(int hash) {
+            int frequency = Integer.MAX_VALUE;
+            int start = (hash & 3) << 2;
+            for (int i = 0; i < 4; i++) {
+                int index = indexOf(hash, i);
+                int count = (int) ((table[index] >>> ((start + i) << 2)) & 0xfL);
+                frequency = Math.min(frequency, count);
+            }
+            return frequency;
+        }
+
+        void increment(int hash) {
+            int start = (hash & 3) << 2;
+            boolean added = false;
+            for (int i = 0; i < 4; i++) {
+                added |= incrementAt(indexOf(hash, i), start + i);
+            }
+            if (added && ++size >= sampleSize) {
+                reset();
+            }
+        }
+
+        private boolean incrementAt(int index, int counter) {
+            int offset = counter << 2;
+            long mask = 0xfL << offset;
+            if ((table[index] & mask) != mask) {
+                table[index] += 1L << offset;
+                return true;
+            }
+            return false;
+        }
+
+        private int indexOf(int hash, int depth) {
+            long h = (hash + SEEDS[depth]) * SEEDS[depth];
+            h += h >>> 32;
+            return ((int) h) & tableMask;
+        }
+
+        private void reset() {
+            for (int i = 0; i < table.length; i++) {
+                table[i] = (table[i] >>> 1) & RESET_MASK;
+            }
+            size /= 2;
+        }
+    }
+}
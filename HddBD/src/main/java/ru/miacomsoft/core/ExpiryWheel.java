@@ -0,0 +1,191 @@
+package ru.miacomsoft.core;
+
+import java.util.*;
+
+// Иерархическое колесо таймеров для ключей с ограниченным сроком жизни (разрешение - 1 секунда).
+// Уровень L состоит из 64 слотов по 64^L секунд; при повороте колеса слот верхнего уровня,
+// до которого дошло время, раскладывается по нижним уровням. Записи со сроком дальше
+// последнего уровня (~194 дня) хранятся в overflow, упорядоченном по времени.
+// На каждый ключ - не больше одной записи: повторное планирование переносит ее.
+// Ключ срабатывает в первую секунду, когда запись считается просроченной (expiryTime < now).
+public class ExpiryWheel {
+    private static final int SLOT_BITS = 6;
+    private static final int SLOTS = 1 << SLOT_BITS;
+    private static final int LEVELS = 4;
+    private static final long WHEEL_SPAN = 1L << (SLOT_BITS * LEVELS);
+
+    // Если колесо отстало больше чем на это время (сдвиг часов), записи раскладываются заново
+    private static final long MAX_CATCH_UP_SECONDS = (long) SLOTS * SLOTS;
+
+    private static final int DUE = -1;
+    private static final int OVERFLOW = -2;
+
+    private static final class Entry {
+        final byte[] key;
+        long deadline;
+        int level;
+        int slot;
+        Entry prev;
+        Entry next;
+
+        Entry(byte[] key) {
+            this.key = key;
+        }
+    }
+
+    private final Entry[][] slots = new Entry[LEVELS][SLOTS];
+    private final TreeSet<Entry> overflow = new TreeSet<>((a, b) -> {
+        int compare = Long.compare(a.deadline, b.deadline);
+        return compare != 0 ? compare : Arrays.compare(a.key, b.key);
+    });
+    private final Map<HeaderIndex.ByteArrayWrapper, Entry> entries = new HashMap<>();
+    private Entry dueHead;
+    private Entry dueTail;
+    private long currentTime;
+
+    public ExpiryWheel(long nowSeconds) {
+        this.currentTime = nowSeconds;
+    }
+
+    // Планирует срабатывание ключа по сроку expiryTime (секунды); -1 отменяет его
+    public synchronized void schedule(byte[] key, long expiryTime) {
+        HeaderIndex.ByteArrayWrapper wrapper = new HeaderIndex.ByteArrayWrapper(key);
+        Entry entry = entries.get(wrapper);
+        if (expiryTime == -1) {
+            if (entry != null) {
+                unlink(entry);
+                entries.remove(wrapper);
+            }
+            return;
+        }
+        if (entry == null) {
+            entry = new Entry(key);
+            entries.put(wrapper, entry);
+        } else {
+            unlink(entry);
+        }
+        entry.deadline = expiryTime + 1;
+        place(entry);
+    }
+
+    public synchronized void cancel(byte[] key) {
+        schedule(key, -1);
+    }
+
+    // Поворачивает колесо до now и возвращает не больше limit сработавших ключей.
+    // Остальные сработавшие ключи возвращаются следующими вызовами
+    public synchronized List<byte[]> pollExpired(long nowSeconds, int limit) {
+        advance(nowSeconds);
+        List<byte[]> expired = new ArrayList<>(Math.min(limit, entries.size()));
+        while (dueHead != null && expired.size() < limit) {
+            Entry entry = dueHead;
+            unlink(entry);
+            entries.remove(new HeaderIndex.ByteArrayWrapper(entry.key));
+            expired.add(entry.key);
+        }
+        return expired;
+    }
+
+    private void advance(long nowSeconds) {
+        if (nowSeconds - currentTime > MAX_CATCH_UP_SECONDS) {
+            // Пошаговый поворот слишком долгий - все записи раскладываются относительно now
+            List<Entry> all = new ArrayList<>(entries.values());
+            for (Entry entry : all) {
+                unlink(entry);
+            }
+            currentTime = nowSeconds;
+            for (Entry entry : all) {
+                place(entry);
+            }
+            return;
+        }
+
+        while (currentTime < nowSeconds) {
+            currentTime++;
+            // Слоты верхних уровней, до которых дошло время, раскладываются по нижним
+            for (int level = LEVELS - 1; level > 0; level--) {
+                if ((currentTime & ((1L << (SLOT_BITS * level)) - 1)) == 0) {
+                    cascade(level, (int) ((currentTime >>> (SLOT_BITS * level)) & (SLOTS - 1)));
+                }
+            }
+            while (!overflow.isEmpty() && overflow.first().deadline - currentTime < WHEEL_SPAN) {
+                place(overflow.pollFirst());
+            }
+            // Все записи текущего слота уровня 0 срабатывают в эту секунду
+            cascade(0, (int) (currentTime & (SLOTS - 1)));
+        }
+    }
+
+    private void cascade(int level, int slot) {
+        Entry entry = slots[level][slot];
+        slots[level][slot] = null;
+        while (entry != null) {
+            Entry next = entry.next;
+            entry.prev = null;
+            entry.next = null;
+            place(entry);
+            entry = next;
+        }
+    }
+
+    private void place(Entry entry) {
+        long delta = entry.deadline - currentTime;
+        if (delta <= 0) {
+            entry.level = DUE;
+            entry.prev = dueTail;
+            entry.next = null;
+            if (dueTail == null) {
+                dueHead = entry;
+            } else {
+                dueTail.next = entry;
+            }
+            dueTail = entry;
+            return;
+        }
+        if (delta >= WHEEL_SPAN) {
+            entry.level = OVERFLOW;
+            overflow.add(entry);
+            return;
+        }
+
+        int level = 0;
+        while (delta >= 1L << (SLOT_BITS * (level + 1))) {
+            level++;
+        }
+        int slot = (int) ((entry.deadline >>> (SLOT_BITS * level)) & (SLOTS - 1));
+        entry.level = level;
+        entry.slot = slot;
+        entry.prev = null;
+        entry.next = slots[level][slot];
+        if (entry.next != null) {
+            entry.next.prev = entry;
+        }
+        slots[level][slot] = entry;
+    }
+
+    private void unlink(Entry entry) {
+        if (entry.level == OVERFLOW) {
+            overflow.remove(entry);
+            return;
+        }
+        if (entry.prev != null) {
+            entry.prev.next = entry.next;
+        } else if (entry.level == DUE) {
+            dueHead = entry.next;
+        } else {
+            slots[entry.level][entry.slot] = entry.next;
+        }
+        if (entry.next != null) {
+            entry.next.prev = entry.prev;
+        } else if (entry.level == DUE) {
+            dueTail = entry.prev;
+        }
+        entry.prev = null;
+        entry.next = null;
+    }
+
+    // Количество запланированных ключей (включая сработавшие, но еще не выбранные)
+    public synchronized int size() {
+        return entries.size();
+    }
+}
@@ -0,0 +1,113 @@
+package ru.miacomsoft.core;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+// Курсор результатов find(): совпадения вычисляются по мере обхода, без списка всех результатов.
+// Первые offset совпадений пропускаются без чтения значений, после limit результатов или
+// close() обход индекса прекращается. Значения, если их требует проекция, читаются порциями
+// до READ_BATCH совпадений - движок может прочитать порцию за меньшее число обращений к диску
+public class FindCursor implements Iterator<ScanPage.Entry>, AutoCloseable {
+    static final int READ_BATCH = 256;
+
+    private final Iterator<? extends Match> matches;
+    private final FindOptions options;
+    private final ValueReader reader;
+    private Iterator<ScanPage.Entry> batch = Collections.emptyIterator();
+    private int skipped;
+    private int returned;
+    private boolean closed;
+
+    // Ключ, прошедший условие поиска. value() читает значение (null - ключ удален после проверки)
+    public interface Match {
+        byte[] key();
+
+        byte[] value();
+    }
+
+    // Значения порции совпадений в том же порядке (null - ключ удален после проверки)
+    public interface ValueReader {
+        List<byte[]> read(List<Match> matches);
+    }
+
+    public FindCursor(Iterator<? extends Match> matches, FindOptions options) {
+        this(matches, options, FindCursor::readEach);
+    }
+
+    public FindCursor(Iterator<? extends Match> matches, FindOptions options, ValueReader reader) {
+        this.matches = matches;
+        this.options = options;
+        this.reader = reader;
+    }
+
+    private static List<byte[]> readEach(List<Match> matches) {
+        List<byte[]> values = new ArrayList<>(matches.size());
+        for (Match match : matches) {
+            values.add(match.value());
+        }
+        return values;
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (!batch.hasNext()) {
+            if (closed || (options.hasLimit() && returned >= options.getLimit()) || !matches.hasNext()) {
+                return false;
+            }
+            batch = nextBatch();
+        }
+        return true;
+    }
+
+    // Порция не больше оставшегося лимита, чтобы не читать значения сверх него
+    private Iterator<ScanPage.Entry> nextBatch() {
+        int size = options.hasLimit() ? Math.min(READ_BATCH, options.getLimit() - returned) : READ_BATCH;
+        List<Match> portion = new ArrayList<>(size);
+        while (portion.size() < size && matches.hasNext()) {
+            Match match = matches.next();
+            if (skipped < options.getOffset()) {
+                skipped++;
+                continue;
+            }
+            portion.add(match);
+        }
+
+        List<byte[]> values = options.includesValues() ? reader.read(portion) : null;
+        List<ScanPage.Entry> entries = new ArrayList<>(portion.size());
+        for (int i = 0; i < portion.size(); i++) {
+            byte[] value = values != null ? values.get(i) : null;
+            if (values != null && value == null) {
+                continue;
+            }
+            entries.add(new ScanPage.Entry(options.includesKeys() ? portion.get(i).key() : null, value));
+        }
+        return entries.iterator();
+    }
+
+    @Override
+    public ScanPage.Entry next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        returned++;
+        return batch.next();
+    }
+
+    public Stream<ScanPage.Entry> stream() {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(this,
+                Spliterator.ORDERED | Spliterator.NONNULL), false).onClose(this::close);
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        batch = Collections.emptyIterator();
+    }
+}
@@ -0,0 +1,87 @@
+package ru.miacomsoft.core;
+
+// Параметры выдачи find(): пропуск первых offset совпадений, не более limit результатов
+// и проекция - ключи, значения или и то и другое
+public class FindOptions {
+    public static final int NO_LIMIT = -1;
+
+    public enum Projection {
+        KEYS,            // только ключи: значения не читаются из файла данных
+        VALUES,          // только значения
+        KEYS_AND_VALUES
+    }
+
+    private final int offset;
+    private final int limit;
+    private final Projection projection;
+
+    private FindOptions(Builder builder) {
+        this.offset = builder.offset;
+        this.limit = builder.limit;
+        this.projection = builder.projection;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static FindOptions defaults() {
+        return new Builder().build();
+    }
+
+    public static class Builder {
+        private int offset = 0;
+        private int limit = NO_LIMIT;
+        private Projection projection = Projection.VALUES;
+
+        public Builder offset(int offset) {
+            if (offset < 0) {
+                throw new IllegalArgumentException("Offset cannot be negative");
+            }
+            this.offset = offset;
+            return this;
+        }
+
+        public Builder limit(int limit) {
+            if (limit <= 0 && limit != NO_LIMIT) {
+                throw new IllegalArgumentException("Limit must be positive");
+            }
+            this.limit = limit;
+            return this;
+        }
+
+        public Builder projection(Projection projection) {
+            if (projection == null) {
+                throw new IllegalArgumentException("Projection cannot be null");
+            }
+            this.projection = projection;
+            return this;
+        }
+
+        public FindOptions build() {
+            return new FindOptions(this);
+        }
+    }
+
+    public int getOffset() { return offset; }
+    public int getLimit() { return limit; }
+    public Projection getProjection() { return projection; }
+
+    public boolean hasLimit() {
+        return limit != NO_LIMIT;
+    }
+
+    public boolean includesKeys() {
+        return projection != Projection.VALUES;
+    }
+
+    public boolean includesValues() {
+        return projection != Projection.KEYS;
+    }
+
+    @Override
+    public String toString() {
+        return "FindOptions{offset=" + offset + ", limit=" + (hasLimit() ? limit : "none") +
+                ", projection=" + projection + '}';
+    }
+}
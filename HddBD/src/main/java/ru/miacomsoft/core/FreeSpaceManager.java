@@ -1,10 +1,35 @@
 package ru.miacomsoft.core;
 
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.*;
-import java.util.concurrent.ConcurrentSkipListSet;
 
+// Распределитель свободного места с раздельными списками по классам размеров (segregated fit).
+// Класс k содержит блоки размером [2^(k + MIN_CLASS_SHIFT), 2^(k + MIN_CLASS_SHIFT + 1)).
+// Все свободные блоки дополнительно упорядочены по адресу, поэтому при освобождении
+// блок сразу объединяется с соседями, и периодическая пересборка набора не нужна.
 public class FreeSpaceManager {
-    private final NavigableSet<FreeBlock> freeBlocks;
+    private static final int MIN_CLASS_SHIFT = 5; // Наименьший класс - блоки до 64 байт
+    private static final int CLASS_COUNT = 32 - MIN_CLASS_SHIFT;
+
+    // Свободные блоки: адрес -> размер (для объединения соседей)
+    private final TreeMap<Long, Integer> blocksByAddress = new TreeMap<>();
+    // Классы размеров: блоки упорядочены по (размер, адрес) для выбора наилучшего
+    private final List<TreeSet<FreeBlock>> sizeClasses = new ArrayList<>(CLASS_COUNT);
+    // Бит k установлен, если класс k не пуст
+    private long nonEmptyClasses;
+    private long totalFreeSpace;
+
+    // Статистика выделений
+    private long allocationCount;
+    private long allocationNanos;
+    private long maxAllocationNanos;
+    private long failedAllocations;
+
+    // Формат файла карты: [magic][version][конец данных][количество] + ([адрес][размер]) * количество
+    private static final int FREE_MAP_MAGIC = 0x46524545; // "FREE"
+    private static final int FREE_MAP_VERSION = 1;
 
     private static class FreeBlock implements Comparable<FreeBlock> {
         final long address;
@@ -37,60 +62,220 @@ public class FreeSpaceManager {
     }
 
     public FreeSpaceManager() {
-        this.freeBlocks = new ConcurrentSkipListSet<>();
+        for (int i = 0; i < CLASS_COUNT; i++) {
+            sizeClasses.add(new TreeSet<>());
+        }
     }
 
-    public void addFreeBlock(long address, int size) {
-        freeBlocks.add(new FreeBlock(address, size));
+    // Освобождение блока с немедленным объединением со смежными свободными блоками
+    public synchronized void addFreeBlock(long address, int size) {
+        if (size <= 0) {
+            return;
+        }
+        long start = address;
+        long end = address + size;
+
+        Map.Entry<Long, Integer> previous = blocksByAddress.floorEntry(address);
+        if (previous != null && previous.getKey() + previous.getValue() == address
+                && (long) previous.getValue() + (end - start) <= Integer.MAX_VALUE) {
+            removeBlock(previous.getKey(), previous.getValue());
+            start = previous.getKey();
+        }
+
+        Map.Entry<Long, Integer> next = blocksByAddress.ceilingEntry(end);
+        if (next != null && next.getKey() == end
+                && (end - start) + next.getValue() <= Integer.MAX_VALUE) {
+            removeBlock(next.getKey(), next.getValue());
+            end = next.getKey() + next.getValue();
+        }
+
+        insertBlock(start, (int) (end - start));
     }
 
-    public long findFreeSpace(int requiredSize) {
-        FreeBlock candidate = freeBlocks.ceiling(new FreeBlock(0, requiredSize));
-        if (candidate != null) {
-            freeBlocks.remove(candidate);
+    // Выделение: наилучший блок в классе запрошенного размера, иначе наименьший блок
+    // в ближайшем непустом старшем классе. Остаток блока возвращается в свой класс.
+    public synchronized long findFreeSpace(int requiredSize) {
+        long startTime = System.nanoTime();
+        try {
+            FreeBlock candidate = null;
+            int sizeClass = classOf(requiredSize);
+            if ((nonEmptyClasses & (1L << sizeClass)) != 0) {
+                candidate = sizeClasses.get(sizeClass).ceiling(new FreeBlock(0, requiredSize));
+            }
+            if (candidate == null) {
+                long larger = nonEmptyClasses & (-1L << (sizeClass + 1));
+                if (larger != 0) {
+                    candidate = sizeClasses.get(Long.numberOfTrailingZeros(larger)).first();
+                }
+            }
+            if (candidate == null) {
+                failedAllocations++;
+                return -1; // Свободного места нет
+            }
 
-            // Если осталось свободное место, добавляем обратно остаток
+            removeBlock(candidate.address, candidate.size);
             int remaining = candidate.size - requiredSize;
             if (remaining > 0) {
-                freeBlocks.add(new FreeBlock(candidate.address + requiredSize, remaining));
+                insertBlock(candidate.address + requiredSize, remaining);
             }
-
             return candidate.address;
+        } finally {
+            long elapsed = System.nanoTime() - startTime;
+            allocationCount++;
+            allocationNanos += elapsed;
+            maxAllocationNanos = Math.max(maxAllocationNanos, elapsed);
+        }
+    }
+
+    // Убирает из карты свободные блоки, начинающиеся в [start, end) - например,
+    // место в уплотняемом сегменте, который будет удален целиком
+    public synchronized long removeRange(long start, long end) {
+        long removed = 0;
+        List<Map.Entry<Long, Integer>> blocks = new ArrayList<>(blocksByAddress.subMap(start, end).entrySet());
+        for (Map.Entry<Long, Integer> block : blocks) {
+            removeBlock(block.getKey(), block.getValue());
+            removed += block.getValue();
         }
-        return -1; // Свободного места нет
+        return removed;
     }
 
-    public void mergeAdjacentBlocks() {
-        if (freeBlocks.isEmpty()) return;
+    // Объем свободных блоков, начинающихся в [start, end)
+    public synchronized long freeBytesInRange(long start, long end) {
+        long total = 0;
+        for (int size : blocksByAddress.subMap(start, end).values()) {
+            total += size;
+        }
+        return total;
+    }
 
-        List<FreeBlock> sortedByAddress = new ArrayList<>(freeBlocks);
-        sortedByAddress.sort(Comparator.comparingLong(b -> b.address));
+    private static int classOf(int size) {
+        int log2 = 31 - Integer.numberOfLeadingZeros(size);
+        return Math.max(0, log2 - MIN_CLASS_SHIFT);
+    }
 
-        List<FreeBlock> merged = new ArrayList<>();
-        FreeBlock current = sortedByAddress.get(0);
+    private void insertBlock(long address, int size) {
+        blocksByAddress.put(address, size);
+        int sizeClass = classOf(size);
+        sizeClasses.get(sizeClass).add(new FreeBlock(address, size));
+        nonEmptyClasses |= 1L << sizeClass;
+        totalFreeSpace += size;
+    }
 
-        for (int i = 1; i < sortedByAddress.size(); i++) {
-            FreeBlock next = sortedByAddress.get(i);
+    private void removeBlock(long address, int size) {
+        blocksByAddress.remove(address);
+        int sizeClass = classOf(size);
+        TreeSet<FreeBlock> blocks = sizeClasses.get(sizeClass);
+        blocks.remove(new FreeBlock(address, size));
+        if (blocks.isEmpty()) {
+            nonEmptyClasses &= ~(1L << sizeClass);
+        }
+        totalFreeSpace -= size;
+    }
 
-            if (current.address + current.size == next.address) {
-                // Блоки смежные, объединяем
-                current = new FreeBlock(current.address, current.size + next.size);
-            } else {
-                merged.add(current);
-                current = next;
+    // Сохранение карты свободного пространства: временный файл + атомарная замена
+    public void save(File file, long dataEnd) throws IOException {
+        List<FreeBlock> blocks = new ArrayList<>();
+        synchronized (this) {
+            for (Map.Entry<Long, Integer> entry : blocksByAddress.entrySet()) {
+                blocks.add(new FreeBlock(entry.getKey(), entry.getValue()));
             }
         }
-        merged.add(current);
 
-        freeBlocks.clear();
-        freeBlocks.addAll(merged);
+        File tmpFile = new File(file.getPath() + ".tmp");
+        try (FileOutputStream fos = new FileOutputStream(tmpFile);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos, 64 * 1024))) {
+            out.writeInt(FREE_MAP_MAGIC);
+            out.writeInt(FREE_MAP_VERSION);
+            out.writeLong(dataEnd);
+            out.writeInt(blocks.size());
+            for (FreeBlock block : blocks) {
+                out.writeLong(block.address);
+                out.writeInt(block.size);
+            }
+            out.flush();
+            fos.getFD().sync();
+        }
+        Files.move(tmpFile.toPath(), file.toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // Загрузка карты. Возвращает false, если файла нет, он поврежден или
+    // сохранен для файла данных другого размера
+    public boolean load(File file, long dataEnd) throws IOException {
+        if (!file.exists()) {
+            return false;
+        }
+        List<FreeBlock> blocks = new ArrayList<>();
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file), 64 * 1024))) {
+            if (in.readInt() != FREE_MAP_MAGIC || in.readInt() != FREE_MAP_VERSION) {
+                System.err.println("Warning: Unknown free space map format " + file);
+                return false;
+            }
+            if (in.readLong() != dataEnd) {
+                return false;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                long address = in.readLong();
+                int size = in.readInt();
+                if (address < 0 || size <= 0 || address + size > dataEnd) {
+                    System.err.println("Warning: Invalid free block in free space map " + file);
+                    return false;
+                }
+                blocks.add(new FreeBlock(address, size));
+            }
+        } catch (EOFException e) {
+            System.err.println("Warning: Truncated free space map " + file);
+            return false;
+        }
+
+        synchronized (this) {
+            clear();
+            for (FreeBlock block : blocks) {
+                addFreeBlock(block.address, block.size);
+            }
+        }
+        return true;
     }
 
-    public int getFreeSpaceCount() {
-        return freeBlocks.size();
+    public synchronized void clear() {
+        blocksByAddress.clear();
+        for (TreeSet<FreeBlock> blocks : sizeClasses) {
+            blocks.clear();
+        }
+        nonEmptyClasses = 0;
+        totalFreeSpace = 0;
     }
 
-    public long getTotalFreeSpace() {
-        return freeBlocks.stream().mapToLong(block -> block.size).sum();
+    public synchronized int getFreeSpaceCount() {
+        return blocksByAddress.size();
+    }
+
+    public synchronized long getTotalFreeSpace() {
+        return totalFreeSpace;
+    }
+
+    public synchronized int getLargestFreeBlock() {
+        if (nonEmptyClasses == 0) {
+            return 0;
+        }
+        return sizeClasses.get(63 - Long.numberOfLeadingZeros(nonEmptyClasses)).last().size;
+    }
+
+    // Доля свободного места, не входящая в наибольший свободный блок (0 - нет фрагментации)
+    public synchronized double getFragmentation() {
+        if (totalFreeSpace == 0) {
+            return 0.0;
+        }
+        return 1.0 - (double) getLargestFreeBlock() / totalFreeSpace;
+    }
+
+    public synchronized long getAllocationCount() { return allocationCount; }
+    public synchronized long getFailedAllocations() { return failedAllocations; }
+    public synchronized long getMaxAllocationNanos() { return maxAllocationNanos; }
+
+    public synchronized double getAverageAllocationNanos() {
+        return allocationCount == 0 ? 0.0 : (double) allocationNanos / allocationCount;
     }
-}
\ No newline at end of file
+}
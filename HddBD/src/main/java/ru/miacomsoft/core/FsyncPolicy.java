@@ -0,0 +1,7 @@
+package ru.miacomsoft.core;
+
+public enum FsyncPolicy {
+    NEVER,      // force() не вызывается, сброс на диск выполняет ОС
+    INTERVAL,   // force() не чаще одного раза в fsyncIntervalMillis
+    BATCH       // force() после каждой группы записей, future завершается после fsync
+}
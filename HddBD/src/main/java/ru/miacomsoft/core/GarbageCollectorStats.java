@@ -0,0 +1,74 @@
+package ru.miacomsoft.core;
+
+// Счетчики сборщика мусора. Пауза порции - время, пока заблокированы полосы ключей порции
+// (записи в эти ключи ждут); между порциями блокировки отпускаются
+public class GarbageCollectorStats {
+    private long runs;
+    private long slices;
+    private long examinedKeys;
+    private long removedRecords;
+    private long freedBytes;
+    private long totalPauseNanos;
+    private long maxPauseNanos;
+    private long lastRunNanos;
+    private long lastRunRemoved;
+
+    synchronized void recordSlice(int examined, int removed, long freed, long pauseNanos) {
+        slices++;
+        examinedKeys += examined;
+        removedRecords += removed;
+        freedBytes += freed;
+        totalPauseNanos += pauseNanos;
+        maxPauseNanos = Math.max(maxPauseNanos, pauseNanos);
+    }
+
+    synchronized void recordRun(int removed, long runNanos) {
+        runs++;
+        lastRunRemoved = removed;
+        lastRunNanos = runNanos;
+    }
+
+    public synchronized long getRuns() {
+        return runs;
+    }
+
+    public synchronized long getSlices() {
+        return slices;
+    }
+
+    public synchronized long getExaminedKeys() {
+        return examinedKeys;
+    }
+
+    public synchronized long getRemovedRecords() {
+        return removedRecords;
+    }
+
+    public synchronized long getFreedBytes() {
+        return freedBytes;
+    }
+
+    public synchronized double getAveragePauseMillis() {
+        return slices == 0 ? 0 : totalPauseNanos / 1_000_000.0 / slices;
+    }
+
+    public synchronized double getMaxPauseMillis() {
+        return maxPauseNanos / 1_000_000.0;
+    }
+
+    public synchronized double getLastRunMillis() {
+        return lastRunNanos / 1_000_000.0;
+    }
+
+    public synchronized long getLastRunRemoved() {
+        return lastRunRemoved;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("runs: %d, slices: %d, examined: %d, removed: %d, freed: %d bytes, " +
+                        "pause avg: %.3f ms, max: %.3f ms",
+                runs, slices, examinedKeys, removedRecords, freedBytes,
+                getAveragePauseMillis(), getMaxPauseMillis());
+    }
+}
@@ -0,0 +1,296 @@
+package ru.miacomsoft.core;
+
+import ru.miacomsoft.core.exceptions.DataManagerException;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.util.*;
+import java.util.concurrent.*;
+
+// Групповая запись блоков в файлы сегментов: записи, накопившиеся в очереди, пишутся одной
+// группой, и force() выполняется один раз для каждого измененного файла
+public class GroupCommitWriter implements AutoCloseable {
+    private final FsyncPolicy fsyncPolicy;
+    private final long fsyncIntervalMillis;
+    private final int maxBatchBytes;
+    private final List<Syncable> syncListeners;
+    private final BlockingQueue<PendingWrite> queue;
+    private final Map<Long, PendingWrite> pendingByBlock;
+    private final ExecutorService committer;
+    private volatile boolean running;
+    private long lastForceTime;
+    private boolean dirty;
+    private final Set<FileChannel> dirtyChannels = new HashSet<>();
+
+    // Статистика
+    private volatile long batchCount;
+    private volatile long writeCount;
+    private volatile long forceCount;
+
+    // Дополнительные файлы, которые нужно сбрасывать на диск вместе с группой (например, журнал индекса)
+    public interface Syncable {
+        void sync() throws IOException;
+    }
+
+    public static class PendingWrite {
+        private final long blockAddress;
+        private final boolean barrier;
+        private FileChannel channel;
+        private long position;
+        private byte[] data;
+        private final CompletableFuture<Void> written = new CompletableFuture<>();
+        private final CompletableFuture<Void> durable = new CompletableFuture<>();
+
+        private PendingWrite(long blockAddress, boolean barrier) {
+            this.blockAddress = blockAddress;
+            this.barrier = barrier;
+        }
+
+        boolean isBarrier() {
+            return barrier;
+        }
+    }
+
+    public GroupCommitWriter(StorageConfig config) {
+        this.fsyncPolicy = config.getFsyncPolicy();
+        this.fsyncIntervalMillis = config.getFsyncIntervalMillis();
+        this.maxBatchBytes = config.getMaxBatchBytes();
+        this.syncListeners = new CopyOnWriteArrayList<>();
+        this.queue = new LinkedBlockingQueue<>();
+        this.pendingByBlock = new ConcurrentHashMap<>();
+        this.committer = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "group-commit-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.running = true;
+        this.lastForceTime = System.currentTimeMillis();
+        committer.execute(this::commitLoop);
+    }
+
+    public void addSyncListener(Syncable listener) {
+        syncListeners.add(listener);
+    }
+
+    // Регистрирует будущую запись блока до публикации его заголовка в индексе:
+    // читатели блока (awaitWritten) ждут, пока запись не будет выполнена
+    public PendingWrite reserve(long blockAddress) {
+        if (!running) {
+            throw new DataManagerException("Group commit writer is closed");
+        }
+        PendingWrite write = new PendingWrite(blockAddress, false);
+        pendingByBlock.put(blockAddress, write);
+        return write;
+    }
+
+    // Отменяет резервирование, если запись так и не была поставлена в очередь
+    public void cancel(PendingWrite write) {
+        pendingByBlock.remove(write.blockAddress, write);
+        write.written.complete(null);
+        write.durable.complete(null);
+    }
+
+    // Ставит зарезервированную запись в очередь. position - смещение в файле channel (может указывать
+    // внутрь блока). При FsyncPolicy.BATCH future завершается после force(), иначе - после записи в файл.
+    public CompletableFuture<Void> submit(PendingWrite write, FileChannel channel, long position, byte[] data) {
+        write.channel = channel;
+        write.position = position;
+        write.data = data;
+        queue.add(write);
+        return fsyncPolicy == FsyncPolicy.BATCH ? write.durable : write.written;
+    }
+
+    public CompletableFuture<Void> submit(long blockAddress, FileChannel channel, long position, byte[] data) {
+        return submit(reserve(blockAddress), channel, position, data);
+    }
+
+    // Ожидает, пока последняя поставленная в очередь запись блока попадет в файл.
+    // Ошибка записи пакета передается как IOException, как и остальные ошибки ввода-вывода движка
+    public void awaitWritten(long blockAddress) throws IOException {
+        PendingWrite write = pendingByBlock.get(blockAddress);
+        if (write == null) {
+            return;
+        }
+        try {
+            write.written.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof DataManagerException && cause.getCause() instanceof IOException) {
+                cause = cause.getCause();
+            }
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException("Error committing write batch", cause);
+        }
+    }
+
+    // Записывает все поставленные в очередь блоки и выполняет force() независимо от политики
+    public void flush() {
+        PendingWrite barrier = new PendingWrite(-1, true);
+        queue.add(barrier);
+        barrier.durable.join();
+    }
+
+    private void commitLoop() {
+        List<PendingWrite> batch = new ArrayList<>();
+        while (running || !queue.isEmpty()) {
+            try {
+                PendingWrite first = queue.poll(fsyncIntervalMillis, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    if (dirty && fsyncPolicy == FsyncPolicy.INTERVAL) {
+                        try {
+                            force();
+                        } catch (IOException e) {
+                            System.err.println("Error during periodic fsync: " + e.getMessage());
+                        }
+                    }
+                    continue;
+                }
+
+                batch.add(first);
+                long batchBytes = first.isBarrier() ? 0 : first.data.length;
+                PendingWrite next;
+                while (batchBytes < maxBatchBytes && (next = queue.poll()) != null) {
+                    batch.add(next);
+                    if (!next.isBarrier()) {
+                        batchBytes += next.data.length;
+                    }
+                }
+
+                commitBatch(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void commitBatch(List<PendingWrite> batch) {
+        boolean forceRequested = fsyncPolicy == FsyncPolicy.BATCH;
+        try {
+            writeCoalesced(batch);
+            for (PendingWrite write : batch) {
+                if (write.isBarrier()) {
+                    forceRequested = true;
+                } else {
+                    pendingByBlock.remove(write.blockAddress, write);
+                    write.written.complete(null);
+                    dirtyChannels.add(write.channel);
+                    dirty = true;
+                }
+            }
+
+            if (forceRequested || (fsyncPolicy == FsyncPolicy.INTERVAL
+                    && System.currentTimeMillis() - lastForceTime >= fsyncIntervalMillis)) {
+                force();
+            }
+            batchCount++;
+
+            for (PendingWrite write : batch) {
+                write.durable.complete(null);
+            }
+        } catch (IOException e) {
+            DataManagerException error = new DataManagerException("Error committing write batch", e);
+            for (PendingWrite write : batch) {
+                if (!write.isBarrier()) {
+                    pendingByBlock.remove(write.blockAddress, write);
+                }
+                write.written.completeExceptionally(error);
+                write.durable.completeExceptionally(error);
+            }
+        }
+    }
+
+    // Смежные записи в один файл (типичный случай - дозапись в конец сегмента) объединяются в один буфер.
+    // Порядок записей сохраняется, поэтому перекрывающиеся записи применяются в порядке поступления.
+    private void writeCoalesced(List<PendingWrite> batch) throws IOException {
+        int i = 0;
+        while (i < batch.size()) {
+            if (batch.get(i).isBarrier()) {
+                i++;
+                continue;
+            }
+
+            FileChannel channel = batch.get(i).channel;
+            int runEnd = i + 1;
+            long runEndPosition = batch.get(i).position + batch.get(i).data.length;
+            int runBytes = batch.get(i).data.length;
+            while (runEnd < batch.size() && !batch.get(runEnd).isBarrier()
+                    && batch.get(runEnd).channel == channel
+                    && batch.get(runEnd).position == runEndPosition) {
+                runEndPosition += batch.get(runEnd).data.length;
+                runBytes += batch.get(runEnd).data.length;
+                runEnd++;
+            }
+
+            ByteBuffer buffer;
+            if (runEnd - i == 1) {
+                buffer = ByteBuffer.wrap(batch.get(i).data);
+            } else {
+                buffer = ByteBuffer.allocate(runBytes);
+                for (int j = i; j < runEnd; j++) {
+                    buffer.put(batch.get(j).data);
+                }
+                buffer.flip();
+            }
+
+            long position = batch.get(i).position;
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+            writeCount++;
+            i = runEnd;
+        }
+    }
+
+    private void force() throws IOException {
+        if (!dirty) {
+            return;
+        }
+        for (FileChannel channel : dirtyChannels) {
+            try {
+                channel.force(false);
+            } catch (ClosedChannelException e) {
+                // Сегмент удален после уплотнения - сбрасывать нечего
+            }
+        }
+        dirtyChannels.clear();
+        for (Syncable listener : syncListeners) {
+            listener.sync();
+        }
+        dirty = false;
+        lastForceTime = System.currentTimeMillis();
+        forceCount++;
+    }
+
+    public int getQueueSize() {
+        return queue.size();
+    }
+
+    public long getBatchCount() { return batchCount; }
+    public long getWriteCount() { return writeCount; }
+    public long getForceCount() { return forceCount; }
+
+    @Override
+    public void close() {
+        if (!running) {
+            return;
+        }
+        flush();
+        running = false;
+        committer.shutdown();
+        try {
+            if (!committer.awaitTermination(10, TimeUnit.SECONDS)) {
+                committer.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            committer.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -1,14 +1,49 @@
 package ru.miacomsoft.core;
 
+import ru.miacomsoft.core.exceptions.DataManagerException;
+
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
 import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 public class HeaderIndex {
-    private final ConcurrentSkipListMap<ByteArrayWrapper, HeaderRecord> index;
+    private final HeaderTable table;
+    private final IndexStorage storage;
+    // Ключи по порядку для диапазонных, префиксных запросов и поиска по маске (null - отключен)
+    private final ConcurrentSkipListMap<ByteArrayWrapper, Boolean> orderedKeys;
+    // Индекс триграмм ключей для поиска по маске (null - отключен)
+    private final KeyGramIndex gramIndex;
     private final String indexFilePath;
-    private final RandomAccessFile indexFile;
+    private final File journalFile;
+    private final File rotatedJournalFile;
+    private final Object journalLock = new Object();
+    private final Object checkpointLock = new Object();
+    private final List<CheckpointListener> checkpointListeners = new CopyOnWriteArrayList<>();
+    private RandomAccessFile journal;
+    private long journalRecords;
+
+    // Типы записей журнала
+    private static final byte JOURNAL_PUT = 1;
+    private static final byte JOURNAL_REMOVE = 2;
+
+    // Порог размера журнала, после которого checkpointIfNeeded() сворачивает его в снимок
+    private static final long DEFAULT_CHECKPOINT_THRESHOLD = 16L * 1024 * 1024; // 16 MB
+
+    // Буфер чтения и записи снимка индекса
+    private static final int SNAPSHOT_BUFFER_BYTES = 4 * 1024 * 1024; // 4 MB
 
+    // Состояние, которое сохраняется вместе со снимком индекса (например, карта свободного места)
+    public interface CheckpointListener {
+        void onCheckpoint() throws IOException;
+    }
+
+    // Порядок ключей - беззнаковый побайтовый (как у строк UTF-8 и в LSM-движке)
     public static class ByteArrayWrapper implements Comparable<ByteArrayWrapper> {
         private final byte[] data;
 
@@ -18,7 +53,7 @@ public class HeaderIndex {
 
         @Override
         public int compareTo(ByteArrayWrapper other) {
-            return Arrays.compare(this.data, other.data);
+            return Arrays.compareUnsigned(this.data, other.data);
         }
 
         @Override
@@ -40,83 +75,501 @@ public class HeaderIndex {
     }
 
     public HeaderIndex(String indexFilePath) throws IOException {
+        this(indexFilePath, IndexStorage.HEAP);
+    }
+
+    public HeaderIndex(String indexFilePath, IndexStorage storage) throws IOException {
+        this(indexFilePath, storage, true);
+    }
+
+    // Точные ключи ищутся в хэш-таблице; упорядоченный индекс ключей ведется дополнительно,
+    // если ordered (без него недоступны запросы по диапазону ключей)
+    public HeaderIndex(String indexFilePath, IndexStorage storage, boolean ordered) throws IOException {
+        this(indexFilePath, storage, ordered, false);
+    }
+
+    public HeaderIndex(String indexFilePath, IndexStorage storage, boolean ordered, boolean maskIndex) throws IOException {
         this.indexFilePath = indexFilePath;
-        this.index = new ConcurrentSkipListMap<>();
+        this.storage = storage;
+        this.table = storage == IndexStorage.OFF_HEAP ? new OffHeapHeaderTable() : new HeapHeaderTable();
+        this.journalFile = new File(indexFilePath + ".journal");
+        this.rotatedJournalFile = new File(indexFilePath + ".journal.old");
 
         File file = new File(indexFilePath);
-        boolean fileExists = file.exists();
-
-        this.indexFile = new RandomAccessFile(file, "rw");
+        List<ByteArrayWrapper> loadedKeys = file.exists() ? loadFromFile(file, ordered || maskIndex) : Collections.emptyList();
+        this.orderedKeys = ordered ? buildOrderedKeys(loadedKeys) : null;
+        this.gramIndex = maskIndex ? new KeyGramIndex() : null;
+        if (gramIndex != null) {
+            for (ByteArrayWrapper key : loadedKeys) {
+                gramIndex.add(key.getData());
+            }
+        }
 
-        if (fileExists) {
-            loadFromFile();
+        // Снимок + журнал, оставшийся от незавершенного checkpoint + текущий журнал
+        long replayed = 0;
+        if (rotatedJournalFile.exists()) {
+            replayed += replayJournal(rotatedJournalFile);
         }
+        if (journalFile.exists()) {
+            replayed += replayJournal(journalFile);
+        }
+        this.journalRecords = replayed;
+
+        this.journal = new RandomAccessFile(journalFile, "rw");
+        this.journal.seek(journal.length());
     }
 
     public void put(byte[] key, HeaderRecord record) throws IOException {
-        index.put(new ByteArrayWrapper(key), record);
-        saveToFile();
+        putRecord(key, record);
+        appendToJournal(JOURNAL_PUT, record.serialize());
+    }
+
+    // Пакетная установка заголовков без записей в журнал: индекс сразу сохраняется
+    // новым снимком (в него входят и все изменения из журнала)
+    public void putAll(Collection<HeaderRecord> records) throws IOException {
+        for (HeaderRecord record : records) {
+            putRecord(record.name, record);
+        }
+        checkpoint(true);
     }
 
+    // В индексе вне кучи каждый вызов возвращает новый объект - актуальность ранее
+    // полученной записи проверяется через isCurrent(), а не сравнением ссылок
     public HeaderRecord get(byte[] key) {
-        ByteArrayWrapper wrapper = new ByteArrayWrapper(key);
-        return index.get(wrapper);
+        return table.get(key);
+    }
+
+    public boolean isCurrent(byte[] key, HeaderRecord record) {
+        return record != null && table.isCurrent(key, record);
     }
 
     public void remove(byte[] key) throws IOException {
-        index.remove(new ByteArrayWrapper(key));
-        saveToFile();
+        removeRecord(key);
+        appendToJournal(JOURNAL_REMOVE, key);
+    }
+
+    // Удаление порции ключей одной записью в журнал
+    public void removeAll(Collection<byte[]> keys) throws IOException {
+        if (keys.isEmpty()) {
+            return;
+        }
+        ByteArrayOutputStream batch = new ByteArrayOutputStream();
+        for (byte[] key : keys) {
+            removeRecord(key);
+            batch.write(journalEntry(JOURNAL_REMOVE, key));
+        }
+        synchronized (journalLock) {
+            journal.write(batch.toByteArray());
+            journalRecords += keys.size();
+        }
+    }
+
+    // Ключ в упорядоченный индекс и индекс триграмм добавляется только при первом появлении в таблице
+    private void putRecord(byte[] key, HeaderRecord record) {
+        if (table.put(key, record)) {
+            if (orderedKeys != null) {
+                orderedKeys.put(new ByteArrayWrapper(key), Boolean.TRUE);
+            }
+            if (gramIndex != null) {
+                gramIndex.add(key);
+            }
+        }
+    }
+
+    private void removeRecord(byte[] key) {
+        if (table.remove(key)) {
+            if (orderedKeys != null) {
+                orderedKeys.remove(new ByteArrayWrapper(key));
+            }
+            if (gramIndex != null) {
+                gramIndex.remove(key);
+            }
+        }
     }
 
     public boolean containsKey(byte[] key) {
-        return index.containsKey(new ByteArrayWrapper(key));
+        return table.get(key) != null;
     }
 
+    public boolean isOrdered() {
+        return orderedKeys != null;
+    }
+
+    public boolean hasMaskIndex() {
+        return gramIndex != null;
+    }
+
+    // Все записи: по порядку ключей, если упорядоченный индекс включен
     public Collection<HeaderRecord> getAllRecords() {
-        return index.values();
+        if (orderedKeys == null) {
+            return table.values();
+        }
+        return new AbstractCollection<>() {
+            @Override
+            public Iterator<HeaderRecord> iterator() {
+                return new RecordIterator(orderedKeys.keySet().iterator());
+            }
+
+            @Override
+            public int size() {
+                return table.size();
+            }
+        };
+    }
+
+    // Записи с ключами из диапазона [fromKey, toKey) по порядку ключей; если afterKey не null,
+    // обход начинается строго после него (продолжение постраничного просмотра).
+    // null в качестве границы - без ограничения. Ключи, добавленные во время обхода, могут не попасть в него
+    public Iterator<HeaderRecord> scan(byte[] fromKey, byte[] toKey, byte[] afterKey) {
+        if (orderedKeys == null) {
+            throw new DataManagerException("Range scan requires the ordered key index (StorageConfig.orderedIndex)");
+        }
+        byte[] start = fromKey;
+        boolean inclusive = true;
+        if (afterKey != null && (fromKey == null || Arrays.compareUnsigned(afterKey, fromKey) >= 0)) {
+            start = afterKey;
+            inclusive = false;
+        }
+        if (start != null && toKey != null && Arrays.compareUnsigned(start, toKey) >= 0) {
+            return Collections.emptyIterator();
+        }
+
+        NavigableMap<ByteArrayWrapper, Boolean> range = orderedKeys;
+        if (start != null) {
+            range = range.tailMap(new ByteArrayWrapper(start), inclusive);
+        }
+        if (toKey != null) {
+            range = range.headMap(new ByteArrayWrapper(toKey), false);
+        }
+        return new RecordIterator(range.keySet().iterator());
+    }
+
+    // Кандидаты на совпадение с маской (каждый проверяется SearchQuery.matches()); null - индексы
+    // не сужают поиск, нужен полный перебор. Кандидаты берутся из индекса триграмм (все литеральные
+    // участки маски), а без него или без триграмм в маске - из диапазона упорядоченного индекса
+    // по литеральному началу маски. Кандидаты выбираются по мере перебора; по порядку ключей
+    // идут только кандидаты из диапазона, из индекса триграмм - в порядке добавления ключей
+    public Iterator<HeaderRecord> maskCandidates(byte[] mask) {
+        if (gramIndex != null) {
+            Iterator<byte[]> keys = gramIndex.candidates(mask);
+            if (keys != null) {
+                return new RecordIterator(new Iterator<>() {
+                    @Override
+                    public boolean hasNext() {
+                        return keys.hasNext();
+                    }
+
+                    @Override
+                    public ByteArrayWrapper next() {
+                        return new ByteArrayWrapper(keys.next());
+                    }
+                });
+            }
+        }
+        byte[] prefix = SearchQuery.maskPrefix(mask);
+        if (orderedKeys != null && prefix.length > 0) {
+            return scan(prefix, ScanPage.prefixEnd(prefix), null);
+        }
+        return null;
+    }
+
+    // Записи по ключам из упорядоченного индекса; ключи, удаленные после выборки, пропускаются
+    private class RecordIterator implements Iterator<HeaderRecord> {
+        private final Iterator<ByteArrayWrapper> keys;
+        private HeaderRecord next;
+
+        RecordIterator(Iterator<ByteArrayWrapper> keys) {
+            this.keys = keys;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (next == null && keys.hasNext()) {
+                next = table.get(keys.next().getData());
+            }
+            return next != null;
+        }
+
+        @Override
+        public HeaderRecord next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            HeaderRecord record = next;
+            next = null;
+            return record;
+        }
     }
 
     public Set<Map.Entry<ByteArrayWrapper, HeaderRecord>> entrySet() {
-        return index.entrySet();
+        Collection<HeaderRecord> records = getAllRecords();
+        return new AbstractSet<>() {
+            @Override
+            public Iterator<Map.Entry<ByteArrayWrapper, HeaderRecord>> iterator() {
+                Iterator<HeaderRecord> iterator = records.iterator();
+                return new Iterator<>() {
+                    @Override
+                    public boolean hasNext() {
+                        return iterator.hasNext();
+                    }
+
+                    @Override
+                    public Map.Entry<ByteArrayWrapper, HeaderRecord> next() {
+                        HeaderRecord record = iterator.next();
+                        return new AbstractMap.SimpleImmutableEntry<>(new ByteArrayWrapper(record.name), record);
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return records.size();
+            }
+        };
+    }
+
+    // Журнал изменений: одна запись [тип][длина][данные] на каждый put/remove
+
+    private void appendToJournal(byte type, byte[] payload) throws IOException {
+        byte[] entry = journalEntry(type, payload);
+        synchronized (journalLock) {
+            journal.write(entry);
+            journalRecords++;
+        }
+    }
+
+    private static byte[] journalEntry(byte type, byte[] payload) {
+        byte[] entry = new byte[1 + 4 + payload.length];
+        entry[0] = type;
+        entry[1] = (byte) (payload.length >>> 24);
+        entry[2] = (byte) (payload.length >>> 16);
+        entry[3] = (byte) (payload.length >>> 8);
+        entry[4] = (byte) payload.length;
+        System.arraycopy(payload, 0, entry, 5, payload.length);
+        return entry;
+    }
+
+    private long replayJournal(File file) throws IOException {
+        long replayed = 0;
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file), 64 * 1024))) {
+            while (true) {
+                int type = in.read();
+                if (type == -1) break;
+
+                byte[] payload;
+                try {
+                    int length = in.readInt();
+                    if (length <= 0) break;
+                    payload = new byte[length];
+                    in.readFully(payload);
+                } catch (EOFException e) {
+                    // Недописанная запись в конце журнала (сбой во время записи)
+                    System.err.println("Warning: Truncated record at the end of index journal " + file);
+                    break;
+                }
+
+                if (type == JOURNAL_PUT) {
+                    HeaderRecord record = HeaderRecord.deserialize(payload);
+                    putRecord(record.name, record);
+                } else if (type == JOURNAL_REMOVE) {
+                    removeRecord(payload);
+                } else {
+                    System.err.println("Warning: Unknown index journal record type " + type + " in " + file);
+                    break;
+                }
+                replayed++;
+            }
+        }
+        return replayed;
+    }
+
+    // Снимок индекса
+
+    // Снимок читается с диска большими блоками в direct-буфер; записи разбираются прямо в нем
+    // через HeaderRecordView, без промежуточного массива на каждую запись.
+    // Если collectKeys, возвращает ключи в порядке снимка
+    private List<ByteArrayWrapper> loadFromFile(File file, boolean collectKeys) throws IOException {
+        List<ByteArrayWrapper> keys = new ArrayList<>();
+        HeaderRecordView view = new HeaderRecordView();
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(SNAPSHOT_BUFFER_BYTES);
+            boolean eof = false;
+            boolean end = false;
+            while (!eof && !end) {
+                eof = channel.read(buffer) < 0;
+                buffer.flip();
+                while (buffer.remaining() >= 4) {
+                    int position = buffer.position();
+                    int recordLength = buffer.getInt(position);
+                    if (recordLength <= 0) {
+                        end = true;
+                        break;
+                    }
+                    if (buffer.remaining() - 4 < recordLength) {
+                        break;
+                    }
+                    byte[] key = table.load(view.wrap(buffer, position + 4, recordLength));
+                    if (collectKeys) {
+                        keys.add(new ByteArrayWrapper(key));
+                    }
+                    buffer.position(position + 4 + recordLength);
+                }
+
+                if (end) {
+                    break;
+                }
+                if (eof) {
+                    // Недописанная длина записи в конце снимка игнорируется, недописанная запись - ошибка
+                    if (buffer.remaining() >= 4) {
+                        throw new EOFException("Truncated record at the end of index snapshot " + file);
+                    }
+                    break;
+                }
+                if (buffer.position() == 0 && buffer.limit() == buffer.capacity()) {
+                    // Запись больше буфера - буфер увеличивается под нее
+                    int required = 4 + buffer.getInt(0);
+                    ByteBuffer larger = ByteBuffer.allocateDirect(Math.max(required, buffer.capacity() * 2));
+                    larger.put(buffer);
+                    buffer = larger;
+                } else {
+                    buffer.compact();
+                }
+            }
+        }
+        return keys;
+    }
+
+    // Ключи вставляются по возрастанию: каждая вставка идет в конец списков, поиск места короткий.
+    // Снимок пишется в порядке ключей, поэтому сортировка обычно только проверяет порядок
+    private static ConcurrentSkipListMap<ByteArrayWrapper, Boolean> buildOrderedKeys(List<ByteArrayWrapper> keys) {
+        keys.sort(null);
+        ConcurrentSkipListMap<ByteArrayWrapper, Boolean> orderedKeys = new ConcurrentSkipListMap<>();
+        for (ByteArrayWrapper key : keys) {
+            orderedKeys.put(key, Boolean.TRUE);
+        }
+        return orderedKeys;
     }
 
-    private void loadFromFile() throws IOException {
-        indexFile.seek(0);
+    // Сворачивает журнал в новый снимок индекса. Журнал ротируется под коротким замком,
+    // снимок пишется во временный файл и атомарно заменяет index.idx, поэтому запись
+    // в индекс во время checkpoint не блокируется.
+    public void checkpoint() throws IOException {
+        checkpoint(false);
+    }
 
-        while (indexFile.getFilePointer() < indexFile.length()) {
-            // Читаем длину записи
-            int recordLength = indexFile.readInt();
-            if (recordLength <= 0) break;
+    // force - снимок пишется, даже если журнал пуст (снимок должен существовать, например для резервной копии)
+    public void checkpoint(boolean force) throws IOException {
+        synchronized (checkpointLock) {
+            synchronized (journalLock) {
+                if (!force && journalRecords == 0 && !rotatedJournalFile.exists()) {
+                    return;
+                }
+                journal.close();
+                if (!rotatedJournalFile.exists()) {
+                    Files.move(journalFile.toPath(), rotatedJournalFile.toPath(),
+                            StandardCopyOption.ATOMIC_MOVE);
+                }
+                // Если .old остался от прошлой неудачной попытки, текущий журнал дописывается дальше
+                journal = new RandomAccessFile(journalFile, "rw");
+                journal.seek(journal.length());
+                journalRecords = 0;
+            }
 
-            // Читаем данные записи
-            byte[] recordData = new byte[recordLength];
-            indexFile.readFully(recordData);
+            // Снимок содержит все изменения из ротированного журнала (и, возможно, часть новых -
+            // повторное применение новых записей при старте идемпотентно)
+            File tmpFile = new File(indexFilePath + ".tmp");
+            writeSnapshot(tmpFile, getAllRecords());
+            Files.move(tmpFile.toPath(), new File(indexFilePath).toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
 
-            HeaderRecord record = HeaderRecord.deserialize(recordData);
-            if (record != null) {
-                index.put(new ByteArrayWrapper(record.name), record);
+            // Пока ротированный журнал не удален, сбой приведет к его повторному применению,
+            // и сохраненное вместе со снимком состояние не будет считаться актуальным
+            for (CheckpointListener listener : checkpointListeners) {
+                listener.onCheckpoint();
             }
+
+            Files.deleteIfExists(rotatedJournalFile.toPath());
+        }
+    }
+
+    // Заголовки кодируются сразу в буфер записи, который сбрасывается в файл большими блоками
+    private static void writeSnapshot(File file, Collection<HeaderRecord> records) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(SNAPSHOT_BUFFER_BYTES);
+            for (HeaderRecord record : records) {
+                int recordLength = record.serializedSize();
+                if (buffer.remaining() < 4 + recordLength) {
+                    writeFully(channel, buffer);
+                    if (buffer.capacity() < 4 + recordLength) {
+                        buffer = ByteBuffer.allocateDirect(4 + recordLength);
+                    }
+                }
+                // Длина записи и сами данные
+                buffer.putInt(recordLength);
+                record.writeTo(buffer);
+            }
+            writeFully(channel, buffer);
+            channel.force(true);
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
         }
+        buffer.clear();
+    }
+
+    public void addCheckpointListener(CheckpointListener listener) {
+        checkpointListeners.add(listener);
     }
 
-    private void saveToFile() throws IOException {
-        indexFile.setLength(0); // Очищаем файл
+    public void checkpointIfNeeded() throws IOException {
+        if (getJournalSize() >= DEFAULT_CHECKPOINT_THRESHOLD) {
+            checkpoint();
+        }
+    }
 
-        for (HeaderRecord record : index.values()) {
-            byte[] recordData = record.serialize();
+    public long getJournalSize() throws IOException {
+        synchronized (journalLock) {
+            return journal.length();
+        }
+    }
 
-            // Записываем длину записи и сами данные
-            indexFile.writeInt(recordData.length);
-            indexFile.write(recordData);
+    // fsync журнала (вызывается GroupCommitWriter вместе с force() файла данных)
+    public void sync() throws IOException {
+        synchronized (journalLock) {
+            journal.getFD().sync();
+        }
+    }
+
+    public long getJournalRecords() {
+        synchronized (journalLock) {
+            return journalRecords;
         }
     }
 
     public void close() throws IOException {
-        saveToFile();
-        indexFile.close();
+        checkpoint();
+        synchronized (journalLock) {
+            journal.close();
+        }
+        table.close();
     }
 
     public int size() {
-        return index.size();
+        return table.size();
+    }
+
+    public IndexStorage getStorage() {
+        return storage;
+    }
+
+    // Память, занятая индексом вне кучи
+    public long getOffHeapBytes() {
+        return table.getOffHeapBytes();
     }
-}
\ No newline at end of file
+}
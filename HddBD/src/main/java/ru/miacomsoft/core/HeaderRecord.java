@@ -1,5 +1,6 @@
 package ru.miacomsoft.core;
 
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.Objects;
 
@@ -11,135 +12,87 @@ public class HeaderRecord {
     public int dataSize;
     public float[] nameVector;
     public long timestamp;
+    public int blockSize; // Полный размер блока в файле данных (-1 - неизвестен, старый формат)
+    public long version;  // Версия записи в индексе вне кучи (в файлы не пишется)
+
+    // Адрес блока: старшие биты - номер сегмента, младшие 40 бит - смещение в сегменте.
+    // Адреса старого формата (один файл данных) соответствуют сегменту 0.
+    public static final int SEGMENT_OFFSET_BITS = 40;
+    public static final long MAX_SEGMENT_OFFSET = (1L << SEGMENT_OFFSET_BITS) - 1;
 
     public HeaderRecord(boolean isActive, long expiryTime, byte[] name,
                         long dataAddress, int dataSize, float[] nameVector) {
+        this(isActive, expiryTime, name, dataAddress, dataSize, nameVector, -1);
+    }
+
+    public HeaderRecord(boolean isActive, long expiryTime, byte[] name,
+                        long dataAddress, int dataSize, float[] nameVector, int blockSize) {
         this.isActive = isActive;
         this.expiryTime = expiryTime;
         this.name = name;
         this.dataAddress = dataAddress;
         this.dataSize = dataSize;
         this.nameVector = nameVector;
+        this.blockSize = blockSize;
         this.timestamp = System.currentTimeMillis();
     }
 
-    // Сериализация заголовка в байты
-    public byte[] serialize() {
-        int vectorSize = nameVector != null ? nameVector.length : 0;
-        int size = 1 + 8 + 4 + name.length + 8 + 4 + 4 + vectorSize * 4;
-        byte[] result = new byte[size];
-        int offset = 0;
-
-        // isActive
-        result[offset++] = (byte) (isActive ? 1 : 0);
-
-        // expiryTime
-        writeLong(result, offset, expiryTime);
-        offset += 8;
-
-        // name length + name
-        writeInt(result, offset, name.length);
-        offset += 4;
-        System.arraycopy(name, 0, result, offset, name.length);
-        offset += name.length;
-
-        // dataAddress
-        writeLong(result, offset, dataAddress);
-        offset += 8;
-
-        // dataSize
-        writeInt(result, offset, dataSize);
-        offset += 4;
-
-        // nameVector
-        writeInt(result, offset, vectorSize);
-        offset += 4;
-        if (nameVector != null) {
-            for (float f : nameVector) {
-                writeFloat(result, offset, f);
-                offset += 4;
-            }
-        }
-
-        return result;
+    public static long toAddress(int segmentId, long offset) {
+        return ((long) segmentId << SEGMENT_OFFSET_BITS) | offset;
     }
 
-    public static HeaderRecord deserialize(byte[] data) {
-        int offset = 0;
-
-        // isActive
-        boolean isActive = data[offset++] == 1;
-
-        // expiryTime
-        long expiryTime = readLong(data, offset);
-        offset += 8;
-
-        // name
-        int nameLength = readInt(data, offset);
-        offset += 4;
-        byte[] name = new byte[nameLength];
-        System.arraycopy(data, offset, name, 0, nameLength);
-        offset += nameLength;
-
-        // dataAddress
-        long dataAddress = readLong(data, offset);
-        offset += 8;
-
-        // dataSize
-        int dataSize = readInt(data, offset);
-        offset += 4;
-
-        // nameVector
-        int vectorSize = readInt(data, offset);
-        offset += 4;
-        float[] nameVector = null;
-        if (vectorSize > 0) {
-            nameVector = new float[vectorSize];
-            for (int i = 0; i < vectorSize; i++) {
-                nameVector[i] = readFloat(data, offset);
-                offset += 4;
-            }
-        }
+    public static int segmentOf(long address) {
+        return (int) (address >>> SEGMENT_OFFSET_BITS);
+    }
 
-        return new HeaderRecord(isActive, expiryTime, name, dataAddress, dataSize, nameVector);
+    public static long offsetOf(long address) {
+        return address & MAX_SEGMENT_OFFSET;
     }
 
-    private static void writeLong(byte[] data, int offset, long value) {
-        for (int i = 0; i < 8; i++) {
-            data[offset + i] = (byte) (value >>> (56 - i * 8));
-        }
+    public int getSegmentId() {
+        return segmentOf(dataAddress);
     }
 
-    private static long readLong(byte[] data, int offset) {
-        long result = 0;
-        for (int i = 0; i < 8; i++) {
-            result = (result << 8) | (data[offset + i] & 0xFF);
-        }
-        return result;
+    public long getSegmentOffset() {
+        return offsetOf(dataAddress);
     }
 
-    private static void writeInt(byte[] data, int offset, int value) {
-        for (int i = 0; i < 4; i++) {
-            data[offset + i] = (byte) (value >>> (24 - i * 8));
-        }
+    // Размер сериализованного заголовка в байтах
+    public int serializedSize() {
+        int vectorSize = nameVector != null ? nameVector.length : 0;
+        return 1 + 8 + 4 + name.length + 8 + 4 + 4 + vectorSize * 4 + 4 + 8;
     }
 
-    private static int readInt(byte[] data, int offset) {
-        int result = 0;
-        for (int i = 0; i < 4; i++) {
-            result = (result << 8) | (data[offset + i] & 0xFF);
-        }
+    // Сериализация заголовка в байты
+    public byte[] serialize() {
+        byte[] result = new byte[serializedSize()];
+        writeTo(ByteBuffer.wrap(result));
         return result;
     }
 
-    private static void writeFloat(byte[] data, int offset, float value) {
-        int intBits = Float.floatToIntBits(value);
-        writeInt(data, offset, intBits);
+    // Запись заголовка в буфер с его текущей позиции (порядок байт - big-endian)
+    public void writeTo(ByteBuffer buffer) {
+        buffer.put((byte) (isActive ? 1 : 0));
+        buffer.putLong(expiryTime);
+        buffer.putInt(name.length);
+        buffer.put(name);
+        buffer.putLong(dataAddress);
+        buffer.putInt(dataSize);
+        if (nameVector != null) {
+            buffer.putInt(nameVector.length);
+            buffer.asFloatBuffer().put(nameVector);
+            buffer.position(buffer.position() + nameVector.length * 4);
+        } else {
+            buffer.putInt(0);
+        }
+        // blockSize (добавлен в конец записи, чтобы старые записи читались без изменений)
+        buffer.putInt(blockSize);
+        // timestamp (после blockSize по той же причине)
+        buffer.putLong(timestamp);
     }
 
-    private static float readFloat(byte[] data, int offset) {
-        int intBits = readInt(data, offset);
-        return Float.intBitsToFloat(intBits);
+    public static HeaderRecord deserialize(byte[] data) {
+        return new HeaderRecordView().wrap(ByteBuffer.wrap(data), 0, data.length).toRecord();
     }
 
     @Override
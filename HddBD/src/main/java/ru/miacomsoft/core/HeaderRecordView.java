@@ -0,0 +1,125 @@
+package ru.miacomsoft.core;
+
+import java.nio.ByteBuffer;
+
+// Заголовок в сериализованном виде (формат HeaderRecord.serialize()) без копирования:
+// поля читаются прямо из буфера (в куче, direct или отображенного в память) абсолютными
+// чтениями. Один объект переиспользуется для всех записей - wrap() переставляет его на
+// следующую запись. Объекты (имя, вектор, HeaderRecord) создаются только по запросу
+public final class HeaderRecordView {
+    private static final int EXPIRY_OFFSET = 1;
+    private static final int NAME_LENGTH_OFFSET = 9;
+    private static final int NAME_OFFSET = 13;
+
+    private ByteBuffer buffer;
+    private int offset;
+    private int length;
+    private int nameLength;
+    private int tailOffset; // начало полей после имени (dataAddress)
+
+    public HeaderRecordView wrap(ByteBuffer buffer, int offset, int length) {
+        this.buffer = buffer;
+        this.offset = offset;
+        this.length = length;
+        this.nameLength = buffer.getInt(offset + NAME_LENGTH_OFFSET);
+        if (nameLength < 0 || NAME_OFFSET + nameLength + 16 > length) {
+            throw new IllegalArgumentException("Corrupted header record: name length " + nameLength +
+                    ", record length " + length);
+        }
+        this.tailOffset = offset + NAME_OFFSET + nameLength;
+        return this;
+    }
+
+    public int length() {
+        return length;
+    }
+
+    // Копирует запись в сериализованном виде в target начиная с targetOffset
+    public void copyTo(ByteBuffer target, int targetOffset) {
+        target.put(targetOffset, buffer, offset, length);
+    }
+
+    // Для таблиц, хранящих записи подряд в своих буферах: имя записи без создания view
+    static int nameLength(ByteBuffer buffer, int recordOffset) {
+        return buffer.getInt(recordOffset + NAME_LENGTH_OFFSET);
+    }
+
+    static int nameOffset(int recordOffset) {
+        return recordOffset + NAME_OFFSET;
+    }
+
+    public boolean isActive() {
+        return buffer.get(offset) == 1;
+    }
+
+    public long expiryTime() {
+        return buffer.getLong(offset + EXPIRY_OFFSET);
+    }
+
+    public int nameLength() {
+        return nameLength;
+    }
+
+    public byte[] name() {
+        byte[] name = new byte[nameLength];
+        buffer.get(offset + NAME_OFFSET, name);
+        return name;
+    }
+
+    // Сравнение имени с ключом без копирования имени (порядок - как у Arrays.compareUnsigned)
+    public int compareName(byte[] key) {
+        int common = Math.min(nameLength, key.length);
+        int nameOffset = offset + NAME_OFFSET;
+        for (int i = 0; i < common; i++) {
+            int compare = Byte.compareUnsigned(buffer.get(nameOffset + i), key[i]);
+            if (compare != 0) {
+                return compare;
+            }
+        }
+        return nameLength - key.length;
+    }
+
+    public long dataAddress() {
+        return buffer.getLong(tailOffset);
+    }
+
+    public int dataSize() {
+        return buffer.getInt(tailOffset + 8);
+    }
+
+    public int vectorSize() {
+        return buffer.getInt(tailOffset + 12);
+    }
+
+    public float[] nameVector() {
+        int vectorSize = vectorSize();
+        if (vectorSize <= 0) {
+            return null;
+        }
+        if (vectorSize > (offset + length - tailOffset - 16) / 4) {
+            throw new IllegalArgumentException("Corrupted header record: vector size " + vectorSize);
+        }
+        float[] vector = new float[vectorSize];
+        buffer.slice(tailOffset + 16, vectorSize * 4).order(buffer.order()).asFloatBuffer().get(vector);
+        return vector;
+    }
+
+    // blockSize отсутствует в записях старого формата
+    public int blockSize() {
+        int blockSizeOffset = tailOffset + 16 + Math.max(vectorSize(), 0) * 4;
+        return blockSizeOffset + 4 <= offset + length ? buffer.getInt(blockSizeOffset) : -1;
+    }
+
+    // timestamp отсутствует в записях старых форматов - для них используется время загрузки
+    public long timestamp() {
+        int timestampOffset = tailOffset + 20 + Math.max(vectorSize(), 0) * 4;
+        return timestampOffset + 8 <= offset + length ? buffer.getLong(timestampOffset) : System.currentTimeMillis();
+    }
+
+    public HeaderRecord toRecord() {
+        HeaderRecord record = new HeaderRecord(isActive(), expiryTime(), name(), dataAddress(), dataSize(),
+                nameVector(), blockSize());
+        record.timestamp = timestamp();
+        return record;
+    }
+}
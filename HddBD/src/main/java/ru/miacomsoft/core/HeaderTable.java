@@ -0,0 +1,32 @@
+package ru.miacomsoft.core;
+
+import java.util.Collection;
+
+// Хранилище заголовков за HeaderIndex: журнал и снимки ведет HeaderIndex, таблица отвечает
+// только за размещение записей в памяти. Чтение - без внешних блокировок, запись одного ключа
+// выполняется под его блокировкой (разные ключи пишутся параллельно)
+interface HeaderTable {
+    HeaderRecord get(byte[] key);
+
+    // true - ключ добавлен (не заменен)
+    boolean put(byte[] key, HeaderRecord record);
+
+    // true - ключ был в таблице
+    boolean remove(byte[] key);
+
+    // Та ли это запись, что сейчас лежит в таблице (для проверки оптимистичного чтения)
+    boolean isCurrent(byte[] key, HeaderRecord record);
+
+    int size();
+
+    // Все записи в порядке таблицы; обход не блокирует запись и может не увидеть параллельные изменения
+    Collection<HeaderRecord> values();
+
+    // Запись из снимка при запуске. Возвращает ключ записи
+    byte[] load(HeaderRecordView view);
+
+    // Память, занятая таблицей вне кучи
+    long getOffHeapBytes();
+
+    void close();
+}
@@ -0,0 +1,58 @@
+package ru.miacomsoft.core;
+
+import ru.miacomsoft.core.HeaderIndex.ByteArrayWrapper;
+
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Заголовки в куче: ConcurrentHashMap - поиск по точному ключу за O(1), без сравнений
+// ключей по порядку (порядок ключей при необходимости ведет HeaderIndex)
+final class HeapHeaderTable implements HeaderTable {
+    private final ConcurrentHashMap<ByteArrayWrapper, HeaderRecord> records = new ConcurrentHashMap<>();
+
+    @Override
+    public HeaderRecord get(byte[] key) {
+        return records.get(new ByteArrayWrapper(key));
+    }
+
+    @Override
+    public boolean put(byte[] key, HeaderRecord record) {
+        return records.put(new ByteArrayWrapper(key), record) == null;
+    }
+
+    @Override
+    public boolean remove(byte[] key) {
+        return records.remove(new ByteArrayWrapper(key)) != null;
+    }
+
+    @Override
+    public boolean isCurrent(byte[] key, HeaderRecord record) {
+        return get(key) == record;
+    }
+
+    @Override
+    public int size() {
+        return records.size();
+    }
+
+    @Override
+    public Collection<HeaderRecord> values() {
+        return records.values();
+    }
+
+    @Override
+    public byte[] load(HeaderRecordView view) {
+        HeaderRecord record = view.toRecord();
+        records.put(new ByteArrayWrapper(record.name), record);
+        return record.name;
+    }
+
+    @Override
+    public long getOffHeapBytes() {
+        return 0;
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,1471 @@
+package ru.miacomsoft.core;
+
+import ru.miacomsoft.core.exceptions.DataManagerException;
+import ru.miacomsoft.core.exceptions.KeyNotFoundException;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+// Движок хранения с размещением блоков на месте: блоки в сегментах файла данных,
+// индекс заголовков в памяти с журналом, повторное использование освобожденного места
+public class InPlaceStorageEngine implements StorageEngine {
+    private final SegmentManager segments;
+    private final GroupCommitWriter commitWriter;
+    private final HeaderIndex headerIndex;
+    private final DataCache cache;
+    private final OffHeapCache offHeapCache;
+    private final ValueCompressor compressor;
+    private final CompressionDictionaries dictionaries; // null без DEFLATE_DICTIONARY
+    private final ExpiryWheel expiryWheel;
+    private final GarbageCollectorStats gcStats = new GarbageCollectorStats();
+    private final FreeSpaceManager freeSpaceManager;
+    private final MemoryManager memoryManager;
+    private final ReadWriteLock dataFileLock;
+    private final StripedLock keyLocks;
+    private final ScheduledExecutorService backgroundScheduler;
+    private final String dataFileName;
+    private final String indexFileName;
+    private final StorageConfig config;
+    private final File freeSpaceMapFile;
+
+    // Одновременно выполняется не более одного уплотнения
+    private final AtomicBoolean compactionRunning = new AtomicBoolean();
+
+    // Сколько раз оптимистичное чтение повторяется, если блок изменили во время чтения
+    private static final int MAX_READ_RETRIES = 8;
+
+    // Сколько checkpoint ждет блокировку хранилища для сохранения карты свободного места
+    private static final long FREE_MAP_LOCK_TIMEOUT_MS = 1000;
+
+    // Как часто долгая сборка мусора печатает прогресс
+    private static final long GC_PROGRESS_INTERVAL_SECONDS = 5;
+
+    // Предел одного чтения при пакетном чтении результатов запроса (readValues)
+    private static final int BATCH_READ_MAX_BYTES = 1024 * 1024;
+
+    // Буфер чтения блока переиспользуется потоком, если блок не больше этого размера
+    private static final int MAX_REUSED_READ_BUFFER = 64 * 1024;
+    private final ThreadLocal<ByteBuffer> readBuffers = new ThreadLocal<>();
+    private final ThreadLocal<ByteBuffer> runBuffers = new ThreadLocal<>();
+
+    // Первый байт блока: бит 0 - признак активности, биты 1-7 - кодек сжатия значения.
+    // Блоки без сжатия совпадают со старым форматом (1 - активен, 0 - удален)
+    private static final int ACTIVE_FLAG = 1;
+    private static final int CODEC_SHIFT = 1;
+
+    // Константы разделителей
+    private static final byte[] HEADER_DATA_DELIMITER = "%%HEADER_DATA%%".getBytes();
+    private static final byte[] DATA_VECTOR_DELIMITER = "%%DATA_VECTOR%%".getBytes();
+    private static final byte[] RECORD_END_DELIMITER = "%%RECORD_END%%".getBytes();
+
+    public InPlaceStorageEngine(String dataFileName, String indexFileName, MemoryManager memoryManager,
+                                StorageConfig config) throws IOException {
+        this.dataFileName = dataFileName;
+        this.indexFileName = indexFileName;
+        this.memoryManager = memoryManager;
+        this.config = config;
+
+        // Создаем директорию если не существует
+        File baseDataDir = new File(dataFileName);
+        File baseIndexDir = new File(indexFileName);
+
+        if (baseDataDir.getParentFile() != null && !baseDataDir.getParentFile().exists()) {
+            baseDataDir.getParentFile().mkdirs();
+        }
+
+        if (baseIndexDir.getParentFile() != null && !baseIndexDir.getParentFile().exists()) {
+            baseIndexDir.getParentFile().mkdirs();
+        }
+
+        // Инициализация сегментов файла данных
+        this.segments = new SegmentManager(dataFileName, config);
+
+        // Инициализация индекса заголовков
+        this.headerIndex = new HeaderIndex(indexFileName, config.getIndexStorage(),
+                config.isOrderedIndex(), config.isMaskIndex());
+        this.freeSpaceMapFile = new File(indexFileName + ".free");
+
+        // Инициализация остальных компонентов (словари сжатия обучаются фоновыми задачами)
+        this.backgroundScheduler = Executors.newScheduledThreadPool(2);
+        this.dictionaries = config.getCompression() == CompressionCodec.DEFLATE_DICTIONARY
+                ? new CompressionDictionaries(new File(indexFileName + ".dict"), config, backgroundScheduler)
+                : null;
+        this.compressor = new ValueCompressor(config, dictionaries);
+        this.cache = new DataCache(memoryManager, config.getCacheMaxBytes() > 0
+                ? config.getCacheMaxBytes() : memoryManager.getMaxMemory() / 4 * 3, compressor);
+        this.offHeapCache = config.getOffHeapCacheBytes() > 0
+                ? new OffHeapCache(memoryManager, config.getOffHeapCacheBytes(), config.getOffHeapPageBytes())
+                : null;
+        this.freeSpaceManager = new FreeSpaceManager();
+        this.dataFileLock = new ReentrantReadWriteLock();
+        this.keyLocks = new StripedLock(config.getLockStripes());
+
+        // Колесо таймеров заполняется один раз при запуске; дальше его обновляют put/delete
+        this.expiryWheel = new ExpiryWheel(System.currentTimeMillis() / 1000);
+        for (HeaderRecord header : headerIndex.getAllRecords()) {
+            expiryWheel.schedule(header.name, header.expiryTime);
+        }
+
+        initializeFreeSpaceManager();
+        headerIndex.addCheckpointListener(this::saveFreeSpaceMap);
+
+        // Групповая запись блоков: одна запись и один force() на группу операций
+        this.commitWriter = new GroupCommitWriter(config);
+        commitWriter.addSyncListener(headerIndex::sync);
+
+        startBackgroundTasks();
+
+        System.out.println("In-place storage engine initialized:");
+        System.out.println("  Data segments: " + segments.getSegmentCount() + " (segment size " +
+                (config.getSegmentBytes() / (1024 * 1024)) + " MB)");
+        System.out.println("  Fsync policy: " + config.getFsyncPolicy());
+        System.out.println("  Memory-mapped reads: " + config.isMemoryMappedReads());
+        System.out.println("  Off-heap cache: " + (offHeapCache != null
+                ? (config.getOffHeapCacheBytes() / (1024 * 1024)) + " MB" : "disabled"));
+        System.out.println("  Compression: " + (config.getCompression() != CompressionCodec.NONE
+                ? config.getCompression() + " (values from " + config.getCompressionMinBytes() + " bytes)" : "disabled"));
+        System.out.println("  Header index: " + headerIndex.getStorage() +
+                (headerIndex.isOrdered() ? " + ordered keys" : " (point lookups only)") +
+                (headerIndex.hasMaskIndex() ? " + key trigrams" : ""));
+        System.out.println("  Write locking: " + (config.isGlobalWriteLock()
+                ? "global" : keyLocks.getStripeCount() + " key stripes"));
+    }
+
+    // Основные методы API
+
+    @Override
+    public byte[] get(byte[] key) {
+        // 1. Проверка кэша (сначала в куче, затем вне кучи)
+        byte[] cachedData = getCached(key);
+        if (cachedData != null) {
+            return cachedData;
+        }
+
+        dataFileLock.readLock().lock();
+        try {
+            return readValue(key, true);
+        } finally {
+            dataFileLock.readLock().unlock();
+        }
+    }
+
+    private byte[] getCached(byte[] key) {
+        byte[] cachedData = cache.get(key);
+        if (cachedData == null && offHeapCache != null) {
+            cachedData = offHeapCache.get(key);
+        }
+        return cachedData;
+    }
+
+    // Чтение значения ключа из файла данных (вызывается под блокировкой чтения dataFileLock).
+    // cacheResult - поместить прочитанное значение в кэш
+    private byte[] readValue(byte[] key, boolean cacheResult) {
+        try {
+            for (int attempt = 0; ; attempt++) {
+                // 2. Поиск в Header Index
+                HeaderRecord header = headerIndex.get(key);
+                if (header == null || !header.isActive || isExpired(header.expiryTime)) {
+                    return null;
+                }
+
+                // 3. Чтение данных из файла без блокировки ключа: если за время чтения заголовок
+                // сменился (блок перезаписан или освобожден), чтение повторяется
+                StoredValue stored;
+                byte[] data;
+                try {
+                    stored = readDataBlock(header);
+                    data = compressor.decompress(stored.codec, stored.data);
+                } catch (IOException e) {
+                    if (headerIndex.isCurrent(key, header)) {
+                        throw e;
+                    }
+                    if (attempt < MAX_READ_RETRIES) {
+                        continue;
+                    }
+                    return readValueLocked(key, cacheResult);
+                }
+                if (!headerIndex.isCurrent(key, header)) {
+                    if (attempt < MAX_READ_RETRIES) {
+                        continue;
+                    }
+                    return readValueLocked(key, cacheResult);
+                }
+
+                if (data != null && cacheResult) {
+                    // Память под запись кэша учитывает сам кэш (и освобождает при вытеснении)
+                    cacheValue(key, data, stored.data, stored.codec, header);
+                    // Параллельная запись могла обновить ключ - не оставляем в кэше старое значение
+                    if (!headerIndex.isCurrent(key, header)) {
+                        invalidateCache(key);
+                    }
+                }
+
+                return data;
+            }
+        } catch (IOException e) {
+            throw new DataManagerException("Error reading data for key: " + Arrays.toString(key), e);
+        }
+    }
+
+    // Чтение под блокировкой ключа, если оптимистичные попытки исчерпаны: заголовок и блок
+    // не меняются до конца чтения. Блокировка чтения хранилища уже взята вызывающим кодом;
+    // при глобальной блокировке записи запись ключа исключена ею самой
+    private byte[] readValueLocked(byte[] key, boolean cacheResult) throws IOException {
+        boolean striped = !config.isGlobalWriteLock();
+        if (striped) {
+            keyLocks.lock(key);
+        }
+        try {
+            HeaderRecord header = headerIndex.get(key);
+            if (header == null || !header.isActive || isExpired(header.expiryTime)) {
+                return null;
+            }
+            StoredValue stored = readDataBlock(header);
+            byte[] data = compressor.decompress(stored.codec, stored.data);
+            if (data != null && cacheResult) {
+                cacheValue(key, data, stored.data, stored.codec, header);
+            }
+            return data;
+        } finally {
+            if (striped) {
+                keyLocks.unlock(key);
+            }
+        }
+    }
+
+    // Значения нескольких заголовков в том же порядке (вызывается под блокировкой чтения
+    // dataFileLock; null - ключ удален). Блоки читаются в порядке адресов: соседние блоки
+    // одного сегмента с промежутками не больше readCoalesceGapBytes читаются одним позиционным
+    // чтением до BATCH_READ_MAX_BYTES, значения декодируются из общего буфера. Так результаты
+    // запроса читаются почти последовательно, а не случайными обращениями в порядке индекса
+    private List<byte[]> readValues(List<HeaderRecord> headers) {
+        byte[][] values = new byte[headers.size()][];
+        List<Integer> pending = new ArrayList<>();
+        for (int i = 0; i < headers.size(); i++) {
+            values[i] = getCached(headers.get(i).name);
+            if (values[i] == null) {
+                pending.add(i);
+            }
+        }
+        pending.sort(Comparator.comparingLong(i -> headers.get(i).dataAddress));
+
+        int start = 0;
+        while (start < pending.size()) {
+            HeaderRecord first = headers.get(pending.get(start));
+            long runStart = first.dataAddress;
+            long runEnd = runStart + blockReadLength(first);
+            int end = start + 1;
+            while (end < pending.size()) {
+                HeaderRecord next = headers.get(pending.get(end));
+                long nextEnd = next.dataAddress + blockReadLength(next);
+                if (next.getSegmentId() != first.getSegmentId() || next.dataAddress - runEnd > config.getReadCoalesceGapBytes()
+                        || nextEnd - runStart > BATCH_READ_MAX_BYTES) {
+                    break;
+                }
+                runEnd = Math.max(runEnd, nextEnd);
+                end++;
+            }
+
+            List<Integer> run = pending.subList(start, end);
+            if (run.size() == 1) {
+                values[run.get(0)] = readValue(first.name, false);
+            } else {
+                readRun(headers, run, runStart, (int) (runEnd - runStart), values);
+            }
+            start = end;
+        }
+        return Arrays.asList(values);
+    }
+
+    // Одно чтение диапазона [runStart, runStart + length) и декодирование блоков из него.
+    // Блок, который не удалось декодировать или заголовок которого сменился за время чтения,
+    // перечитывается отдельно через readValue() с повторами
+    private void readRun(List<HeaderRecord> headers, List<Integer> run, long runStart, int length, byte[][] values) {
+        ByteBuffer buffer;
+        try {
+            for (int i : run) {
+                commitWriter.awaitWritten(headers.get(i).dataAddress);
+            }
+            buffer = segments.view(runStart, length);
+            if (buffer == null) {
+                buffer = runBuffers.get();
+                if (buffer == null || buffer.capacity() < length) {
+                    buffer = ByteBuffer.allocate(Math.max(length, BATCH_READ_MAX_BYTES));
+                    runBuffers.set(buffer);
+                }
+                buffer.clear().limit(length);
+                segments.readFully(buffer, runStart);
+                buffer.flip();
+            }
+        } catch (IOException e) {
+            buffer = null;
+        }
+
+        for (int i : run) {
+            HeaderRecord header = headers.get(i);
+            byte[] value = null;
+            if (buffer != null) {
+                try {
+                    StoredValue stored = decodeDataBlock(header,
+                            buffer.slice((int) (header.dataAddress - runStart), blockReadLength(header)));
+                    value = compressor.decompress(stored.codec, stored.data);
+                } catch (IOException e) {
+                    value = null;
+                }
+            }
+            if (value == null || !headerIndex.isCurrent(header.name, header)) {
+                value = readValue(header.name, false);
+            }
+            values[i] = value;
+        }
+    }
+
+    // Значение в виде read-only буфера над копией значения (в том числе из кэша вне кучи,
+    // ячейки которого переиспользуются после замены или вытеснения значения)
+    @Override
+    public ByteBuffer getBuffer(byte[] key) {
+        byte[] data = get(key);
+        return data != null ? ByteBuffer.wrap(data).asReadOnlyBuffer() : null;
+    }
+
+    // Возвращает future, который завершается после записи блока согласно FsyncPolicy
+    @Override
+    public CompletableFuture<Void> put(byte[] key, byte[] value, long expiryTime, float[] nameVector, float[] dataVector) {
+        if (key == null || key.length == 0) {
+            throw new DataManagerException("Key cannot be null or empty");
+        }
+        if (value == null) {
+            throw new DataManagerException("Value cannot be null");
+        }
+
+        // Оценка необходимой памяти на время операции (память под кэш учитывает DataCache;
+        // при нехватке лимита место под операцию освобождается вытеснением из кэша)
+        long memoryNeeded = estimateMemoryUsage(key, value, nameVector, dataVector);
+        if (!cache.reserveMemory(memoryNeeded)) {
+            throw new DataManagerException("Memory limit exceeded. Required: " + memoryNeeded +
+                    ", Available: " + (memoryManager.getMaxMemory() - memoryManager.getUsedMemory()));
+        }
+
+        lockKey(key);
+        try {
+            // Значение сжимается до выделения места: блок занимает размер сжатых данных
+            byte[] compressed = compressor.compress(key, value);
+            CompressionCodec codec = compressed != null ? compressor.getCodec() : CompressionCodec.NONE;
+            byte[] stored = compressed != null ? compressed : value;
+
+            // Поиск свободного места или запись в конец
+            int totalBlockSize = calculateTotalBlockSize(key.length, stored.length, dataVector);
+            long dataAddress = allocateBlock(totalBlockSize);
+
+            // Старый блок освобождается после выделения нового, чтобы значение ключа
+            // не перезаписывалось на месте, пока его могут читать
+            HeaderRecord existing = headerIndex.get(key);
+
+            // Обновление Header Index (журнал индекса сбрасывается на диск вместе с группой блоков).
+            // Блок резервируется до публикации заголовка, чтобы читатели дождались его записи
+            HeaderRecord newHeader = new HeaderRecord(true, expiryTime, key,
+                    dataAddress, stored.length, nameVector, totalBlockSize);
+            GroupCommitWriter.PendingWrite pending = commitWriter.reserve(dataAddress);
+            try {
+                headerIndex.put(key, newHeader);
+            } catch (IOException e) {
+                commitWriter.cancel(pending);
+                throw e;
+            }
+            expiryWheel.schedule(key, expiryTime);
+
+            // Заголовок сразу заменяется новым: промежуточная удаленная запись была бы видна
+            // читателям как отсутствие ключа
+            if (existing != null && existing.isActive) {
+                releaseBlock(existing.dataAddress, blockSizeOf(existing));
+            }
+
+            // Запись блока данных
+            CompletableFuture<Void> written = commitWriter.submit(pending, segments.channelOf(dataAddress),
+                    HeaderRecord.offsetOf(dataAddress), encodeDataBlock(key, stored, codec, expiryTime, dataVector));
+
+            // Обновление кэша
+            cacheValue(key, value, stored, codec, newHeader);
+
+            return written;
+        } catch (IOException e) {
+            throw new DataManagerException("Error writing data for key: " + Arrays.toString(key), e);
+        } finally {
+            memoryManager.releaseMemory(memoryNeeded);
+            unlockKey(key);
+        }
+    }
+
+    @Override
+    public CompletableFuture<Void> update(byte[] key, byte[] newValue) {
+        if (key == null || key.length == 0) {
+            throw new DataManagerException("Key cannot be null or empty");
+        }
+        if (newValue == null) {
+            throw new DataManagerException("New value cannot be null");
+        }
+
+        lockKey(key);
+        try {
+            HeaderRecord existing = headerIndex.get(key);
+            if (existing == null || !existing.isActive) {
+                throw new KeyNotFoundException(key);
+            }
+
+            // Оценка необходимой памяти
+            long memoryNeeded = estimateMemoryUsage(key, newValue, existing.nameVector, null);
+            if (!cache.reserveMemory(memoryNeeded)) {
+                throw new DataManagerException("Memory limit exceeded for update operation");
+            }
+
+            try {
+                byte[] compressed = compressor.compress(key, newValue);
+                CompressionCodec codec = compressed != null ? compressor.getCodec() : CompressionCodec.NONE;
+                byte[] stored = compressed != null ? compressed : newValue;
+
+                if (stored.length <= existing.dataSize) {
+                    // Обновление Header Index
+                    HeaderRecord updatedHeader = new HeaderRecord(true, existing.expiryTime,
+                            existing.name, existing.dataAddress, stored.length, existing.nameVector,
+                            blockSizeOf(existing));
+                    GroupCommitWriter.PendingWrite pending = commitWriter.reserve(existing.dataAddress);
+                    try {
+                        headerIndex.put(key, updatedHeader);
+                    } catch (IOException e) {
+                        commitWriter.cancel(pending);
+                        throw e;
+                    }
+
+                    // Перезапись на том же месте
+                    CompletableFuture<Void> written = updateDataBlock(pending, existing, stored, codec);
+
+                    // Обновление кэша
+                    cacheValue(key, newValue, stored, codec, updatedHeader);
+                    return written;
+                } else {
+                    // Новое размещение
+                    return put(key, newValue, existing.expiryTime, existing.nameVector, null);
+                }
+            } finally {
+                memoryManager.releaseMemory(memoryNeeded);
+            }
+
+        } catch (IOException e) {
+            throw new DataManagerException("Error updating data for key: " + Arrays.toString(key), e);
+        } finally {
+            unlockKey(key);
+        }
+    }
+
+    @Override
+    public CompletableFuture<Void> delete(byte[] key) {
+        if (key == null || key.length == 0) {
+            throw new DataManagerException("Key cannot be null or empty");
+        }
+
+        lockKey(key);
+        try {
+            HeaderRecord header = headerIndex.get(key);
+            // Повторное удаление не должно второй раз отдавать блок в свободное пространство
+            if (header != null && header.isActive) {
+                // Помечаем на удаление в Header Index
+                HeaderRecord deletedHeader = new HeaderRecord(false,
+                        System.currentTimeMillis() / 1000,
+                        header.name, header.dataAddress, header.dataSize, header.nameVector,
+                        blockSizeOf(header));
+                headerIndex.put(key, deletedHeader);
+
+                // Запись удаленного ключа убирается из индекса, когда истечет ее срок
+                expiryWheel.schedule(key, deletedHeader.expiryTime);
+
+                // Помечаем в кэше
+                invalidateCache(key);
+
+                // Помечаем в данных
+                CompletableFuture<Void> written = markDataBlockForDeletion(header.dataAddress);
+
+                // Добавляем в менеджер свободного пространства
+                releaseBlock(header.dataAddress, blockSizeOf(header));
+                return written;
+            }
+            return CompletableFuture.completedFuture(null);
+        } catch (IOException e) {
+            throw new DataManagerException("Error deleting data for key: " + Arrays.toString(key), e);
+        } finally {
+            unlockKey(key);
+        }
+    }
+
+    // Индекс обходится без блокировки хранилища (обход индекса потокобезопасен): блокировка
+    // чтения берется только на чтение значений очередной порции результатов (readValues).
+    // Значения, которых нет в кэше, читаются без помещения в кэш
+    @Override
+    public FindCursor find(SearchQuery query, FindOptions options) {
+        if (query == null) {
+            throw new DataManagerException("Search query cannot be null");
+        }
+
+        Iterator<HeaderRecord> headers;
+        if (query.getType() == SearchQuery.SearchType.EXACT_MATCH) {
+            HeaderRecord header = query.getKey() != null ? headerIndex.get(query.getKey()) : null;
+            headers = header != null ? List.of(header).iterator() : Collections.emptyIterator();
+        } else {
+            // Для маски - кандидаты из упорядоченного индекса или индекса триграмм, если они сужают поиск
+            headers = query.getType() == SearchQuery.SearchType.MASK_SEARCH && query.getMask() != null
+                    ? headerIndex.maskCandidates(query.getMask()) : null;
+            if (headers == null) {
+                headers = headerIndex.getAllRecords().iterator();
+            }
+        }
+        return new FindCursor(new HeaderMatches(headers, query), options, this::readMatches);
+    }
+
+    private List<byte[]> readMatches(List<FindCursor.Match> matches) {
+        List<HeaderRecord> headers = new ArrayList<>(matches.size());
+        for (FindCursor.Match match : matches) {
+            headers.add(((HeaderMatch) match).header);
+        }
+        dataFileLock.readLock().lock();
+        try {
+            return readValues(headers);
+        } finally {
+            dataFileLock.readLock().unlock();
+        }
+    }
+
+    private class HeaderMatch implements FindCursor.Match {
+        final HeaderRecord header;
+
+        HeaderMatch(HeaderRecord header) {
+            this.header = header;
+        }
+
+        @Override
+        public byte[] key() {
+            return header.name.clone();
+        }
+
+        @Override
+        public byte[] value() {
+            return readMatches(List.of(this)).get(0);
+        }
+    }
+
+    // Активные заголовки, подходящие под условие поиска
+    private class HeaderMatches implements Iterator<FindCursor.Match> {
+        private final Iterator<HeaderRecord> headers;
+        private final SearchQuery query;
+        private HeaderRecord next;
+
+        HeaderMatches(Iterator<HeaderRecord> headers, SearchQuery query) {
+            this.headers = headers;
+            this.query = query;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (next == null && headers.hasNext()) {
+                HeaderRecord header = headers.next();
+                if (header.isActive && !isExpired(header.expiryTime) && query.matches(header.name, header.nameVector)) {
+                    next = header;
+                }
+            }
+            return next != null;
+        }
+
+        @Override
+        public FindCursor.Match next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            HeaderMatch match = new HeaderMatch(next);
+            next = null;
+            return match;
+        }
+    }
+
+    // Просмотр диапазона по упорядоченному индексу ключей: читаются только заголовки диапазона.
+    // Значения, которых нет в кэше, читаются из файла без помещения в кэш, чтобы просмотр
+    // большого диапазона не вытеснял из него часто читаемые ключи
+    @Override
+    public ScanPage scan(byte[] fromKey, byte[] toKey, byte[] pageToken, int limit) {
+        if (limit <= 0) {
+            throw new DataManagerException("Scan limit must be positive: " + limit);
+        }
+
+        List<ScanPage.Entry> entries = new ArrayList<>();
+        dataFileLock.readLock().lock();
+        try {
+            // Заголовки страницы (и один сверх нее - признак следующей страницы) отбираются
+            // по индексу, значения читаются порциями по FindCursor.READ_BATCH
+            Iterator<HeaderRecord> headers = headerIndex.scan(fromKey, toKey, pageToken);
+            List<HeaderRecord> page = new ArrayList<>();
+            while (headers.hasNext() && page.size() <= limit) {
+                HeaderRecord header = headers.next();
+                if (header.isActive && !isExpired(header.expiryTime)) {
+                    page.add(header);
+                }
+            }
+            boolean more = page.size() > limit;
+            int count = Math.min(page.size(), limit);
+
+            for (int from = 0; from < count; from += FindCursor.READ_BATCH) {
+                List<HeaderRecord> portion = page.subList(from, Math.min(from + FindCursor.READ_BATCH, count));
+                List<byte[]> values = readValues(portion);
+                for (int i = 0; i < portion.size(); i++) {
+                    // Ключ, удаленный после выборки, пропускается
+                    if (values.get(i) != null) {
+                        entries.add(new ScanPage.Entry(portion.get(i).name.clone(), values.get(i)));
+                    }
+                }
+            }
+            // Есть еще хотя бы один ключ - продолжение после последнего ключа страницы
+            return new ScanPage(entries, more ? page.get(limit - 1).name.clone() : null);
+        } finally {
+            dataFileLock.readLock().unlock();
+        }
+    }
+
+    // Вспомогательные методы
+
+    // Изменение ключа: полоса блокировок ключа + разделяемая блокировка хранилища.
+    // Эксклюзивно dataFileLock берут только сборка мусора, дефрагментация, компакция и закрытие
+    private void lockKey(byte[] key) {
+        if (config.isGlobalWriteLock()) {
+            dataFileLock.writeLock().lock();
+            return;
+        }
+        dataFileLock.readLock().lock();
+        keyLocks.lock(key);
+    }
+
+    private void unlockKey(byte[] key) {
+        if (config.isGlobalWriteLock()) {
+            dataFileLock.writeLock().unlock();
+            return;
+        }
+        keyLocks.unlock(key);
+        dataFileLock.readLock().unlock();
+    }
+
+    private List<ReentrantLock> lockKeys(Collection<byte[]> keys) {
+        if (config.isGlobalWriteLock()) {
+            dataFileLock.writeLock().lock();
+            return Collections.emptyList();
+        }
+        dataFileLock.readLock().lock();
+        return keyLocks.lockAll(keys);
+    }
+
+    private void unlockKeys(List<ReentrantLock> locks) {
+        if (config.isGlobalWriteLock()) {
+            dataFileLock.writeLock().unlock();
+            return;
+        }
+        StripedLock.unlockAll(locks);
+        dataFileLock.readLock().unlock();
+    }
+
+    private boolean isExpired(long expiryTime) {
+        return expiryTime != -1 && expiryTime < (System.currentTimeMillis() / 1000);
+    }
+
+    // Значение в том виде, в каком оно хранится в блоке
+    private static final class StoredValue {
+        final byte[] data;
+        final CompressionCodec codec;
+
+        StoredValue(byte[] data, CompressionCodec codec) {
+            this.data = data;
+            this.codec = codec;
+        }
+    }
+
+    private StoredValue readDataBlock(HeaderRecord header) throws IOException {
+        // Блок мог быть только что поставлен в очередь записи
+        commitWriter.awaitWritten(header.dataAddress);
+
+        // Позиционное чтение из отображенного сегмента без seek и без блокировки
+        ByteBuffer block = segments.view(header.dataAddress, blockReadLength(header));
+        if (block != null) {
+            return decodeDataBlock(header, block);
+        }
+
+        // Весь блок читается одним позиционным чтением: читатели не делят указатель файла
+        // и не блокируют друг друга. Значение копируется из блока в новый массив,
+        // поэтому буфер чтения переиспользуется потоком
+        int length = blockReadLength(header);
+        block = readBuffers.get();
+        if (block == null || block.capacity() < length) {
+            block = ByteBuffer.allocate(length);
+            if (length <= MAX_REUSED_READ_BUFFER) {
+                readBuffers.set(block);
+            }
+        }
+        block.clear().limit(length);
+        segments.readFully(block, header.dataAddress);
+        block.flip();
+        return decodeDataBlock(header, block);
+    }
+
+    // Длина блока от начала до конца данных (векторы и разделитель конца не читаются)
+    private int blockReadLength(HeaderRecord header) {
+        return 1 + 8 + 4 + header.name.length + HEADER_DATA_DELIMITER.length + header.dataSize;
+    }
+
+    private StoredValue decodeDataBlock(HeaderRecord header, ByteBuffer block) throws IOException {
+        // Дублированный заголовок
+        int flags = block.get(0) & 0xFF;
+        boolean isActive = (flags & ACTIVE_FLAG) != 0;
+        int keyLength = block.getInt(1 + 8);
+        int offset = 1 + 8 + 4;
+
+        // Проверка совпадения заголовков
+        if (keyLength != header.name.length || isActive != header.isActive
+                || !block.slice(offset, keyLength).equals(ByteBuffer.wrap(header.name))) {
+            throw new IOException("Header mismatch in data block");
+        }
+        offset += keyLength;
+
+        // Разделитель
+        if (!block.slice(offset, HEADER_DATA_DELIMITER.length).equals(ByteBuffer.wrap(HEADER_DATA_DELIMITER))) {
+            throw new IOException("Invalid header-data delimiter");
+        }
+        offset += HEADER_DATA_DELIMITER.length;
+
+        // Данные
+        CompressionCodec codec;
+        try {
+            codec = CompressionCodec.fromId(flags >>> CODEC_SHIFT);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Invalid data block flags: " + flags, e);
+        }
+        byte[] data = new byte[header.dataSize];
+        block.get(offset, data);
+        return new StoredValue(data, codec);
+    }
+
+    // Кодирует блок целиком в один буфер, чтобы записать его одной операцией
+    // value - значение в представлении кодека codec
+    byte[] encodeDataBlock(byte[] key, byte[] value, CompressionCodec codec, long expiryTime,
+                                   float[] dataVector) {
+        ByteBuffer buffer = ByteBuffer.allocate(calculateTotalBlockSize(key.length, value.length, dataVector));
+        putBlockPrefix(buffer, key, value, codec, expiryTime);
+
+        // Вектор данных (если есть)
+        if (dataVector != null) {
+            buffer.put(DATA_VECTOR_DELIMITER);
+            buffer.putInt(dataVector.length);
+            for (float f : dataVector) {
+                buffer.putFloat(f);
+            }
+        }
+
+        // Конец записи
+        buffer.put(RECORD_END_DELIMITER);
+        return buffer.array();
+    }
+
+    // Начало блока: дублированный заголовок, разделитель и данные
+    private void putBlockPrefix(ByteBuffer buffer, byte[] key, byte[] value, CompressionCodec codec, long expiryTime) {
+        // Дублированный заголовок
+        buffer.put((byte) (ACTIVE_FLAG | codec.getId() << CODEC_SHIFT));
+        buffer.putLong(expiryTime);
+        buffer.putInt(key.length);
+        buffer.put(key);
+
+        // Разделитель заголовок-данные
+        buffer.put(HEADER_DATA_DELIMITER);
+
+        // Данные
+        buffer.put(value);
+    }
+
+    private int calculateTotalBlockSize(int keyLength, int dataLength, float[] dataVector) {
+        int size = 0;
+
+        // Дублированный заголовок
+        size += 1 + 8 + 4 + keyLength;
+
+        // Разделители
+        size += HEADER_DATA_DELIMITER.length;
+        size += RECORD_END_DELIMITER.length;
+
+        // Данные
+        size += dataLength;
+
+        // Вектор данных (если есть)
+        if (dataVector != null) {
+            size += DATA_VECTOR_DELIMITER.length + 4 + dataVector.length * 4;
+        }
+
+        return size;
+    }
+
+    // Размер блока из заголовка; для записей старого формата вычисляется по размеру данных
+    // (вектор данных в старом формате не учитывался)
+    private int blockSizeOf(HeaderRecord header) {
+        return header.blockSize > 0
+                ? header.blockSize
+                : calculateTotalBlockSize(header.name.length, header.dataSize, null);
+    }
+
+    // Место под блок: свободный блок подходящего размера или конец активного сегмента
+    private long allocateBlock(int size) throws IOException {
+        long address = freeSpaceManager.findFreeSpace(size);
+        return address != -1 ? address : segments.allocate(size);
+    }
+
+    // Место в уплотняемом сегменте не переиспользуется - сегмент будет удален целиком
+    private void releaseBlock(long address, int size) {
+        if (!segments.isEvacuating(address)) {
+            freeSpaceManager.addFreeBlock(address, size);
+        }
+    }
+
+    private void cacheValue(byte[] key, byte[] value, HeaderRecord header) {
+        cacheValue(key, value, value, CompressionCodec.NONE, header);
+    }
+
+    // В кэше в куче значение хранится так же, как в блоке (сжатым); кэш вне кучи
+    // отдает буферы без копирования и хранит исходное значение
+    private void cacheValue(byte[] key, byte[] value, byte[] stored, CompressionCodec codec, HeaderRecord header) {
+        cache.put(key, stored, codec, header);
+        if (offHeapCache != null) {
+            offHeapCache.put(key, value);
+        }
+    }
+
+    private void invalidateCache(byte[] key) {
+        cache.remove(key);
+        if (offHeapCache != null) {
+            offHeapCache.remove(key);
+        }
+    }
+
+    private long estimateMemoryUsage(byte[] key, byte[] value, float[] nameVector, float[] dataVector) {
+        long usage = 0;
+
+        // Основные данные
+        if (key != null) usage += key.length;
+        if (value != null) usage += value.length;
+
+        // Векторы
+        if (nameVector != null) usage += nameVector.length * 4L;
+        if (dataVector != null) usage += dataVector.length * 4L;
+
+        // Накладные расходы (объекты, служебные структуры)
+        usage += 1024; // +1KB для служебных структур
+
+        return usage;
+    }
+
+    private CompletableFuture<Void> markDataBlockForDeletion(long address) throws IOException {
+        // Помечаем как неактивный
+        return commitWriter.submit(address, segments.channelOf(address), HeaderRecord.offsetOf(address), new byte[]{0});
+    }
+
+    private CompletableFuture<Void> updateDataBlock(GroupCommitWriter.PendingWrite pending, HeaderRecord header,
+                                                    byte[] newData, CompressionCodec codec) throws IOException {
+        // Перезаписываем заголовок (в нем кодек нового значения), разделитель и данные;
+        // векторы и разделитель конца остаются на месте
+        ByteBuffer prefix = ByteBuffer.allocate(1 + 8 + 4 + header.name.length
+                + HEADER_DATA_DELIMITER.length + newData.length);
+        putBlockPrefix(prefix, header.name, newData, codec, header.expiryTime);
+        return commitWriter.submit(pending, segments.channelOf(header.dataAddress),
+                HeaderRecord.offsetOf(header.dataAddress), prefix.array());
+    }
+
+    private void initializeFreeSpaceManager() throws IOException {
+        long dataEnd = segments.getEndAddress();
+
+        // Карта свободного пространства сохраняется при checkpoint индекса. Она соответствует
+        // индексу, только если после checkpoint в журнал ничего не писалось
+        if (headerIndex.getJournalRecords() == 0 && freeSpaceManager.load(freeSpaceMapFile, dataEnd)) {
+            System.out.println("Free space map loaded: " + freeSpaceManager.getFreeSpaceCount() +
+                    " blocks, " + freeSpaceManager.getTotalFreeSpace() + " bytes");
+            return;
+        }
+
+        // Иначе свободное пространство - промежутки между активными блоками из индекса
+        // в каждом сегменте (файлы данных не читаются)
+        freeSpaceManager.clear();
+        Map<Integer, List<HeaderRecord>> liveBlocksBySegment = new HashMap<>();
+        for (HeaderRecord header : headerIndex.getAllRecords()) {
+            if (header.isActive) {
+                liveBlocksBySegment.computeIfAbsent(header.getSegmentId(), id -> new ArrayList<>()).add(header);
+            }
+        }
+
+        for (SegmentManager.Segment segment : segments.getSegments()) {
+            List<HeaderRecord> liveBlocks = liveBlocksBySegment.getOrDefault(segment.getId(), new ArrayList<>());
+            liveBlocks.sort(Comparator.comparingLong(header -> header.dataAddress));
+
+            long position = segment.getBaseAddress();
+            boolean unknownEnd = false;
+            for (HeaderRecord header : liveBlocks) {
+                // У записей старого формата точный размер блока неизвестен (не учтен вектор данных),
+                // поэтому промежуток после такого блока свободным не считается
+                if (!unknownEnd) {
+                    addFreeRange(position, header.dataAddress);
+                }
+                long blockEnd = header.dataAddress + blockSizeOf(header);
+                if (blockEnd >= position) {
+                    position = blockEnd;
+                    unknownEnd = header.blockSize <= 0;
+                }
+            }
+            if (!unknownEnd) {
+                addFreeRange(position, segment.getEndAddress());
+            }
+        }
+
+        System.out.println("Free space map rebuilt from index: " + freeSpaceManager.getFreeSpaceCount() +
+                " blocks, " + freeSpaceManager.getTotalFreeSpace() + " bytes");
+    }
+
+    private void addFreeRange(long start, long end) {
+        // Свободный блок адресуется размером int - длинные промежутки делятся на части
+        while (end - start > 0) {
+            int size = (int) Math.min(end - start, Integer.MAX_VALUE);
+            freeSpaceManager.addFreeBlock(start, size);
+            start += size;
+        }
+    }
+
+    // Сохраняет карту свободного пространства вместе со снимком индекса. Блокировка хранилища
+    // исключает выделения и освобождения, поэтому карта согласована с журналом индекса.
+    // Если блокировку получить не удалось (например, хранилище закрывается), карта удаляется
+    // и при следующем запуске восстанавливается по индексу.
+    private void saveFreeSpaceMap() throws IOException {
+        boolean locked;
+        try {
+            locked = dataFileLock.writeLock().tryLock(FREE_MAP_LOCK_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            locked = false;
+        }
+        if (!locked) {
+            Files.deleteIfExists(freeSpaceMapFile.toPath());
+            return;
+        }
+        try {
+            freeSpaceManager.save(freeSpaceMapFile, segments.getEndAddress());
+        } finally {
+            dataFileLock.writeLock().unlock();
+        }
+    }
+
+    private void startBackgroundTasks() {
+        // Освобождение просроченных ключей по колесу таймеров
+        backgroundScheduler.scheduleWithFixedDelay(this::reclaimExpired, 1, 1, TimeUnit.SECONDS);
+
+        // Дефрагментатор
+        backgroundScheduler.scheduleAtFixedRate(this::runDefragmentation, 6, 6, TimeUnit.HOURS);
+
+        // Мониторинг памяти
+        backgroundScheduler.scheduleAtFixedRate(this::logMemoryStats, 5, 5, TimeUnit.MINUTES);
+
+        // Свертка журнала индекса в снимок
+        backgroundScheduler.scheduleAtFixedRate(this::checkpointIndex, 1, 1, TimeUnit.MINUTES);
+    }
+
+    // Фоновая обработка
+
+    // Сборка мусора: освобождаются все ключи, срок которых истек. Полный обход индекса
+    // не нужен - просроченные ключи выдает колесо таймеров
+    @Override
+    public void runGarbageCollector() {
+        int removedCount = reclaimExpired(true);
+        if (removedCount > 0) {
+            System.out.println("Garbage collector removed " + removedCount + " expired records (" +
+                    gcStats + ")");
+        }
+    }
+
+    private void reclaimExpired() {
+        reclaimExpired(false);
+    }
+
+    // Забирает из колеса таймеров сработавшие ключи порциями по expiryBatchSize и освобождает их.
+    // Блокировки берутся только на время порции, поэтому пауза для записи ограничена размером
+    // порции, а не числом просроченных ключей. При report долгий проход печатает прогресс
+    private int reclaimExpired(boolean report) {
+        long startNanos = System.nanoTime();
+        long lastReportNanos = startNanos;
+        int removedCount = 0;
+        int sliceCount = 0;
+        try {
+            List<byte[]> keys;
+            do {
+                keys = expiryWheel.pollExpired(System.currentTimeMillis() / 1000, config.getExpiryBatchSize());
+                if (keys.isEmpty()) {
+                    break;
+                }
+                removedCount += reclaimSlice(keys);
+                sliceCount++;
+
+                long now = System.nanoTime();
+                if (report && now - lastReportNanos >= TimeUnit.SECONDS.toNanos(GC_PROGRESS_INTERVAL_SECONDS)) {
+                    System.out.printf("Garbage collector progress: %d records removed in %d slices, %d keys pending%n",
+                            removedCount, sliceCount, expiryWheel.size());
+                    lastReportNanos = now;
+                }
+            } while (keys.size() == config.getExpiryBatchSize());
+        } catch (IOException | DataManagerException e) {
+            System.err.println("Error during expired records cleanup: " + e.getMessage());
+        }
+        if (sliceCount > 0) {
+            gcStats.recordRun(removedCount, System.nanoTime() - startNanos);
+        }
+        return removedCount;
+    }
+
+    // Порция: ключи блокируются все сразу (полосы - по возрастанию номера), проверяются,
+    // удаляются из индекса одной записью в журнал, затем освобождаются их блоки.
+    // Просроченная активная запись удаляется вместе с блоком, удаленная - убирается из индекса
+    private int reclaimSlice(List<byte[]> keys) throws IOException {
+        List<ReentrantLock> locks = lockKeys(keys);
+        long lockedNanos = System.nanoTime();
+        List<byte[]> removed = new ArrayList<>(keys.size());
+        long freedBytes = 0;
+        try {
+            List<HeaderRecord> released = new ArrayList<>();
+            for (byte[] key : keys) {
+                HeaderRecord header = headerIndex.get(key);
+                if (header == null || header.expiryTime == -1) {
+                    continue;
+                }
+                if (!isExpired(header.expiryTime)) {
+                    // Ключ перезаписан с новым сроком после выборки из колеса
+                    expiryWheel.schedule(key, header.expiryTime);
+                    continue;
+                }
+                removed.add(key);
+                if (header.isActive) {
+                    released.add(header);
+                }
+            }
+
+            headerIndex.removeAll(removed);
+            for (HeaderRecord header : released) {
+                invalidateCache(header.name);
+                markDataBlockForDeletion(header.dataAddress);
+                int blockSize = blockSizeOf(header);
+                releaseBlock(header.dataAddress, blockSize);
+                freedBytes += blockSize;
+            }
+            return removed.size();
+        } finally {
+            unlockKeys(locks);
+            gcStats.recordSlice(keys.size(), removed.size(), freedBytes, System.nanoTime() - lockedNanos);
+        }
+    }
+
+    // Уплотняются запечатанные сегменты, в которых доля свободного места превышает порог
+    private void runDefragmentation() {
+        if (!compactionRunning.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            int evacuated = 0;
+            for (SegmentManager.Segment segment : segments.getSealedSegments()) {
+                long size = segment.getSize();
+                if (size > 0 && (double) freeBytesOf(segment) / size >= config.getCompactionMinFreeRatio()) {
+                    evacuateSegment(segment);
+                    evacuated++;
+                }
+            }
+            System.out.println("Defragmentation cycle completed - segments compacted: " + evacuated +
+                    ", free blocks: " + freeSpaceManager.getFreeSpaceCount() +
+                    ", total free space: " + freeSpaceManager.getTotalFreeSpace() + " bytes");
+        } catch (IOException | DataManagerException e) {
+            System.err.println("Error during defragmentation: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            compactionRunning.set(false);
+        }
+    }
+
+    private void checkpointIndex() {
+        try {
+            headerIndex.checkpointIfNeeded();
+        } catch (IOException e) {
+            System.err.println("Error during index checkpoint: " + e.getMessage());
+        }
+    }
+
+    private void logMemoryStats() {
+        double usageRatio = memoryManager.getMemoryUsageRatio();
+        if (usageRatio > 0.8) {
+            System.out.printf("Memory warning: %.1f%% used (%d/%d bytes)%n",
+                    usageRatio * 100, memoryManager.getUsedMemory(), memoryManager.getMaxMemory());
+        }
+    }
+
+    // Дополнительные методы
+
+    @Override
+    public void setCacheTTL(int seconds) {
+        cache.setCacheTTL(seconds);
+    }
+
+    @Override
+    public int getIndexSize() {
+        return headerIndex.size();
+    }
+
+    @Override
+    public long getDataFileSize() throws IOException {
+        dataFileLock.readLock().lock();
+        try {
+            return segments.getTotalSize();
+        } finally {
+            dataFileLock.readLock().unlock();
+        }
+    }
+
+    public FreeSpaceManager getFreeSpaceManager() {
+        return freeSpaceManager;
+    }
+
+    // Принудительно записывает все ожидающие блоки и сбрасывает их на диск
+    @Override
+    public void flush() {
+        commitWriter.flush();
+    }
+
+    @Override
+    public BinaryDataManager.SystemStats getSystemStats() throws IOException {
+        dataFileLock.readLock().lock();
+        try {
+            return new BinaryDataManager.SystemStats(
+                    headerIndex.size(),
+                    getDataFileSize(),
+                    freeSpaceManager.getFreeSpaceCount(),
+                    freeSpaceManager.getTotalFreeSpace(),
+                    memoryManager.getUsedMemory(),
+                    memoryManager.getMaxMemory(),
+                    memoryManager.getMemoryUsageRatio(),
+                    cache.getSize(),
+                    cache.getWeightedSize(),
+                    cache.getHitCount(),
+                    cache.getMissCount(),
+                    cache.getEvictionCount(),
+                    freeSpaceManager.getLargestFreeBlock(),
+                    freeSpaceManager.getFragmentation(),
+                    freeSpaceManager.getAverageAllocationNanos(),
+                    freeSpaceManager.getMaxAllocationNanos(),
+                    segments.getSegmentCount()
+            );
+        } finally {
+            dataFileLock.readLock().unlock();
+        }
+    }
+
+    // Уплотнение: сборка мусора, затем активный сегмент с освобожденным местом запечатывается,
+    // и из каждого запечатанного сегмента со свободным местом живые блоки переносятся
+    // в другие сегменты, после чего сегмент удаляется целиком
+    @Override
+    public void compact() throws IOException {
+        if (!compactionRunning.compareAndSet(false, true)) {
+            System.out.println("Compaction is already running");
+            return;
+        }
+        try {
+            System.out.println("Compaction started...");
+            runGarbageCollector();
+
+            long sizeBefore = getDataFileSize();
+            SegmentManager.Segment active = segments.getActive();
+            if (active.getSize() > 0 && freeBytesOf(active) > 0) {
+                segments.roll();
+            }
+
+            int evacuated = 0;
+            for (SegmentManager.Segment segment : segments.getSealedSegments()) {
+                if (segment.getSize() > 0 && freeBytesOf(segment) > 0) {
+                    evacuateSegment(segment);
+                    evacuated++;
+                }
+            }
+            System.out.println("Compaction completed: " + evacuated + " segments compacted, data files " +
+                    sizeBefore + " -> " + getDataFileSize() + " bytes");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DataManagerException("Compaction interrupted", e);
+        } finally {
+            compactionRunning.set(false);
+        }
+    }
+
+    private long freeBytesOf(SegmentManager.Segment segment) {
+        return freeSpaceManager.freeBytesInRange(segment.getBaseAddress(), segment.getEndAddress());
+    }
+
+    // Перенос живых блоков из запечатанного сегмента и его удаление. Блоки переносятся
+    // без общей блокировки (по одному ключу) с ограничением скорости; эксклюзивная блокировка
+    // берется только на перенос блоков, измененных во время уплотнения, и на удаление сегмента.
+    private void evacuateSegment(SegmentManager.Segment segment) throws IOException, InterruptedException {
+        long start = segment.getBaseAddress();
+        long end = segment.getEndAddress();
+
+        // 1. Новые блоки в сегменте больше не размещаются
+        dataFileLock.writeLock().lock();
+        try {
+            segments.markEvacuating(segment);
+            freeSpaceManager.removeRange(start, end);
+        } finally {
+            dataFileLock.writeLock().unlock();
+        }
+
+        // Снимок активных записей сегмента в порядке адресов - сегмент читается последовательно.
+        // После шага 1 блоки в сегменте не появляются (записи выделяют место под блокировкой чтения
+        // хранилища), поэтому все блоки, которые могут в нем остаться, принадлежат ключам снимка
+        List<HeaderRecord> liveBlocks = new ArrayList<>();
+        for (HeaderRecord header : headerIndex.getAllRecords()) {
+            if (header.isActive && header.dataAddress >= start && header.dataAddress < end) {
+                liveBlocks.add(header);
+            }
+        }
+        liveBlocks.sort(Comparator.comparingLong(header -> header.dataAddress));
+
+        // 2. Перенос под блокировкой ключа; измененные после снимка ключи переносятся на шаге 3
+        IoRateLimiter rateLimiter = new IoRateLimiter(config.getCompactionBytesPerSecond());
+        int moved = 0;
+        for (HeaderRecord snapshot : liveBlocks) {
+            int blockSize = 0;
+            lockKey(snapshot.name);
+            try {
+                if (headerIndex.isCurrent(snapshot.name, snapshot)) {
+                    blockSize = relocateBlock(snapshot);
+                    moved++;
+                }
+            } finally {
+                unlockKey(snapshot.name);
+            }
+            rateLimiter.acquire(blockSize);
+        }
+
+        // 3. Оставшиеся блоки и удаление сегмента под эксклюзивной блокировкой: перепроверяются
+        // только ключи снимка (измененные во время шага 2), а не весь индекс
+        dataFileLock.writeLock().lock();
+        try {
+            int caughtUp = 0;
+            for (HeaderRecord snapshot : liveBlocks) {
+                HeaderRecord current = headerIndex.get(snapshot.name);
+                if (current != null && current.isActive && current.dataAddress >= start && current.dataAddress < end) {
+                    relocateBlock(current);
+                    caughtUp++;
+                }
+            }
+
+            // Новые адреса должны быть на диске до удаления старых блоков
+            commitWriter.flush();
+            headerIndex.sync();
+            segments.delete(segment);
+
+            // Сохраненная карта свободного места могла ссылаться на удаленный сегмент
+            Files.deleteIfExists(freeSpaceMapFile.toPath());
+
+            System.out.println("Segment " + segment.getId() + " compacted: " + (moved + caughtUp) +
+                    " blocks moved (" + caughtUp + " after concurrent updates), " +
+                    (end - start) + " bytes released");
+        } finally {
+            dataFileLock.writeLock().unlock();
+        }
+    }
+
+    // Копирует блок целиком на новое место и переписывает адрес в индексе
+    // (вызывается под блокировкой ключа или хранилища). Возвращает размер блока.
+    private int relocateBlock(HeaderRecord header) throws IOException {
+        commitWriter.awaitWritten(header.dataAddress);
+        int blockSize = blockSizeOf(header);
+        ByteBuffer block = ByteBuffer.allocate(blockSize);
+        segments.readFully(block, header.dataAddress);
+
+        long newAddress = allocateBlock(blockSize);
+        HeaderRecord moved = new HeaderRecord(true, header.expiryTime, header.name,
+                newAddress, header.dataSize, header.nameVector, blockSize);
+        moved.timestamp = header.timestamp;
+        GroupCommitWriter.PendingWrite pending = commitWriter.reserve(newAddress);
+        try {
+            headerIndex.put(header.name, moved);
+        } catch (IOException e) {
+            commitWriter.cancel(pending);
+            throw e;
+        }
+        commitWriter.submit(pending, segments.channelOf(newAddress), HeaderRecord.offsetOf(newAddress), block.array());
+        return blockSize;
+    }
+
+    // Пакетная загрузка: блоки пишутся в отдельные сегменты, индекс устанавливается в finish()
+    public BulkLoader bulkLoader() {
+        return new BulkLoader(this, segments, config);
+    }
+
+    // Установка заголовков пакетной загрузки одним проходом под эксклюзивной блокировкой:
+    // старые блоки ключей и повторно загруженные блоки освобождаются, индекс и карта
+    // свободного места сохраняются снимком
+    void installBulk(Collection<HeaderRecord> loaded, Collection<HeaderRecord> replaced) throws IOException {
+        dataFileLock.writeLock().lock();
+        try {
+            // Блоки, записанные групповой записью, должны быть на диске до снимка индекса
+            commitWriter.flush();
+
+            for (HeaderRecord header : loaded) {
+                HeaderRecord existing = headerIndex.get(header.name);
+                if (existing != null && existing.isActive) {
+                    releaseBlock(existing.dataAddress, blockSizeOf(existing));
+                }
+                invalidateCache(header.name);
+            }
+            for (HeaderRecord header : replaced) {
+                releaseBlock(header.dataAddress, header.blockSize);
+            }
+
+            headerIndex.putAll(loaded);
+            for (HeaderRecord header : loaded) {
+                expiryWheel.schedule(header.name, header.expiryTime);
+            }
+        } finally {
+            dataFileLock.writeLock().unlock();
+        }
+    }
+
+    // Копия на один момент времени: записи по ключам берут блокировку чтения хранилища,
+    // поэтому на время копирования берется эксклюзивная блокировка
+    @Override
+    public void backup(String backupPath) throws IOException {
+        dataFileLock.writeLock().lock();
+        try {
+            System.out.println("Starting backup to: " + backupPath);
+            commitWriter.flush();
+
+            // Создаем директорию для бэкапа
+            File backupDir = new File(backupPath);
+            if (!backupDir.exists()) {
+                backupDir.mkdirs();
+            }
+
+            // Копируем сегменты файла данных
+            for (SegmentManager.Segment segment : segments.getSegments()) {
+                String backupName = segment.getId() == 0
+                        ? "data.bin.backup"
+                        : String.format("data.bin.backup.%06d", segment.getId());
+                copyFile(segment.getFile(), new File(backupPath, backupName));
+            }
+
+            // Копируем файл индекса: последние изменения индекса есть только в журнале,
+            // поэтому перед копированием он сворачивается в снимок
+            headerIndex.checkpoint(true);
+            File indexFileSrc = new File(indexFileName);
+            File indexFileDst = new File(backupPath, "index.idx.backup");
+            copyFile(indexFileSrc, indexFileDst);
+
+            // Словари сжатия нужны для чтения сжатых ими блоков
+            if (dictionaries != null) {
+                copyFile(dictionaries.getFile(), new File(backupPath, "index.idx.dict.backup"));
+            }
+
+            System.out.println("Backup completed successfully");
+        } finally {
+            dataFileLock.writeLock().unlock();
+        }
+    }
+
+    private void copyFile(File source, File destination) throws IOException {
+        try (FileInputStream fis = new FileInputStream(source);
+             FileOutputStream fos = new FileOutputStream(destination)) {
+            byte[] buffer = new byte[8192];
+            int bytesRead;
+            while ((bytesRead = fis.read(buffer)) != -1) {
+                fos.write(buffer, 0, bytesRead);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        System.out.println("Closing in-place storage engine...");
+
+        // Останавливаем фоновые задачи до блокировки хранилища - они сами берут блокировки
+        backgroundScheduler.shutdown();
+        try {
+            if (!backgroundScheduler.awaitTermination(10, TimeUnit.SECONDS)) {
+                backgroundScheduler.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            backgroundScheduler.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+
+        dataFileLock.writeLock().lock();
+        try {
+            // Закрываем кэш
+            cache.close();
+            if (offHeapCache != null) {
+                offHeapCache.close();
+            }
+
+            // Дописываем очередь групповой записи
+            commitWriter.close();
+
+            // Закрываем индекс
+            headerIndex.close();
+
+            // Закрываем сегменты файла данных
+            segments.close();
+
+            if (dictionaries != null) {
+                dictionaries.close();
+            }
+
+            System.out.println("In-place storage engine closed successfully");
+
+        } catch (IOException e) {
+            throw new DataManagerException("Error closing in-place storage engine", e);
+        } finally {
+            dataFileLock.writeLock().unlock();
+        }
+    }
+
+    public OffHeapCache getOffHeapCache() {
+        return offHeapCache;
+    }
+
+    public ValueCompressor getCompressor() {
+        return compressor;
+    }
+
+    public ExpiryWheel getExpiryWheel() {
+        return expiryWheel;
+    }
+
+    public HeaderIndex getHeaderIndex() {
+        return headerIndex;
+    }
+
+    public GarbageCollectorStats getGarbageCollectorStats() {
+        return gcStats;
+    }
+
+    public DataCache getCache() {
+        return cache;
+    }
+
+    public SegmentManager getSegmentManager() {
+        return segments;
+    }
+}
@@ -0,0 +1,6 @@
+package ru.miacomsoft.core;
+
+public enum IndexStorage {
+    HEAP,       // ConcurrentHashMap с объектами HeaderRecord в куче
+    OFF_HEAP    // Хэш-таблица с компактными записями заголовков в direct-памяти
+}
@@ -0,0 +1,40 @@
+package ru.miacomsoft.core;
+
+import java.util.concurrent.TimeUnit;
+
+// Ограничение скорости фонового ввода-вывода (байт в секунду). Вызывающий поток
+// засыпает ровно настолько, чтобы средняя скорость не превышала лимит.
+public class IoRateLimiter {
+    private final long bytesPerSecond;
+    private long nextAvailableNanos;
+
+    // Допустимый запас: короткие всплески до 100 мс не приводят к задержке
+    private static final long MAX_BURST_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    public IoRateLimiter(long bytesPerSecond) {
+        if (bytesPerSecond < 0) {
+            throw new IllegalArgumentException("Rate limit cannot be negative");
+        }
+        this.bytesPerSecond = bytesPerSecond;
+        this.nextAvailableNanos = System.nanoTime();
+    }
+
+    // 0 - без ограничения
+    public boolean isUnlimited() {
+        return bytesPerSecond == 0;
+    }
+
+    public void acquire(long bytes) throws InterruptedException {
+        if (isUnlimited() || bytes <= 0) {
+            return;
+        }
+        long now = System.nanoTime();
+        long cost = bytes * 1_000_000_000L / bytesPerSecond;
+        nextAvailableNanos = Math.max(nextAvailableNanos, now - MAX_BURST_NANOS) + cost;
+
+        long waitNanos = nextAvailableNanos - now;
+        if (waitNanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+    }
+}
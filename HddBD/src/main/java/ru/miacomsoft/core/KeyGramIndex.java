@@ -0,0 +1,279 @@
+package ru.miacomsoft.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+// Индекс триграмм ключей для поиска по маске: для каждой триграммы (трех подряд идущих байт
+// ключа) - отсортированный список номеров ключей, в которых она встречается. Кандидаты на
+// совпадение с маской - пересечение списков триграмм ее литеральных участков (без '?' и '*').
+// Номера выдаются по возрастанию и не переиспользуются, поэтому списки пополняются только
+// в конец. Номера удаленных ключей остаются в списках и пропускаются при выдаче; когда
+// их становится больше половины, индекс перестраивается
+final class KeyGramIndex {
+    private static final int GRAM_LENGTH = 3;
+    private static final int MIN_REBUILD_GARBAGE = 4096;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // Ключи по номеру, null - ключ удален
+    private byte[][] keys;
+    private int nextId;
+    private int removed;
+    // Открытая адресация ключ -> номер + 1 (0 - свободная ячейка); ячейки удаленных
+    // ключей остаются занятыми до перестроения таблицы
+    private int[] slots;
+    private Map<Integer, Posting> postings;
+
+    // Отсортированный по возрастанию список номеров ключей
+    private static final class Posting {
+        int[] ids;
+        int size;
+
+        Posting() {
+            this(new int[4], 0);
+        }
+
+        private Posting(int[] ids, int size) {
+            this.ids = ids;
+            this.size = size;
+        }
+
+        // Списки только пополняются в конец (новый массив - копия), поэтому первые size
+        // номеров массива больше не меняются
+        Posting snapshot() {
+            return new Posting(ids, size);
+        }
+
+        void add(int id) {
+            if (size > 0 && ids[size - 1] == id) return; // триграмма повторяется в ключе
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+            }
+            ids[size++] = id;
+        }
+    }
+
+    KeyGramIndex() {
+        reset(1024);
+    }
+
+    private void reset(int capacity) {
+        keys = new byte[capacity][];
+        nextId = 0;
+        removed = 0;
+        slots = new int[Integer.highestOneBit(Math.max(capacity, 8) * 2 - 1) * 2];
+        postings = new HashMap<>();
+    }
+
+    void add(byte[] key) {
+        lock.writeLock().lock();
+        try {
+            if (findId(key) >= 0) return;
+            if (nextId == keys.length) {
+                keys = Arrays.copyOf(keys, keys.length * 2);
+            }
+            if ((nextId + 1) * 2 > slots.length) {
+                rehash(slots.length * 2);
+            }
+            int id = nextId++;
+            keys[id] = key;
+            insertSlot(key, id);
+            for (int i = 0; i + GRAM_LENGTH <= key.length; i++) {
+                postings.computeIfAbsent(gram(key, i), g -> new Posting()).add(id);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    void remove(byte[] key) {
+        lock.writeLock().lock();
+        try {
+            int id = findId(key);
+            if (id < 0) return;
+            keys[id] = null;
+            removed++;
+            if (removed > MIN_REBUILD_GARBAGE && removed * 2 > nextId) {
+                rebuild();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    int size() {
+        lock.readLock().lock();
+        try {
+            return nextId - removed;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Ключи, подходящие под маску, в порядке добавления; пересечение списков перебирается
+    // по мере чтения. Списки и массив ключей фиксируются при вызове: ключи, добавленные позже,
+    // не выдаются, удаленные позже могут быть выданы. null - в маске нет ни одной триграммы
+    // и индекс не сужает поиск
+    Iterator<byte[]> candidates(byte[] mask) {
+        List<Integer> grams = maskGrams(mask);
+        if (grams.isEmpty()) return null;
+
+        Posting[] lists = new Posting[grams.size()];
+        byte[][] snapshot;
+        lock.readLock().lock();
+        try {
+            for (int i = 0; i < lists.length; i++) {
+                Posting posting = postings.get(grams.get(i));
+                if (posting == null) return Collections.emptyIterator();
+                lists[i] = posting.snapshot();
+            }
+            snapshot = keys;
+        } finally {
+            lock.readLock().unlock();
+        }
+        Arrays.sort(lists, Comparator.comparingInt(p -> p.size));
+        return new Intersection(lists, snapshot, mask);
+    }
+
+    // Идет по самому короткому списку, в остальных ищет номер двоичным поиском,
+    // начиная с позиции предыдущей находки
+    private static final class Intersection implements Iterator<byte[]> {
+        private final Posting[] lists;
+        private final int[] positions;
+        private final byte[][] keys;
+        private final byte[] mask;
+        private int index;
+        private byte[] next;
+
+        Intersection(Posting[] lists, byte[][] keys, byte[] mask) {
+            this.lists = lists;
+            this.positions = new int[lists.length];
+            this.keys = keys;
+            this.mask = mask;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (next == null) {
+                next = advance();
+            }
+            return next != null;
+        }
+
+        @Override
+        public byte[] next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            byte[] key = next;
+            next = null;
+            return key;
+        }
+
+        private byte[] advance() {
+            Posting shortest = lists[0];
+            outer:
+            while (index < shortest.size) {
+                int id = shortest.ids[index++];
+                for (int j = 1; j < lists.length; j++) {
+                    int found = Arrays.binarySearch(lists[j].ids, positions[j], lists[j].size, id);
+                    if (found < 0) {
+                        positions[j] = -found - 1;
+                        if (positions[j] == lists[j].size) {
+                            index = shortest.size;
+                            return null;
+                        }
+                        continue outer;
+                    }
+                    positions[j] = found + 1;
+                }
+                byte[] key = keys[id];
+                if (key != null && SearchQuery.matchesMask(key, mask)) {
+                    return key;
+                }
+            }
+            return null;
+        }
+    }
+
+    // Различные триграммы литеральных участков маски
+    private static List<Integer> maskGrams(byte[] mask) {
+        List<Integer> grams = new ArrayList<>();
+        int run = 0;
+        for (int i = 0; i < mask.length; i++) {
+            if (SearchQuery.isWildcard(mask[i])) {
+                run = 0;
+                continue;
+            }
+            if (++run >= GRAM_LENGTH) {
+                int gram = gram(mask, i - GRAM_LENGTH + 1);
+                if (!grams.contains(gram)) {
+                    grams.add(gram);
+                }
+            }
+        }
+        return grams;
+    }
+
+    private static int gram(byte[] data, int offset) {
+        return (data[offset] & 0xFF) << 16 | (data[offset + 1] & 0xFF) << 8 | (data[offset + 2] & 0xFF);
+    }
+
+    // Заново нумерует живые ключи и строит списки без удаленных номеров
+    private void rebuild() {
+        byte[][] live = new byte[nextId - removed][];
+        int count = 0;
+        for (int id = 0; id < nextId; id++) {
+            if (keys[id] != null) {
+                live[count++] = keys[id];
+            }
+        }
+        reset(Math.max(1024, count * 2));
+        for (byte[] key : live) {
+            int id = nextId++;
+            keys[id] = key;
+            insertSlot(key, id);
+            for (int i = 0; i + GRAM_LENGTH <= key.length; i++) {
+                postings.computeIfAbsent(gram(key, i), g -> new Posting()).add(id);
+            }
+        }
+    }
+
+    private int findId(byte[] key) {
+        int mask = slots.length - 1;
+        for (int slot = Arrays.hashCode(key) & mask; slots[slot] != 0; slot = (slot + 1) & mask) {
+            int id = slots[slot] - 1;
+            if (keys[id] != null && Arrays.equals(keys[id], key)) {
+                return id;
+            }
+        }
+        return -1;
+    }
+
+    private void insertSlot(byte[] key, int id) {
+        int mask = slots.length - 1;
+        int slot = Arrays.hashCode(key) & mask;
+        while (slots[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        slots[slot] = id + 1;
+    }
+
+    // Перестраивает таблицу ключей без ячеек удаленных ключей
+    private void rehash(int capacity) {
+        slots = new int[capacity];
+        for (int id = 0; id < nextId; id++) {
+            if (keys[id] != null) {
+                insertSlot(keys[id], id);
+            }
+        }
+    }
+}
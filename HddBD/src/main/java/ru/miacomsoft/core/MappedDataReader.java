@@ -0,0 +1,113 @@
+package ru.miacomsoft.core;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+public class MappedDataReader implements AutoCloseable {
+    private final FileChannel channel;
+    private final int regionSize;
+    private final Object remapLock = new Object();
+
+    // Массив заменяется целиком при переотображении, поэтому читатели работают без блокировок
+    private volatile MappedByteBuffer[] regions;
+
+    // Статистика
+    private volatile long remapCount;
+
+    public MappedDataReader(FileChannel channel, int regionSize) throws IOException {
+        if (regionSize <= 0) {
+            throw new IllegalArgumentException("Region size must be positive");
+        }
+        this.channel = channel;
+        this.regionSize = regionSize;
+        this.regions = new MappedByteBuffer[0];
+        remap(channel.size());
+    }
+
+    // Возвращает read-only представление участка файла [position, position + length)
+    // или null, если участок пересекает границу регионов или выходит за конец файла
+    public ByteBuffer view(long position, int length) throws IOException {
+        int regionIndex = (int) (position / regionSize);
+        int offset = (int) (position % regionSize);
+        if (offset + (long) length > regionSize) {
+            return null;
+        }
+
+        MappedByteBuffer region = regionAt(regionIndex);
+        if (region == null || offset + length > region.capacity()) {
+            // Файл вырос после последнего отображения
+            remap(position + length);
+            region = regionAt(regionIndex);
+            if (region == null || offset + length > region.capacity()) {
+                return null;
+            }
+        }
+        return region.slice(offset, length);
+    }
+
+    private MappedByteBuffer regionAt(int index) {
+        MappedByteBuffer[] current = regions;
+        return index < current.length ? current[index] : null;
+    }
+
+    private void remap(long requiredEnd) throws IOException {
+        synchronized (remapLock) {
+            long fileSize = channel.size();
+            if (fileSize < requiredEnd) {
+                return;
+            }
+
+            MappedByteBuffer[] current = regions;
+            int regionCount = (int) ((fileSize + regionSize - 1) / regionSize);
+            if (regionCount == current.length && current.length > 0
+                    && current[current.length - 1].capacity() >= lastRegionSize(fileSize, regionCount)) {
+                return;
+            }
+
+            MappedByteBuffer[] updated = new MappedByteBuffer[regionCount];
+            for (int i = 0; i < regionCount; i++) {
+                long regionStart = (long) i * regionSize;
+                long mappedLength = Math.min(regionSize, fileSize - regionStart);
+                if (i < current.length && current[i].capacity() == mappedLength) {
+                    updated[i] = current[i]; // Полные регионы не переотображаются
+                } else {
+                    updated[i] = channel.map(FileChannel.MapMode.READ_ONLY, regionStart, mappedLength);
+                }
+            }
+            regions = updated;
+            remapCount++;
+        }
+    }
+
+    private long lastRegionSize(long fileSize, int regionCount) {
+        return fileSize - (long) (regionCount - 1) * regionSize;
+    }
+
+    // Сбрасывает отображения (например, после замены файла данных)
+    public void reset() throws IOException {
+        synchronized (remapLock) {
+            regions = new MappedByteBuffer[0];
+        }
+        remap(channel.size());
+    }
+
+    public long getMappedBytes() {
+        long total = 0;
+        for (MappedByteBuffer region : regions) {
+            total += region.capacity();
+        }
+        return total;
+    }
+
+    public long getRemapCount() {
+        return remapCount;
+    }
+
+    @Override
+    public void close() {
+        // Отображения освобождаются сборщиком мусора
+        regions = new MappedByteBuffer[0];
+    }
+}
@@ -0,0 +1,420 @@
+package ru.miacomsoft.core;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.StampedLock;
+
+// Кэш значений вне кучи: значения хранятся в страницах direct ByteBuffer (slab-аллокатор).
+// Страница закрепляется за классом размера и делится на ячейки одного размера;
+// при нехватке страниц ячейка освобождается вытеснением внутри своего класса (алгоритм CLOCK).
+// Класс без страниц, а также класс, вытеснивший столько значений, сколько в нем помещается
+// (распределение размеров значений сместилось), забирает у других классов целую страницу,
+// к которой давно не обращались (CLOCK по страницам всех классов).
+// Память страниц учитывается в MemoryManager.
+public class OffHeapCache implements AutoCloseable {
+    private static final int MIN_CHUNK_SIZE = 64;
+    private static final double GROWTH_FACTOR = 1.25;
+
+    private final Map<CacheKey, Entry> entries = new ConcurrentHashMap<>();
+    private final StampedLock lock = new StampedLock();
+    private final MemoryManager memoryManager;
+    private final long capacityBytes;
+    private final int pageSize;
+    private final SizeClass[] sizeClasses;
+    private long allocatedBytes;
+    private boolean closed;
+    // Стрелка CLOCK по страницам всех классов: класс и страница в нем
+    private int pageHandClass;
+    private int pageHandPage;
+
+    // Статистика
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+    private final LongAdder evictionCount = new LongAdder();
+
+    private static class Entry {
+        final CacheKey key;
+        final SizeClass sizeClass;
+        int chunk; // меняется, если страницу перенесли на место отобранной у класса
+        final ByteBuffer page;
+        final int offset;
+        final int length;
+        volatile boolean referenced;
+
+        Entry(CacheKey key, SizeClass sizeClass, int chunk, ByteBuffer page, int offset, int length) {
+            this.key = key;
+            this.sizeClass = sizeClass;
+            this.chunk = chunk;
+            this.page = page;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    // Класс размера: страницы, владельцы ячеек и стек свободных ячеек (защищены lock)
+    private static class SizeClass {
+        final int chunkSize;
+        final int chunksPerPage;
+        final List<ByteBuffer> pages = new ArrayList<>();
+        // Признак обращения к странице (пишется без блокировки при чтении значений)
+        volatile boolean[] pageReferenced = new boolean[0];
+        Entry[] owners = new Entry[0];
+        int[] freeChunks = new int[0];
+        int freeCount;
+        int clockHand;
+        int evictedSinceReclaim;
+
+        SizeClass(int chunkSize, int pageSize) {
+            this.chunkSize = chunkSize;
+            this.chunksPerPage = pageSize / chunkSize;
+        }
+
+        void addPage(ByteBuffer page) {
+            int first = pages.size() * chunksPerPage;
+            pages.add(page);
+            if (pageReferenced.length < pages.size()) {
+                pageReferenced = Arrays.copyOf(pageReferenced, Math.max(4, pages.size() * 2));
+            }
+            pageReferenced[pages.size() - 1] = true;
+            int total = first + chunksPerPage;
+            owners = Arrays.copyOf(owners, total);
+            if (freeChunks.length < total) {
+                freeChunks = Arrays.copyOf(freeChunks, total);
+            }
+            // Ячейки новой страницы выдаются по возрастанию адреса
+            for (int chunk = total - 1; chunk >= first; chunk--) {
+                freeChunks[freeCount++] = chunk;
+            }
+        }
+
+        // Отдает страницу page другому классу: значения на ней удаляются (removed - их ключи),
+        // на ее место переносится последняя страница класса, номера ячеек которой меняются
+        ByteBuffer removePage(int page, List<Entry> removed) {
+            int first = page * chunksPerPage;
+            for (int chunk = first; chunk < first + chunksPerPage; chunk++) {
+                if (owners[chunk] != null) {
+                    removed.add(owners[chunk]);
+                    owners[chunk] = null;
+                }
+            }
+            ByteBuffer buffer = pages.get(page);
+            int last = pages.size() - 1;
+            if (page != last) {
+                pages.set(page, pages.get(last));
+                pageReferenced[page] = pageReferenced[last];
+                for (int i = 0; i < chunksPerPage; i++) {
+                    Entry owner = owners[last * chunksPerPage + i];
+                    owners[first + i] = owner;
+                    if (owner != null) {
+                        owner.chunk = first + i;
+                    }
+                }
+            }
+            pages.remove(last);
+            owners = Arrays.copyOf(owners, last * chunksPerPage);
+
+            // Свободные ячейки пересчитываются: ячейки ушедшей страницы больше не существуют
+            freeCount = 0;
+            for (int chunk = owners.length - 1; chunk >= 0; chunk--) {
+                if (owners[chunk] == null) {
+                    freeChunks[freeCount++] = chunk;
+                }
+            }
+            clockHand = owners.length > 0 ? clockHand % owners.length : 0;
+            return buffer;
+        }
+
+        void touch(int chunk) {
+            boolean[] referenced = pageReferenced;
+            int page = chunk / chunksPerPage;
+            if (page < referenced.length) {
+                referenced[page] = true;
+            }
+        }
+
+        ByteBuffer pageOf(int chunk) {
+            return pages.get(chunk / chunksPerPage);
+        }
+
+        int offsetOf(int chunk) {
+            return (chunk % chunksPerPage) * chunkSize;
+        }
+    }
+
+    public OffHeapCache(MemoryManager memoryManager, long capacityBytes, int pageSize) {
+        if (capacityBytes < pageSize) {
+            throw new IllegalArgumentException("Off-heap cache capacity must be at least one page");
+        }
+        if (pageSize < MIN_CHUNK_SIZE) {
+            throw new IllegalArgumentException("Off-heap page size is too small: " + pageSize);
+        }
+        this.memoryManager = memoryManager;
+        this.capacityBytes = capacityBytes;
+        this.pageSize = pageSize;
+
+        List<SizeClass> classes = new ArrayList<>();
+        int size = MIN_CHUNK_SIZE;
+        while (size < pageSize) {
+            classes.add(new SizeClass(size, pageSize));
+            size = Math.min(pageSize, (int) (size * GROWTH_FACTOR + 7) & ~7);
+        }
+        classes.add(new SizeClass(pageSize, pageSize));
+        this.sizeClasses = classes.toArray(new SizeClass[0]);
+    }
+
+    // Копирует значение в ячейку вне кучи. Значения больше страницы не кэшируются.
+    public boolean put(byte[] key, byte[] value) {
+        SizeClass sizeClass = classFor(value.length);
+        if (sizeClass == null) {
+            remove(key);
+            return false;
+        }
+
+        long stamp = lock.writeLock();
+        try {
+            if (closed) {
+                return false;
+            }
+            CacheKey cacheKey = new CacheKey(key.clone());
+            Entry previous = entries.get(cacheKey);
+            if (previous != null) {
+                release(previous);
+            }
+
+            int chunk = allocateChunk(sizeClass);
+            if (chunk < 0) {
+                return false;
+            }
+            ByteBuffer page = sizeClass.pageOf(chunk);
+            int offset = sizeClass.offsetOf(chunk);
+            page.put(offset, value);
+
+            Entry entry = new Entry(cacheKey, sizeClass, chunk, page, offset, value.length);
+            sizeClass.owners[chunk] = entry;
+            entries.put(cacheKey, entry);
+            return true;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    // Возвращает копию значения. Чтение идет без блокировки (оптимистично) и повторяется
+    // под блокировкой чтения, если ячейку успели переиспользовать.
+    public byte[] get(byte[] key) {
+        CacheKey cacheKey = new CacheKey(key);
+        long stamp = lock.tryOptimisticRead();
+        byte[] value = copyOf(entries.get(cacheKey));
+        if (!lock.validate(stamp)) {
+            stamp = lock.readLock();
+            try {
+                value = copyOf(entries.get(cacheKey));
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+        recordAccess(value != null);
+        return value;
+    }
+
+    // Возвращает read-only буфер с копией значения. Ячейки переиспользуются после удаления,
+    // замены или вытеснения значения, поэтому буфер поверх самой ячейки мог бы со временем
+    // показать чужие данные
+    public ByteBuffer getView(byte[] key) {
+        byte[] value = get(key);
+        return value != null ? ByteBuffer.wrap(value).asReadOnlyBuffer() : null;
+    }
+
+    public void remove(byte[] key) {
+        CacheKey cacheKey = new CacheKey(key);
+        if (!entries.containsKey(cacheKey)) {
+            return;
+        }
+        long stamp = lock.writeLock();
+        try {
+            Entry entry = entries.get(cacheKey);
+            if (entry != null) {
+                release(entry);
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    private byte[] copyOf(Entry entry) {
+        if (entry == null) {
+            return null;
+        }
+        byte[] value = new byte[entry.length];
+        entry.page.get(entry.offset, value);
+        entry.referenced = true;
+        entry.sizeClass.touch(entry.chunk);
+        return value;
+    }
+
+    private void recordAccess(boolean hit) {
+        if (hit) {
+            hitCount.increment();
+        } else {
+            missCount.increment();
+        }
+    }
+
+    private SizeClass classFor(int length) {
+        for (SizeClass sizeClass : sizeClasses) {
+            if (length <= sizeClass.chunkSize) {
+                return sizeClass;
+            }
+        }
+        return null;
+    }
+
+    // Вызываются под блокировкой записи
+
+    private int allocateChunk(SizeClass sizeClass) {
+        if (sizeClass.freeCount == 0 && !addPage(sizeClass)) {
+            boolean reclaim = sizeClass.evictedSinceReclaim >= sizeClass.owners.length;
+            if (reclaim && reclaimPage(sizeClass)) {
+                sizeClass.evictedSinceReclaim = 0;
+            } else if (!evictFrom(sizeClass)) {
+                return -1;
+            }
+        }
+        return sizeClass.freeChunks[--sizeClass.freeCount];
+    }
+
+    private boolean addPage(SizeClass sizeClass) {
+        if (allocatedBytes + pageSize > capacityBytes || !memoryManager.allocateMemory(pageSize)) {
+            return false;
+        }
+        sizeClass.addPage(ByteBuffer.allocateDirect(pageSize));
+        allocatedBytes += pageSize;
+        return true;
+    }
+
+    // CLOCK: значения с флагом обращения получают второй шанс
+    private boolean evictFrom(SizeClass sizeClass) {
+        int chunkCount = sizeClass.owners.length;
+        for (int step = 0; step < 2 * chunkCount; step++) {
+            int chunk = sizeClass.clockHand;
+            sizeClass.clockHand = (chunk + 1) % chunkCount;
+            Entry owner = sizeClass.owners[chunk];
+            if (owner == null) {
+                continue;
+            }
+            if (owner.referenced) {
+                owner.referenced = false;
+                continue;
+            }
+            release(owner);
+            evictionCount.increment();
+            sizeClass.evictedSinceReclaim++;
+            return true;
+        }
+        return false;
+    }
+
+    // Забирает для класса target страницу другого класса, к которой не было обращений с прошлого
+    // прохода стрелки (страницы с признаком обращения получают второй шанс)
+    private boolean reclaimPage(SizeClass target) {
+        int totalPages = 0;
+        for (SizeClass sizeClass : sizeClasses) {
+            if (sizeClass != target) {
+                totalPages += sizeClass.pages.size();
+            }
+        }
+        for (int step = 0; step < 2 * (totalPages + sizeClasses.length); step++) {
+            SizeClass sizeClass = sizeClasses[pageHandClass];
+            if (sizeClass == target || pageHandPage >= sizeClass.pages.size()) {
+                pageHandClass = (pageHandClass + 1) % sizeClasses.length;
+                pageHandPage = 0;
+                continue;
+            }
+            int page = pageHandPage++;
+            if (sizeClass.pageReferenced[page]) {
+                sizeClass.pageReferenced[page] = false;
+                continue;
+            }
+
+            List<Entry> removed = new ArrayList<>();
+            ByteBuffer buffer = sizeClass.removePage(page, removed);
+            for (Entry entry : removed) {
+                entries.remove(entry.key, entry);
+            }
+            evictionCount.add(removed.size());
+            // На место страницы перенесена последняя - стрелка проверит ее следующей
+            pageHandPage = page;
+            target.addPage(buffer);
+            return true;
+        }
+        return false;
+    }
+
+    private void release(Entry entry) {
+        entries.remove(entry.key, entry);
+        SizeClass sizeClass = entry.sizeClass;
+        sizeClass.owners[entry.chunk] = null;
+        sizeClass.freeChunks[sizeClass.freeCount++] = entry.chunk;
+    }
+
+    public void clear() {
+        long stamp = lock.writeLock();
+        try {
+            for (Entry entry : entries.values()) {
+                release(entry);
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    public int getSize() {
+        return entries.size();
+    }
+
+    public long getAllocatedBytes() {
+        long stamp = lock.readLock();
+        try {
+            return allocatedBytes;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    public long getCapacityBytes() { return capacityBytes; }
+    public long getHitCount() { return hitCount.sum(); }
+    public long getMissCount() { return missCount.sum(); }
+    public long getEvictionCount() { return evictionCount.sum(); }
+
+    @Override
+    public void close() {
+        long stamp = lock.writeLock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            entries.clear();
+            for (SizeClass sizeClass : sizeClasses) {
+                sizeClass.pages.clear();
+                sizeClass.pageReferenced = new boolean[0];
+                sizeClass.owners = new Entry[0];
+                sizeClass.freeChunks = new int[0];
+                sizeClass.freeCount = 0;
+                sizeClass.clockHand = 0;
+                sizeClass.evictedSinceReclaim = 0;
+            }
+            // Буферы страниц освобождаются сборщиком мусора
+            memoryManager.releaseMemory(allocatedBytes);
+            allocatedBytes = 0;
+            pageHandClass = 0;
+            pageHandPage = 0;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+}
@@ -0,0 +1,454 @@
+package ru.miacomsoft.core;
+
+import ru.miacomsoft.core.exceptions.DataManagerException;
+
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+// Заголовки вне кучи: хэш-таблица с открытой адресацией (линейное пробирование).
+// Таблица разбита на шарды со своей блокировкой чтения/записи. В шарде - массив слотов
+// (direct LongBuffer) и арена: direct-буферы, в которые записи дописываются подряд в формате
+// [длина заголовка][версия][timestamp][HeaderRecord.serialize()].
+// Слот: старшие 16 бит - отпечаток хэша ключа, младшие 48 - адрес записи в арене + 1.
+// Замененные и удаленные записи остаются в арене мусором; когда мусора становится больше
+// половины, шард переписывается заново. В куче остаются только объекты шардов, поэтому
+// расход памяти на ключ - размер заголовка плюс ~30 байт
+final class OffHeapHeaderTable implements HeaderTable {
+    private static final int SHARD_BITS = 8;
+    private static final int SHARDS = 1 << SHARD_BITS;
+    private static final int INITIAL_SLOTS = 256;
+    private static final double MAX_LOAD_FACTOR = 0.7;
+
+    // Арена шарда растет блоками по четверти уже занятого объема (не больше MAX_CHUNK_BYTES),
+    // поэтому незаполненный хвост последнего блока не превышает ~20% арены
+    private static final int MIN_CHUNK_BYTES = 16 * 1024;
+    private static final int MAX_CHUNK_BYTES = 64 * 1024 * 1024;
+    private static final int CHUNK_OFFSET_BITS = 32;
+    private static final int MAX_CHUNKS = 1 << 16;
+
+    private static final int ENTRY_HEADER_BYTES = 4 + 8 + 8;
+    private static final int VERSION_OFFSET = 4;
+    private static final int TIMESTAMP_OFFSET = 12;
+
+    private static final int ADDRESS_BITS = 48;
+    private static final long ADDRESS_MASK = (1L << ADDRESS_BITS) - 1;
+    private static final long EMPTY = 0;
+    private static final long DELETED = -1;
+
+    private final Shard[] shards = new Shard[SHARDS];
+    private final AtomicLong versions = new AtomicLong();
+
+    OffHeapHeaderTable() {
+        for (int i = 0; i < SHARDS; i++) {
+            shards[i] = new Shard();
+        }
+    }
+
+    @Override
+    public HeaderRecord get(byte[] key) {
+        long hash = hash(key);
+        Shard shard = shardOf(hash);
+        shard.lock.readLock().lock();
+        try {
+            int slot = shard.find(key, hash);
+            return slot >= 0 ? shard.decode(shard.slots.get(slot)) : null;
+        } finally {
+            shard.lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean put(byte[] key, HeaderRecord record) {
+        record.version = versions.incrementAndGet();
+        long hash = hash(key);
+        Shard shard = shardOf(hash);
+        shard.lock.writeLock().lock();
+        try {
+            int length = record.serializedSize();
+            long address = shard.allocate(ENTRY_HEADER_BYTES + length);
+            ByteBuffer chunk = shard.chunkOf(address);
+            int offset = offsetOf(address);
+            shard.writeEntryHeader(chunk, offset, length, record.version, record.timestamp);
+            ByteBuffer target = chunk.duplicate();
+            target.position(offset + ENTRY_HEADER_BYTES);
+            record.writeTo(target);
+            return shard.install(key, hash, address);
+        } finally {
+            shard.lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean remove(byte[] key) {
+        long hash = hash(key);
+        Shard shard = shardOf(hash);
+        shard.lock.writeLock().lock();
+        try {
+            int slot = shard.find(key, hash);
+            if (slot < 0) {
+                return false;
+            }
+            shard.garbageBytes += shard.entryLength(shard.slots.get(slot));
+            shard.slots.put(slot, DELETED);
+            shard.deleted++;
+            shard.size--;
+            shard.compactIfNeeded();
+            return true;
+        } finally {
+            shard.lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean isCurrent(byte[] key, HeaderRecord record) {
+        long hash = hash(key);
+        Shard shard = shardOf(hash);
+        shard.lock.readLock().lock();
+        try {
+            int slot = shard.find(key, hash);
+            if (slot < 0) {
+                return false;
+            }
+            long address = addressOf(shard.slots.get(slot));
+            return shard.chunkOf(address).getLong(offsetOf(address) + VERSION_OFFSET) == record.version;
+        } finally {
+            shard.lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        int size = 0;
+        for (Shard shard : shards) {
+            size += shard.size;
+        }
+        return size;
+    }
+
+    // Обход по шардам: записи шарда копируются в кучу под его блокировкой чтения
+    @Override
+    public Collection<HeaderRecord> values() {
+        return new AbstractCollection<>() {
+            @Override
+            public Iterator<HeaderRecord> iterator() {
+                return new Iterator<>() {
+                    private int nextShard;
+                    private Iterator<HeaderRecord> current = Collections.emptyIterator();
+
+                    @Override
+                    public boolean hasNext() {
+                        while (!current.hasNext() && nextShard < SHARDS) {
+                            current = shards[nextShard++].records().iterator();
+                        }
+                        return current.hasNext();
+                    }
+
+                    @Override
+                    public HeaderRecord next() {
+                        if (!hasNext()) {
+                            throw new NoSuchElementException();
+                        }
+                        return current.next();
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return OffHeapHeaderTable.this.size();
+            }
+        };
+    }
+
+    // Запись снимка копируется в арену как есть, без создания HeaderRecord; время записи
+    // берется из сохраненной записи
+    @Override
+    public byte[] load(HeaderRecordView view) {
+        byte[] key = view.name();
+        long hash = hash(key);
+        Shard shard = shardOf(hash);
+        shard.lock.writeLock().lock();
+        try {
+            long address = shard.allocate(ENTRY_HEADER_BYTES + view.length());
+            ByteBuffer chunk = shard.chunkOf(address);
+            int offset = offsetOf(address);
+            shard.writeEntryHeader(chunk, offset, view.length(), versions.incrementAndGet(), view.timestamp());
+            view.copyTo(chunk, offset + ENTRY_HEADER_BYTES);
+            shard.install(key, hash, address);
+            return key;
+        } finally {
+            shard.lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public long getOffHeapBytes() {
+        long bytes = 0;
+        for (Shard shard : shards) {
+            bytes += shard.allocatedBytes;
+        }
+        return bytes;
+    }
+
+    // Память буферов освобождается сборщиком мусора вместе с ними
+    @Override
+    public void close() {
+        for (Shard shard : shards) {
+            shard.lock.writeLock().lock();
+            try {
+                shard.clear();
+            } finally {
+                shard.lock.writeLock().unlock();
+            }
+        }
+    }
+
+    private Shard shardOf(long hash) {
+        return shards[(int) (hash >>> (64 - SHARD_BITS))];
+    }
+
+    private static long addressOf(long slot) {
+        return (slot & ADDRESS_MASK) - 1;
+    }
+
+    private static int offsetOf(long address) {
+        return (int) address;
+    }
+
+    // FNV-1a с перемешиванием: старшие биты выбирают шард, младшие - слот, средние идут в отпечаток
+    static long hash(byte[] key) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : key) {
+            hash = (hash ^ (b & 0xFF)) * 0x100000001b3L;
+        }
+        return mix(hash);
+    }
+
+    private static long hash(ByteBuffer buffer, int offset, int length) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < length; i++) {
+            hash = (hash ^ (buffer.get(offset + i) & 0xFF)) * 0x100000001b3L;
+        }
+        return mix(hash);
+    }
+
+    private static long mix(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    private static long fingerprint(long hash) {
+        return (hash >>> 32) & 0xFFFF;
+    }
+
+    private static LongBuffer allocateSlots(int count) {
+        return ByteBuffer.allocateDirect(count * 8).asLongBuffer();
+    }
+
+    // Поля шарда защищены его блокировкой; size и allocatedBytes читаются и без нее (для статистики)
+    private static final class Shard {
+        final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+        final List<ByteBuffer> chunks = new ArrayList<>();
+        LongBuffer slots = allocateSlots(INITIAL_SLOTS);
+        int mask = INITIAL_SLOTS - 1;
+        volatile int size;
+        int deleted;
+        long usedBytes;
+        long garbageBytes;
+        volatile long allocatedBytes = INITIAL_SLOTS * 8L;
+
+        ByteBuffer chunkOf(long address) {
+            return chunks.get((int) (address >>> CHUNK_OFFSET_BITS));
+        }
+
+        int entryLength(long slot) {
+            long address = addressOf(slot);
+            return ENTRY_HEADER_BYTES + chunkOf(address).getInt(offsetOf(address));
+        }
+
+        void writeEntryHeader(ByteBuffer chunk, int offset, int length, long version, long timestamp) {
+            chunk.putInt(offset, length);
+            chunk.putLong(offset + VERSION_OFFSET, version);
+            chunk.putLong(offset + TIMESTAMP_OFFSET, timestamp);
+        }
+
+        // Место под запись в конце арены. Позиция последнего буфера - граница занятого места
+        // (читатели используют только абсолютные чтения и ее не трогают)
+        long allocate(int length) {
+            ByteBuffer chunk = chunks.isEmpty() ? null : chunks.get(chunks.size() - 1);
+            if (chunk == null || chunk.remaining() < length) {
+                if (chunks.size() == MAX_CHUNKS) {
+                    throw new DataManagerException("Off-heap index shard is full");
+                }
+                long capacity = Math.min(Math.max(usedBytes / 4, MIN_CHUNK_BYTES), MAX_CHUNK_BYTES);
+                chunk = ByteBuffer.allocateDirect((int) Math.max(capacity, length));
+                chunks.add(chunk);
+                allocatedBytes += chunk.capacity();
+            }
+            int offset = chunk.position();
+            chunk.position(offset + length);
+            usedBytes += length;
+            return ((long) (chunks.size() - 1) << CHUNK_OFFSET_BITS) | offset;
+        }
+
+        // Слот ключа или -1
+        int find(byte[] key, long hash) {
+            long fingerprint = fingerprint(hash);
+            for (int i = (int) hash & mask; ; i = (i + 1) & mask) {
+                long slot = slots.get(i);
+                if (slot == EMPTY) {
+                    return -1;
+                }
+                if (slot != DELETED && (slot >>> ADDRESS_BITS) == fingerprint && nameEquals(slot, key)) {
+                    return i;
+                }
+            }
+        }
+
+        private boolean nameEquals(long slot, byte[] key) {
+            long address = addressOf(slot);
+            ByteBuffer chunk = chunkOf(address);
+            int record = offsetOf(address) + ENTRY_HEADER_BYTES;
+            if (HeaderRecordView.nameLength(chunk, record) != key.length) {
+                return false;
+            }
+            int name = HeaderRecordView.nameOffset(record);
+            for (int i = 0; i < key.length; i++) {
+                if (chunk.get(name + i) != key[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        // Ставит записанную в арену запись ключа в таблицу (заменяя прежнюю).
+        // Возвращает true, если ключа в таблице не было
+        boolean install(byte[] key, long hash, long address) {
+            long packed = (fingerprint(hash) << ADDRESS_BITS) | (address + 1);
+            int existing = find(key, hash);
+            if (existing >= 0) {
+                garbageBytes += entryLength(slots.get(existing));
+                slots.put(existing, packed);
+                compactIfNeeded();
+                return false;
+            }
+
+            for (int i = (int) hash & mask; ; i = (i + 1) & mask) {
+                long slot = slots.get(i);
+                if (slot == EMPTY || slot == DELETED) {
+                    if (slot == DELETED) {
+                        deleted--;
+                    }
+                    slots.put(i, packed);
+                    size++;
+                    break;
+                }
+            }
+            if (size + deleted > (mask + 1) * MAX_LOAD_FACTOR) {
+                rehash();
+            }
+            return true;
+        }
+
+        // Перестраивает слоты (удвоение, либо только очистка удаленных слотов)
+        private void rehash() {
+            int capacity = mask + 1;
+            while (size + 1 > capacity * MAX_LOAD_FACTOR) {
+                capacity *= 2;
+            }
+            LongBuffer oldSlots = slots;
+            slots = allocateSlots(capacity);
+            mask = capacity - 1;
+            deleted = 0;
+            allocatedBytes += (capacity - oldSlots.capacity()) * 8L;
+
+            for (int i = 0; i < oldSlots.capacity(); i++) {
+                long slot = oldSlots.get(i);
+                if (slot == EMPTY || slot == DELETED) {
+                    continue;
+                }
+                long address = addressOf(slot);
+                ByteBuffer chunk = chunkOf(address);
+                int record = offsetOf(address) + ENTRY_HEADER_BYTES;
+                long hash = hash(chunk, HeaderRecordView.nameOffset(record), HeaderRecordView.nameLength(chunk, record));
+                int j = (int) hash & mask;
+                while (slots.get(j) != EMPTY) {
+                    j = (j + 1) & mask;
+                }
+                slots.put(j, slot);
+            }
+        }
+
+        void compactIfNeeded() {
+            if (garbageBytes < MIN_CHUNK_BYTES || garbageBytes * 2 < usedBytes) {
+                return;
+            }
+            List<ByteBuffer> oldChunks = new ArrayList<>(chunks);
+            chunks.clear();
+            for (ByteBuffer chunk : oldChunks) {
+                allocatedBytes -= chunk.capacity();
+            }
+            usedBytes = 0;
+            garbageBytes = 0;
+
+            for (int i = 0; i <= mask; i++) {
+                long slot = slots.get(i);
+                if (slot == EMPTY || slot == DELETED) {
+                    continue;
+                }
+                long address = addressOf(slot);
+                ByteBuffer source = oldChunks.get((int) (address >>> CHUNK_OFFSET_BITS));
+                int length = ENTRY_HEADER_BYTES + source.getInt(offsetOf(address));
+                long moved = allocate(length);
+                chunkOf(moved).put(offsetOf(moved), source, offsetOf(address), length);
+                slots.put(i, (slot & ~ADDRESS_MASK) | (moved + 1));
+            }
+        }
+
+        HeaderRecord decode(long slot) {
+            long address = addressOf(slot);
+            ByteBuffer chunk = chunkOf(address);
+            int offset = offsetOf(address);
+            HeaderRecord record = new HeaderRecordView()
+                    .wrap(chunk, offset + ENTRY_HEADER_BYTES, chunk.getInt(offset))
+                    .toRecord();
+            record.version = chunk.getLong(offset + VERSION_OFFSET);
+            record.timestamp = chunk.getLong(offset + TIMESTAMP_OFFSET);
+            return record;
+        }
+
+        List<HeaderRecord> records() {
+            lock.readLock().lock();
+            try {
+                List<HeaderRecord> records = new ArrayList<>(size);
+                for (int i = 0; i <= mask; i++) {
+                    long slot = slots.get(i);
+                    if (slot != EMPTY && slot != DELETED) {
+                        records.add(decode(slot));
+                    }
+                }
+                return records;
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        void clear() {
+            chunks.clear();
+            slots = allocateSlots(INITIAL_SLOTS);
+            mask = INITIAL_SLOTS - 1;
+            size = 0;
+            deleted = 0;
+            usedBytes = 0;
+            garbageBytes = 0;
+            allocatedBytes = INITIAL_SLOTS * 8L;
+        }
+    }
+}
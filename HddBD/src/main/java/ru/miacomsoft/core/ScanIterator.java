@@ -0,0 +1,52 @@
+package ru.miacomsoft.core;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+// Ленивый обход диапазона ключей постранично: следующая страница запрашивается только
+// после того, как прочитаны все записи текущей. Между страницами блокировки не держатся,
+// поэтому изменения, сделанные во время обхода, могут попасть (или не попасть) в результат
+public class ScanIterator implements Iterator<ScanPage.Entry> {
+    private final PageLoader loader;
+    private Iterator<ScanPage.Entry> page;
+    private byte[] nextPageToken;
+    private boolean lastPage;
+
+    // Загрузка страницы, начинающейся после pageToken (null - первая страница)
+    public interface PageLoader {
+        ScanPage load(byte[] pageToken) throws IOException;
+    }
+
+    public ScanIterator(PageLoader loader) {
+        this.loader = loader;
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (page == null || !page.hasNext()) {
+            if (lastPage) {
+                return false;
+            }
+            ScanPage next;
+            try {
+                next = loader.load(nextPageToken);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            page = next.getEntries().iterator();
+            nextPageToken = next.getNextPageToken();
+            lastPage = !next.hasNextPage();
+        }
+        return true;
+    }
+
+    @Override
+    public ScanPage.Entry next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return page.next();
+    }
+}
@@ -0,0 +1,52 @@
+package ru.miacomsoft.core;
+
+import java.util.Collections;
+import java.util.List;
+
+// Страница результатов просмотра диапазона ключей: записи по порядку ключей и токен
+// следующей страницы (последний ключ страницы, продолжение - строго после него).
+// nextPageToken == null - диапазон просмотрен до конца
+public class ScanPage {
+    private final List<Entry> entries;
+    private final byte[] nextPageToken;
+
+    public static class Entry {
+        private final byte[] key;
+        private final byte[] value;
+
+        public Entry(byte[] key, byte[] value) {
+            this.key = key;
+            this.value = value;
+        }
+
+        public byte[] getKey() { return key; }
+        public byte[] getValue() { return value; }
+    }
+
+    public ScanPage(List<Entry> entries, byte[] nextPageToken) {
+        this.entries = Collections.unmodifiableList(entries);
+        this.nextPageToken = nextPageToken;
+    }
+
+    public List<Entry> getEntries() { return entries; }
+    public byte[] getNextPageToken() { return nextPageToken; }
+
+    public boolean hasNextPage() {
+        return nextPageToken != null;
+    }
+
+    // Верхняя граница (не включительно) диапазона ключей с префиксом в беззнаковом порядке байт:
+    // префикс с увеличенным последним байтом, меньшим 0xFF. null - граница не нужна
+    // (пустой префикс или префикс только из байт 0xFF)
+    public static byte[] prefixEnd(byte[] prefix) {
+        for (int i = prefix.length - 1; i >= 0; i--) {
+            if (prefix[i] != (byte) 0xFF) {
+                byte[] end = new byte[i + 1];
+                System.arraycopy(prefix, 0, end, 0, i + 1);
+                end[i]++;
+                return end;
+            }
+        }
+        return null;
+    }
+}
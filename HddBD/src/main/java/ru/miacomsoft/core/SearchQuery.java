@@ -1,5 +1,7 @@
 package ru.miacomsoft.core;
 
+import java.util.Arrays;
+
 public class SearchQuery {
     public enum SearchType {
         EXACT_MATCH,
@@ -7,6 +9,10 @@ public class SearchQuery {
         VECTOR_SEARCH
     }
 
+    // Шаблоны маски
+    public static final byte ANY_BYTE = '?';
+    public static final byte ANY_SEQUENCE = '*';
+
     private final SearchType type;
     private final byte[] key;
     private final byte[] mask;
@@ -60,6 +66,87 @@ public class SearchQuery {
         }
     }
 
+    // Проверка записи по имени (ключу) и вектору имени - общая для всех движков хранения
+    public boolean matches(byte[] name, float[] nameVector) {
+        switch (type) {
+            case EXACT_MATCH:
+                return Arrays.equals(name, key);
+
+            case MASK_SEARCH:
+                return matchesMask(name, mask);
+
+            case VECTOR_SEARCH:
+                if (nameVector != null && vector != null) {
+                    double similarity = calculateCosineSimilarity(nameVector, vector);
+                    return similarity >= similarityThreshold;
+                }
+                return false;
+
+            default:
+                return false;
+        }
+    }
+
+    // Маска: '?' - ровно один любой байт, '*' - любая последовательность байт (в том числе пустая).
+    // Без '*' длина ключа должна совпадать с длиной маски. После несовпадения сравнение
+    // продолжается с последней '*', сдвинутой на байт дальше - без перебора всех вариантов
+    static boolean matchesMask(byte[] data, byte[] mask) {
+        if (mask == null) return false;
+
+        int d = 0;
+        int m = 0;
+        int star = -1;
+        int starData = 0;
+        while (d < data.length) {
+            if (m < mask.length && mask[m] == ANY_SEQUENCE) {
+                star = m++;
+                starData = d;
+            } else if (m < mask.length && (mask[m] == ANY_BYTE || mask[m] == data[d])) {
+                d++;
+                m++;
+            } else if (star >= 0) {
+                m = star + 1;
+                d = ++starData;
+            } else {
+                return false;
+            }
+        }
+        while (m < mask.length && mask[m] == ANY_SEQUENCE) {
+            m++;
+        }
+        return m == mask.length;
+    }
+
+    static boolean isWildcard(byte b) {
+        return b == ANY_BYTE || b == ANY_SEQUENCE;
+    }
+
+    // Начало маски до первого шаблона: все подходящие ключи начинаются с него
+    public static byte[] maskPrefix(byte[] mask) {
+        int length = 0;
+        while (length < mask.length && !isWildcard(mask[length])) {
+            length++;
+        }
+        return Arrays.copyOf(mask, length);
+    }
+
+    private static double calculateCosineSimilarity(float[] v1, float[] v2) {
+        if (v1 == null || v2 == null || v1.length != v2.length) return 0.0;
+
+        double dotProduct = 0;
+        double norm1 = 0;
+        double norm2 = 0;
+
+        for (int i = 0; i < v1.length; i++) {
+            dotProduct += v1[i] * v2[i];
+            norm1 += v1[i] * v1[i];
+            norm2 += v2[i] * v2[i];
+        }
+
+        if (norm1 == 0 || norm2 == 0) return 0.0;
+        return dotProduct / (Math.sqrt(norm1) * Math.sqrt(norm2));
+    }
+
     // Getters
     public SearchType getType() { return type; }
     public byte[] getKey() { return key; }
@@ -0,0 +1,254 @@
+package ru.miacomsoft.core;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+// Файлы данных, разбитые на сегменты. Новые блоки дописываются в активный сегмент;
+// когда он заполняется, сегмент запечатывается (больше не растет) и создается следующий.
+// Запечатанный сегмент можно уплотнить и удалить целиком.
+// Сегмент 0 - исходный файл данных (dataFileName), сегмент N - dataFileName.NNNNNN.
+public class SegmentManager implements AutoCloseable {
+    private final String dataFileName;
+    private final long segmentBytes;
+    private final StorageConfig config;
+    private final NavigableMap<Integer, Segment> segments = new ConcurrentSkipListMap<>();
+    private volatile Segment active;
+
+    public static class Segment {
+        private final int id;
+        private final File file;
+        private final FileChannel channel;
+        private final MappedDataReader mappedReader;
+        private volatile boolean sealed;
+        private volatile boolean evacuating;
+        // Конец сегмента с учетом блоков, еще стоящих в очереди записи
+        private volatile long allocated;
+
+        private Segment(int id, File file, FileChannel channel, MappedDataReader mappedReader, long allocated) {
+            this.id = id;
+            this.file = file;
+            this.channel = channel;
+            this.mappedReader = mappedReader;
+            this.allocated = allocated;
+        }
+
+        public int getId() { return id; }
+        public File getFile() { return file; }
+        public FileChannel getChannel() { return channel; }
+        public boolean isSealed() { return sealed; }
+        public boolean isEvacuating() { return evacuating; }
+        public long getSize() { return allocated; }
+        public long getBaseAddress() { return HeaderRecord.toAddress(id, 0); }
+        public long getEndAddress() { return HeaderRecord.toAddress(id, allocated); }
+    }
+
+    public SegmentManager(String dataFileName, StorageConfig config) throws IOException {
+        this.dataFileName = dataFileName;
+        this.segmentBytes = config.getSegmentBytes();
+        this.config = config;
+
+        // Сегмент 0 (исходный файл данных) существует всегда
+        openSegment(0);
+        File parent = new File(dataFileName).getAbsoluteFile().getParentFile();
+        String prefix = new File(dataFileName).getName() + ".";
+        File[] files = parent != null ? parent.listFiles() : null;
+        if (files != null) {
+            for (File file : files) {
+                String name = file.getName();
+                if (name.startsWith(prefix) && name.length() > prefix.length()
+                        && name.substring(prefix.length()).chars().allMatch(Character::isDigit)) {
+                    openSegment(Integer.parseInt(name.substring(prefix.length())));
+                }
+            }
+        }
+
+        // Последний сегмент - активный, остальные запечатаны
+        for (Segment segment : segments.values()) {
+            segment.sealed = true;
+        }
+        active = segments.lastEntry().getValue();
+        active.sealed = false;
+    }
+
+    private Segment openSegment(int id) throws IOException {
+        File file = segmentFile(id);
+        FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        MappedDataReader mappedReader = config.isMemoryMappedReads()
+                ? new MappedDataReader(channel, config.getMappedRegionBytes())
+                : null;
+        Segment segment = new Segment(id, file, channel, mappedReader, channel.size());
+        segments.put(id, segment);
+        return segment;
+    }
+
+    private File segmentFile(int id) {
+        return id == 0 ? new File(dataFileName) : new File(String.format("%s.%06d", dataFileName, id));
+    }
+
+    // Выделяет место под блок в конце активного сегмента; если блок не помещается,
+    // активный сегмент запечатывается и создается новый
+    public synchronized long allocate(int size) throws IOException {
+        Segment segment = active;
+        if (segment.allocated > 0 && segment.allocated + size > segmentBytes) {
+            segment = roll();
+        }
+        long offset = segment.allocated;
+        segment.allocated += size;
+        return HeaderRecord.toAddress(segment.id, offset);
+    }
+
+    // Запечатывает активный сегмент и открывает следующий (после всех сегментов, в том числе
+    // зарезервированных пакетной загрузкой)
+    public synchronized Segment roll() throws IOException {
+        Segment next = openSegment(segments.lastKey() + 1);
+        active.sealed = true;
+        active = next;
+        return next;
+    }
+
+    // Сегмент для последовательной записи в обход allocate() (пакетная загрузка): создается
+    // запечатанным и пустым после всех сегментов, активный сегмент не меняется (его свободный
+    // хвост остается доступен). Пока размер не задан через completeReserved(), место в сегменте
+    // не выделяется и сегмент не уплотняется. После перезапуска активным становится последний
+    // сегмент, даже если это сегмент пакетной загрузки
+    public synchronized Segment reserve() throws IOException {
+        Segment reserved = openSegment(segments.lastKey() + 1);
+        reserved.sealed = true;
+        return reserved;
+    }
+
+    public synchronized void completeReserved(Segment segment, long size) {
+        if (segment == active || segment.allocated != 0) {
+            throw new IllegalStateException("Segment " + segment.id + " is not reserved");
+        }
+        segment.allocated = size;
+    }
+
+    public Segment getActive() {
+        return active;
+    }
+
+    public Segment get(int id) {
+        return segments.get(id);
+    }
+
+    public Segment segmentOf(long address) throws IOException {
+        Segment segment = segments.get(HeaderRecord.segmentOf(address));
+        if (segment == null) {
+            throw new IOException("Data segment " + HeaderRecord.segmentOf(address) + " not found");
+        }
+        return segment;
+    }
+
+    public FileChannel channelOf(long address) throws IOException {
+        return segmentOf(address).channel;
+    }
+
+    public void readFully(ByteBuffer buffer, long address) throws IOException {
+        FileChannel channel = channelOf(address);
+        long position = HeaderRecord.offsetOf(address);
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new EOFException("Unexpected end of data segment at address " + address);
+            }
+            position += read;
+        }
+    }
+
+    // Read-only представление блока через отображение в память или null
+    public ByteBuffer view(long address, int length) throws IOException {
+        Segment segment = segmentOf(address);
+        if (segment.mappedReader == null) {
+            return null;
+        }
+        return segment.mappedReader.view(HeaderRecord.offsetOf(address), length);
+    }
+
+    public List<Segment> getSegments() {
+        return new ArrayList<>(segments.values());
+    }
+
+    public List<Segment> getSealedSegments() {
+        List<Segment> sealed = new ArrayList<>();
+        for (Segment segment : segments.values()) {
+            if (segment.sealed) {
+                sealed.add(segment);
+            }
+        }
+        return sealed;
+    }
+
+    // Сегмент, из которого переносятся блоки: новые блоки в нем не размещаются
+    public void markEvacuating(Segment segment) {
+        if (!segment.sealed) {
+            throw new IllegalStateException("Only sealed segments can be evacuated");
+        }
+        segment.evacuating = true;
+    }
+
+    public boolean isEvacuating(long address) {
+        Segment segment = segments.get(HeaderRecord.segmentOf(address));
+        return segment != null && segment.evacuating;
+    }
+
+    // Удаляет запечатанный сегмент целиком (в нем не должно остаться активных блоков)
+    public synchronized void delete(Segment segment) throws IOException {
+        if (segment == active) {
+            throw new IllegalStateException("Active segment cannot be deleted");
+        }
+        segments.remove(segment.id);
+        if (segment.mappedReader != null) {
+            segment.mappedReader.close();
+        }
+        segment.channel.close();
+        if (segment.id == 0) {
+            // Исходный файл данных остается пустым, чтобы хранилище открывалось как прежде
+            Files.write(segment.file.toPath(), new byte[0]);
+            openSegment(0).sealed = true;
+        } else {
+            Files.deleteIfExists(segment.file.toPath());
+        }
+    }
+
+    public int getSegmentCount() {
+        return segments.size();
+    }
+
+    // Адрес конца активного сегмента: меняется при любом выделении места в конце
+    public long getEndAddress() {
+        return active.getEndAddress();
+    }
+
+    public long getTotalSize() throws IOException {
+        long total = 0;
+        for (Segment segment : segments.values()) {
+            total += Math.max(segment.channel.size(), segment.allocated);
+        }
+        return total;
+    }
+
+    public long getSegmentBytes() {
+        return segmentBytes;
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (Segment segment : segments.values()) {
+            if (segment.mappedReader != null) {
+                segment.mappedReader.close();
+            }
+            segment.channel.close();
+        }
+    }
+}
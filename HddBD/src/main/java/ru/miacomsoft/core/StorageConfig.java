@@ -0,0 +1,366 @@
+package ru.miacomsoft.core;
+
+import java.util.zip.Deflater;
+
+public class StorageConfig {
+    // Размер окна deflate - словарь больше окна не используется
+    public static final int MAX_DICTIONARY_BYTES = 32 * 1024;
+
+    private final StorageEngineType storageEngine;
+    private final FsyncPolicy fsyncPolicy;
+    private final long fsyncIntervalMillis;
+    private final int maxBatchBytes;
+    private final boolean memoryMappedReads;
+    private final int mappedRegionBytes;
+    private final int lockStripes;
+    private final boolean globalWriteLock;
+    private final long cacheMaxBytes;
+    private final long offHeapCacheBytes;
+    private final int offHeapPageBytes;
+    private final long compactionBytesPerSecond;
+    private final double compactionMinFreeRatio;
+    private final long segmentBytes;
+    private final int lsmMemtableBytes;
+    private final int lsmLevel0Tables;
+    private final long lsmTableBytes;
+    private final CompressionCodec compression;
+    private final int compressionMinBytes;
+    private final int compressionLevel;
+    private final int compressionDictionaryBytes;
+    private final int compressionDictionarySamples;
+    private final int expiryBatchSize;
+    private final IndexStorage indexStorage;
+    private final boolean orderedIndex;
+    private final boolean maskIndex;
+    private final int readCoalesceGapBytes;
+
+    private StorageConfig(Builder builder) {
+        this.storageEngine = builder.storageEngine;
+        this.fsyncPolicy = builder.fsyncPolicy;
+        this.fsyncIntervalMillis = builder.fsyncIntervalMillis;
+        this.maxBatchBytes = builder.maxBatchBytes;
+        this.memoryMappedReads = builder.memoryMappedReads;
+        this.mappedRegionBytes = builder.mappedRegionBytes;
+        this.lockStripes = builder.lockStripes;
+        this.globalWriteLock = builder.globalWriteLock;
+        this.cacheMaxBytes = builder.cacheMaxBytes;
+        this.offHeapCacheBytes = builder.offHeapCacheBytes;
+        this.offHeapPageBytes = builder.offHeapPageBytes;
+        this.compactionBytesPerSecond = builder.compactionBytesPerSecond;
+        this.compactionMinFreeRatio = builder.compactionMinFreeRatio;
+        this.segmentBytes = builder.segmentBytes;
+        this.lsmMemtableBytes = builder.lsmMemtableBytes;
+        this.lsmLevel0Tables = builder.lsmLevel0Tables;
+        this.lsmTableBytes = builder.lsmTableBytes;
+        this.compression = builder.compression;
+        this.compressionMinBytes = builder.compressionMinBytes >= 0 ? builder.compressionMinBytes
+                : builder.compression == CompressionCodec.DEFLATE_DICTIONARY ? CompressionDictionaries.GRAM : 256;
+        this.compressionLevel = builder.compressionLevel;
+        this.compressionDictionaryBytes = builder.compressionDictionaryBytes;
+        this.compressionDictionarySamples = builder.compressionDictionarySamples;
+        this.expiryBatchSize = builder.expiryBatchSize;
+        this.indexStorage = builder.indexStorage;
+        this.orderedIndex = builder.orderedIndex;
+        this.maskIndex = builder.maskIndex;
+        this.readCoalesceGapBytes = builder.readCoalesceGapBytes;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static StorageConfig defaults() {
+        return new Builder().build();
+    }
+
+    public static class Builder {
+        private StorageEngineType storageEngine = StorageEngineType.IN_PLACE;
+        private FsyncPolicy fsyncPolicy = FsyncPolicy.INTERVAL;
+        private long fsyncIntervalMillis = 1000;
+        private int maxBatchBytes = 4 * 1024 * 1024; // 4 MB
+        private boolean memoryMappedReads = false;
+        private int mappedRegionBytes = 1024 * 1024 * 1024; // 1 GB
+        private int lockStripes = 64;
+        private boolean globalWriteLock = false;
+        private long cacheMaxBytes = 0; // 0 - 3/4 лимита MemoryManager
+        private long offHeapCacheBytes = 0; // 0 - кэш вне кучи отключен
+        private int offHeapPageBytes = 1024 * 1024; // 1 MB
+        private long compactionBytesPerSecond = 32L * 1024 * 1024; // 32 MB/s
+        private double compactionMinFreeRatio = 0.3;
+        private long segmentBytes = 256L * 1024 * 1024; // 256 MB
+        private int lsmMemtableBytes = 8 * 1024 * 1024; // 8 MB
+        private int lsmLevel0Tables = 4;
+        private long lsmTableBytes = 4L * 1024 * 1024; // 4 MB
+        private CompressionCodec compression = CompressionCodec.NONE;
+        private int compressionMinBytes = -1; // -1 - 256 байт, для DEFLATE_DICTIONARY - длина n-граммы словаря
+        private int compressionLevel = Deflater.BEST_SPEED;
+        private int compressionDictionaryBytes = 16 * 1024; // 16 KB
+        private int compressionDictionarySamples = 1000;
+        private int expiryBatchSize = 1000;
+        private IndexStorage indexStorage = IndexStorage.HEAP;
+        private boolean orderedIndex = true;
+        private boolean maskIndex = false;
+        private int readCoalesceGapBytes = 4 * 1024; // 4 KB
+
+        public Builder storageEngine(StorageEngineType engine) {
+            this.storageEngine = engine;
+            return this;
+        }
+
+        public Builder fsyncPolicy(FsyncPolicy policy) {
+            this.fsyncPolicy = policy;
+            return this;
+        }
+
+        public Builder fsyncIntervalMillis(long millis) {
+            if (millis <= 0) {
+                throw new IllegalArgumentException("Fsync interval must be positive");
+            }
+            this.fsyncIntervalMillis = millis;
+            return this;
+        }
+
+        public Builder maxBatchBytes(int bytes) {
+            if (bytes <= 0) {
+                throw new IllegalArgumentException("Max batch size must be positive");
+            }
+            this.maxBatchBytes = bytes;
+            return this;
+        }
+
+        public Builder memoryMappedReads(boolean enabled) {
+            this.memoryMappedReads = enabled;
+            return this;
+        }
+
+        public Builder mappedRegionBytes(int bytes) {
+            if (bytes <= 0) {
+                throw new IllegalArgumentException("Mapped region size must be positive");
+            }
+            this.mappedRegionBytes = bytes;
+            return this;
+        }
+
+        public Builder lockStripes(int stripes) {
+            if (stripes <= 0) {
+                throw new IllegalArgumentException("Lock stripe count must be positive");
+            }
+            this.lockStripes = stripes;
+            return this;
+        }
+
+        // Прежний режим: каждая запись берет эксклюзивную блокировку всего хранилища
+        public Builder globalWriteLock(boolean enabled) {
+            this.globalWriteLock = enabled;
+            return this;
+        }
+
+        // Максимальный объем кэша значений в байтах (0 - 3/4 лимита MemoryManager: остаток
+        // нужен записям на время операции, при его нехватке они вытесняют записи кэша)
+        public Builder cacheMaxBytes(long bytes) {
+            if (bytes < 0) {
+                throw new IllegalArgumentException("Cache size cannot be negative");
+            }
+            this.cacheMaxBytes = bytes;
+            return this;
+        }
+
+        // Объем кэша значений вне кучи (direct ByteBuffer), 0 - отключен
+        public Builder offHeapCacheBytes(long bytes) {
+            if (bytes < 0) {
+                throw new IllegalArgumentException("Off-heap cache size cannot be negative");
+            }
+            this.offHeapCacheBytes = bytes;
+            return this;
+        }
+
+        // Размер страницы кэша вне кучи; значения больше страницы вне кучи не кэшируются
+        public Builder offHeapPageBytes(int bytes) {
+            if (bytes < 64) {
+                throw new IllegalArgumentException("Off-heap page size must be at least 64 bytes");
+            }
+            this.offHeapPageBytes = bytes;
+            return this;
+        }
+
+        // Скорость копирования блоков при уплотнении, 0 - без ограничения
+        public Builder compactionBytesPerSecond(long bytes) {
+            if (bytes < 0) {
+                throw new IllegalArgumentException("Compaction rate cannot be negative");
+            }
+            this.compactionBytesPerSecond = bytes;
+            return this;
+        }
+
+        // Доля свободного места в запечатанном сегменте, при которой фоновая дефрагментация его уплотняет
+        public Builder compactionMinFreeRatio(double ratio) {
+            if (ratio < 0 || ratio > 1) {
+                throw new IllegalArgumentException("Compaction free ratio must be between 0 and 1");
+            }
+            this.compactionMinFreeRatio = ratio;
+            return this;
+        }
+
+        // Размер сегмента файла данных, после которого активный сегмент запечатывается
+        public Builder segmentBytes(long bytes) {
+            if (bytes <= 0 || bytes > HeaderRecord.MAX_SEGMENT_OFFSET) {
+                throw new IllegalArgumentException("Segment size must be between 1 and " + HeaderRecord.MAX_SEGMENT_OFFSET);
+            }
+            this.segmentBytes = bytes;
+            return this;
+        }
+
+        // LSM: размер memtable, после которого она сбрасывается в SSTable уровня 0
+        public Builder lsmMemtableBytes(int bytes) {
+            if (bytes <= 0) {
+                throw new IllegalArgumentException("Memtable size must be positive");
+            }
+            this.lsmMemtableBytes = bytes;
+            return this;
+        }
+
+        // LSM: количество таблиц уровня 0, при котором они сливаются в уровень 1
+        public Builder lsmLevel0Tables(int tables) {
+            if (tables < 2) {
+                throw new IllegalArgumentException("Level 0 compaction trigger must be at least 2 tables");
+            }
+            this.lsmLevel0Tables = tables;
+            return this;
+        }
+
+        // LSM: размер SSTable на уровнях 1 и ниже (уровень N вмещает 10^N таблиц)
+        public Builder lsmTableBytes(long bytes) {
+            if (bytes <= 0) {
+                throw new IllegalArgumentException("SSTable size must be positive");
+            }
+            this.lsmTableBytes = bytes;
+            return this;
+        }
+
+        // Сжатие значений в блоках данных (кодек записывается в заголовок каждого блока)
+        public Builder compression(CompressionCodec codec) {
+            if (codec == null) {
+                throw new IllegalArgumentException("Compression codec cannot be null");
+            }
+            this.compression = codec;
+            return this;
+        }
+
+        // Значения короче порога хранятся без сжатия. Для DEFLATE_DICTIONARY порог по умолчанию
+        // минимальный: словарь сжимает и короткие похожие записи
+        public Builder compressionMinBytes(int bytes) {
+            if (bytes < 0) {
+                throw new IllegalArgumentException("Compression threshold cannot be negative");
+            }
+            this.compressionMinBytes = bytes;
+            return this;
+        }
+
+        // Уровень сжатия Deflater: 1 - быстрее, 9 - сильнее
+        public Builder compressionLevel(int level) {
+            if (level < Deflater.BEST_SPEED || level > Deflater.BEST_COMPRESSION) {
+                throw new IllegalArgumentException("Compression level must be between 1 and 9");
+            }
+            this.compressionLevel = level;
+            return this;
+        }
+
+        // Размер обучаемого словаря keyspace (DEFLATE_DICTIONARY)
+        public Builder compressionDictionaryBytes(int bytes) {
+            if (bytes < 256 || bytes > MAX_DICTIONARY_BYTES) {
+                throw new IllegalArgumentException("Dictionary size must be between 256 and " + MAX_DICTIONARY_BYTES);
+            }
+            this.compressionDictionaryBytes = bytes;
+            return this;
+        }
+
+        // Сколько значений keyspace собирается в выборку для обучения словаря
+        public Builder compressionDictionarySamples(int values) {
+            if (values < 10) {
+                throw new IllegalArgumentException("Dictionary sample must contain at least 10 values");
+            }
+            this.compressionDictionarySamples = values;
+            return this;
+        }
+
+        // Сколько просроченных ключей освобождается за одно обращение к колесу таймеров;
+        // это же размер порции сборщика мусора, под которой держатся блокировки ключей
+        public Builder expiryBatchSize(int keys) {
+            if (keys <= 0) {
+                throw new IllegalArgumentException("Expiry batch size must be positive");
+            }
+            this.expiryBatchSize = keys;
+            return this;
+        }
+
+        // Где хранится индекс заголовков. OFF_HEAP выносит заголовки из кучи (для сотен
+        // миллионов ключей имеет смысл вместе с orderedIndex(false))
+        public Builder indexStorage(IndexStorage storage) {
+            if (storage == null) {
+                throw new IllegalArgumentException("Index storage cannot be null");
+            }
+            this.indexStorage = storage;
+            return this;
+        }
+
+        // Упорядоченный индекс ключей (в куче) для запросов по диапазону, префиксу и маске.
+        // Без него остается только поиск по точному ключу и полный перебор в find()
+        public Builder orderedIndex(boolean enabled) {
+            this.orderedIndex = enabled;
+            return this;
+        }
+
+        // Индекс триграмм ключей (в куче, порядка 100 байт на ключ) для поиска по маске с '?' и '*'
+        // в любом месте. Без него индексом обслуживаются только маски с литеральным началом
+        // (диапазон упорядоченного индекса), остальные - полным перебором
+        public Builder maskIndex(boolean enabled) {
+            this.maskIndex = enabled;
+            return this;
+        }
+
+        // Результаты find() и просмотра диапазона читаются в порядке адресов блоков: соседние блоки,
+        // между которыми не больше этого числа байт, читаются одним чтением вместе с промежутком.
+        // Значение по умолчанию рассчитано на SSD и прогретый кэш страниц; для HDD и холодного
+        // кэша выгоднее сотни КБ (лишние байты дешевле позиционирования головки). 0 - только смежные блоки
+        public Builder readCoalesceGapBytes(int bytes) {
+            if (bytes < 0) {
+                throw new IllegalArgumentException("Read coalesce gap cannot be negative");
+            }
+            this.readCoalesceGapBytes = bytes;
+            return this;
+        }
+
+        public StorageConfig build() {
+            return new StorageConfig(this);
+        }
+    }
+
+    // Getters
+    public StorageEngineType getStorageEngine() { return storageEngine; }
+    public FsyncPolicy getFsyncPolicy() { return fsyncPolicy; }
+    public long getFsyncIntervalMillis() { return fsyncIntervalMillis; }
+    public int getMaxBatchBytes() { return maxBatchBytes; }
+    public boolean isMemoryMappedReads() { return memoryMappedReads; }
+    public int getMappedRegionBytes() { return mappedRegionBytes; }
+    public int getLockStripes() { return lockStripes; }
+    public boolean isGlobalWriteLock() { return globalWriteLock; }
+    public long getCacheMaxBytes() { return cacheMaxBytes; }
+    public long getOffHeapCacheBytes() { return offHeapCacheBytes; }
+    public int getOffHeapPageBytes() { return offHeapPageBytes; }
+    public long getCompactionBytesPerSecond() { return compactionBytesPerSecond; }
+    public double getCompactionMinFreeRatio() { return compactionMinFreeRatio; }
+    public long getSegmentBytes() { return segmentBytes; }
+    public int getLsmMemtableBytes() { return lsmMemtableBytes; }
+    public int getLsmLevel0Tables() { return lsmLevel0Tables; }
+    public long getLsmTableBytes() { return lsmTableBytes; }
+    public CompressionCodec getCompression() { return compression; }
+    public int getCompressionMinBytes() { return compressionMinBytes; }
+    public int getCompressionLevel() { return compressionLevel; }
+    public int getCompressionDictionaryBytes() { return compressionDictionaryBytes; }
+    public int getCompressionDictionarySamples() { return compressionDictionarySamples; }
+    public int getExpiryBatchSize() { return expiryBatchSize; }
+    public IndexStorage getIndexStorage() { return indexStorage; }
+    public boolean isOrderedIndex() { return orderedIndex; }
+    public boolean isMaskIndex() { return maskIndex; }
+    public int getReadCoalesceGapBytes() { return readCoalesceGapBytes; }
+}
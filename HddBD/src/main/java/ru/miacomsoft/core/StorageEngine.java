@@ -0,0 +1,50 @@
+package ru.miacomsoft.core;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+// Движок хранения за BinaryDataManager. Движок выбирается для каждого экземпляра
+// через StorageConfig.storageEngine(); BinaryDataManager добавляет поверх него SQL и фабрики.
+public interface StorageEngine extends AutoCloseable {
+
+    byte[] get(byte[] key);
+
+    // Значение в виде read-only буфера (без копирования, если движок это поддерживает)
+    ByteBuffer getBuffer(byte[] key);
+
+    // Future завершается после записи согласно FsyncPolicy
+    CompletableFuture<Void> put(byte[] key, byte[] value, long expiryTime, float[] nameVector, float[] dataVector);
+
+    CompletableFuture<Void> update(byte[] key, byte[] newValue);
+
+    CompletableFuture<Void> delete(byte[] key);
+
+    // Курсор результатов поиска: совпадения и значения вычисляются по мере обхода
+    FindCursor find(SearchQuery query, FindOptions options);
+
+    // Страница записей с ключами из [fromKey, toKey) по порядку ключей (null - без границы),
+    // не более limit записей, начиная строго после pageToken (null - с начала диапазона)
+    ScanPage scan(byte[] fromKey, byte[] toKey, byte[] pageToken, int limit);
+
+    // Принудительно записывает все ожидающие изменения и сбрасывает их на диск
+    void flush();
+
+    void compact() throws IOException;
+
+    void runGarbageCollector();
+
+    void backup(String backupPath) throws IOException;
+
+    void setCacheTTL(int seconds);
+
+    int getIndexSize();
+
+    long getDataFileSize() throws IOException;
+
+    BinaryDataManager.SystemStats getSystemStats() throws IOException;
+
+    @Override
+    void close();
+}
@@ -0,0 +1,6 @@
+package ru.miacomsoft.core;
+
+public enum StorageEngineType {
+    IN_PLACE,   // Блоки в сегментах файла данных, освобожденное место используется повторно
+    LSM         // Memtable + отсортированные неизменяемые SSTable с фоновым уплотнением по уровням
+}
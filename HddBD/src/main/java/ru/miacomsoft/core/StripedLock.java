@@ -0,0 +1,71 @@
+package ru.miacomsoft.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+public class StripedLock {
+    private final ReentrantLock[] stripes;
+    private final int mask;
+
+    public StripedLock(int stripeCount) {
+        if (stripeCount <= 0) {
+            throw new IllegalArgumentException("Stripe count must be positive");
+        }
+        // Округляем до степени двойки, чтобы выбирать полосу маской
+        int size = Integer.highestOneBit(stripeCount - 1) << 1;
+        if (stripeCount == 1) size = 1;
+
+        this.stripes = new ReentrantLock[size];
+        for (int i = 0; i < size; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+        this.mask = size - 1;
+    }
+
+    public ReentrantLock lockFor(byte[] key) {
+        return stripes[stripeOf(key)];
+    }
+
+    private int stripeOf(byte[] key) {
+        int hash = Arrays.hashCode(key);
+        hash ^= (hash >>> 16); // Перемешиваем старшие биты
+        return hash & mask;
+    }
+
+    // Блокирует полосы всех ключей в порядке возрастания номера полосы. Остальной код держит
+    // не больше одной полосы, поэтому единый порядок исключает взаимоблокировку
+    public List<ReentrantLock> lockAll(Collection<byte[]> keys) {
+        BitSet used = new BitSet(stripes.length);
+        for (byte[] key : keys) {
+            used.set(stripeOf(key));
+        }
+        List<ReentrantLock> locked = new ArrayList<>(used.cardinality());
+        for (int stripe = used.nextSetBit(0); stripe >= 0; stripe = used.nextSetBit(stripe + 1)) {
+            stripes[stripe].lock();
+            locked.add(stripes[stripe]);
+        }
+        return locked;
+    }
+
+    public static void unlockAll(List<ReentrantLock> locks) {
+        for (int i = locks.size() - 1; i >= 0; i--) {
+            locks.get(i).unlock();
+        }
+    }
+
+    public void lock(byte[] key) {
+        lockFor(key).lock();
+    }
+
+    public void unlock(byte[] key) {
+        lockFor(key).unlock();
+    }
+
+    public int getStripeCount() {
+        return stripes.length;
+    }
+}
@@ -0,0 +1,183 @@
+package ru.miacomsoft.core;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+// Сжатие значений блоков данных. Сжатое значение: [исходная длина][поток deflate],
+// для DEFLATE_DICTIONARY - [id словаря][исходная длина][поток deflate] (id 0 - без словаря).
+// Deflater, Inflater и буфер сжатия переиспользуются в пределах потока, распаковка
+// идет сразу в массив результата точного размера без промежуточных копий.
+public class ValueCompressor {
+    // Буферы больше этого размера не удерживаются потоком после сжатия
+    private static final int MAX_REUSED_BUFFER = 1024 * 1024;
+
+    private final CompressionCodec codec;
+    private final int minBytes;
+    private final CompressionDictionaries dictionaries; // null, если словари не используются
+    private final ThreadLocal<Deflater> deflaters;
+    private final ThreadLocal<Inflater> inflaters = ThreadLocal.withInitial(Inflater::new);
+    private final ThreadLocal<byte[]> buffers = new ThreadLocal<>();
+
+    // Статистика
+    private final LongAdder compressedValues = new LongAdder();
+    private final LongAdder rawBytes = new LongAdder();
+    private final LongAdder storedBytes = new LongAdder();
+
+    public ValueCompressor(StorageConfig config) {
+        this(config, null);
+    }
+
+    public ValueCompressor(StorageConfig config, CompressionDictionaries dictionaries) {
+        if (config.getCompression() == CompressionCodec.DEFLATE_DICTIONARY && dictionaries == null) {
+            throw new IllegalArgumentException("Dictionary compression requires compression dictionaries");
+        }
+        this.codec = config.getCompression();
+        this.dictionaries = dictionaries;
+        this.minBytes = config.getCompressionMinBytes();
+        int level = config.getCompressionLevel();
+        this.deflaters = ThreadLocal.withInitial(() -> new Deflater(level));
+    }
+
+    // Сжатое значение или null, если сжатие выключено, значение меньше порога
+    // или сжатие не уменьшает размер. Ключ определяет keyspace словаря
+    public byte[] compress(byte[] key, byte[] value) {
+        if (codec == CompressionCodec.NONE) {
+            return null;
+        }
+        // Выборка для обучения словаря пополняется и значениями короче порога
+        if (codec == CompressionCodec.DEFLATE_DICTIONARY) {
+            dictionaries.sample(key, value);
+        }
+        if (value.length < minBytes || value.length <= 8) {
+            return null;
+        }
+
+        CompressionDictionaries.Dictionary dictionary = null;
+        int headerLength = 4;
+        if (codec == CompressionCodec.DEFLATE_DICTIONARY) {
+            dictionary = dictionaries.current(key);
+            headerLength = 8;
+        }
+
+        // Результат должен быть короче исходного значения, иначе значение хранится как есть
+        int limit = value.length - 1;
+        byte[] buffer = buffers.get();
+        if (buffer == null || buffer.length < limit) {
+            buffer = new byte[limit];
+            if (limit <= MAX_REUSED_BUFFER) {
+                buffers.set(buffer);
+            }
+        }
+
+        Deflater deflater = deflaters.get();
+        deflater.reset();
+        if (dictionary != null) {
+            deflater.setDictionary(dictionary.data);
+        }
+        deflater.setInput(value);
+        deflater.finish();
+        int length = headerLength;
+        while (!deflater.finished() && length < limit) {
+            length += deflater.deflate(buffer, length, limit - length);
+        }
+        if (!deflater.finished()) {
+            return null;
+        }
+
+        if (codec == CompressionCodec.DEFLATE_DICTIONARY) {
+            ByteBuffer.wrap(buffer).putInt(0, dictionary != null ? dictionary.id : 0).putInt(4, value.length);
+        } else {
+            ByteBuffer.wrap(buffer).putInt(0, value.length);
+        }
+        byte[] compressed = new byte[length];
+        System.arraycopy(buffer, 0, compressed, 0, length);
+
+        compressedValues.increment();
+        rawBytes.add(value.length);
+        storedBytes.add(length);
+        return compressed;
+    }
+
+    // Распаковка значения из буфера (от position до limit). Буфер может быть отображением файла
+    public byte[] decompress(CompressionCodec codec, ByteBuffer stored) throws IOException {
+        if (codec == CompressionCodec.NONE) {
+            byte[] data = new byte[stored.remaining()];
+            stored.get(stored.position(), data);
+            return data;
+        }
+        int headerLength = codec == CompressionCodec.DEFLATE_DICTIONARY ? 8 : 4;
+        if (stored.remaining() < headerLength) {
+            throw new IOException("Compressed value is too short");
+        }
+
+        // Словарь ищется по id из значения: блоки, сжатые прежними версиями словаря, читаются ими
+        CompressionDictionaries.Dictionary dictionary = null;
+        if (codec == CompressionCodec.DEFLATE_DICTIONARY) {
+            int dictionaryId = stored.getInt(stored.position());
+            if (dictionaryId != 0) {
+                dictionary = dictionaries != null ? dictionaries.get(dictionaryId) : null;
+                if (dictionary == null) {
+                    throw new IOException("Unknown compression dictionary: " + dictionaryId);
+                }
+            }
+        }
+
+        int rawLength = stored.getInt(stored.position() + headerLength - 4);
+        if (rawLength < 0) {
+            throw new IOException("Invalid compressed value length: " + rawLength);
+        }
+        byte[] data = new byte[rawLength];
+
+        Inflater inflater = inflaters.get();
+        inflater.reset();
+        inflater.setInput(stored.slice(stored.position() + headerLength, stored.remaining() - headerLength));
+        try {
+            int length = 0;
+            while (!inflater.finished() && length < rawLength) {
+                int inflated = inflater.inflate(data, length, rawLength - length);
+                if (inflated == 0 && inflater.needsDictionary()) {
+                    if (dictionary == null) {
+                        throw new IOException("Compressed value requires a dictionary");
+                    }
+                    inflater.setDictionary(dictionary.data);
+                    continue;
+                }
+                if (inflated == 0 && inflater.needsInput()) {
+                    break;
+                }
+                length += inflated;
+            }
+            if (length != rawLength || !inflater.finished()) {
+                throw new IOException("Compressed value is truncated: " + length + " of " + rawLength + " bytes");
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupted compressed value", e);
+        }
+        return data;
+    }
+
+    // Несжатое значение возвращается без копирования
+    public byte[] decompress(CompressionCodec codec, byte[] stored) throws IOException {
+        if (codec == CompressionCodec.NONE) {
+            return stored;
+        }
+        return decompress(codec, ByteBuffer.wrap(stored));
+    }
+
+    public CompressionCodec getCodec() { return codec; }
+    public CompressionDictionaries getDictionaries() { return dictionaries; }
+    public int getMinBytes() { return minBytes; }
+    public long getCompressedValues() { return compressedValues.sum(); }
+    public long getRawBytes() { return rawBytes.sum(); }
+    public long getStoredBytes() { return storedBytes.sum(); }
+
+    // Отношение исходного размера сжатых значений к их размеру на диске
+    public double getCompressionRatio() {
+        long stored = storedBytes.sum();
+        return stored > 0 ? (double) rawBytes.sum() / stored : 1.0;
+    }
+}
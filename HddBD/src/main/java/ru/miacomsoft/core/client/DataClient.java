@@ -1,5 +1,8 @@
 package ru.miacomsoft.core.client;
 
+import ru.miacomsoft.core.FindOptions;
+import ru.miacomsoft.core.ScanIterator;
+import ru.miacomsoft.core.ScanPage;
 import ru.miacomsoft.core.SearchQuery;
 import ru.miacomsoft.core.SqlQuery;
 import ru.miacomsoft.core.SqlResult;
@@ -7,7 +10,11 @@ import ru.miacomsoft.core.server.protocol.*;
 
 import java.io.*;
 import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
 import java.util.Map;
 
 public class DataClient implements AutoCloseable {
@@ -16,6 +23,8 @@ public class DataClient implements AutoCloseable {
     private Socket socket;
     private DataInputStream input;
     private DataOutputStream output;
+    // Незавершенный потоковый ответ FIND: дочитывается перед следующим запросом
+    private FindStream activeStream;
 
     public DataClient(String host, int port) {
         this.host = host;
@@ -30,11 +39,21 @@ public class DataClient implements AutoCloseable {
     }
 
     private Response sendRequest(Request request) throws IOException {
+        writeRequest(request);
+        return readResponse();
+    }
+
+    private void writeRequest(Request request) throws IOException {
+        if (activeStream != null) {
+            activeStream.close();
+        }
         byte[] requestData = ProtocolCodec.encodeRequest(request);
         output.writeInt(requestData.length);
         output.write(requestData);
         output.flush();
+    }
 
+    private Response readResponse() throws IOException {
         int responseLength = input.readInt();
         byte[] responseData = new byte[responseLength];
         input.readFully(responseData);
@@ -106,20 +125,128 @@ public class DataClient implements AutoCloseable {
     }
 
     public List<byte[]> find(SearchQuery query) throws IOException {
+        List<byte[]> results = new ArrayList<>();
+        try (FindStream stream = find(query, FindOptions.defaults())) {
+            while (stream.hasNext()) {
+                results.add(stream.next().getValue());
+            }
+        } catch (UncheckedIOException e) {
+            System.err.println(e.getCause().getMessage());
+            return null;
+        }
+        return results;
+    }
+
+    // Результаты приходят от сервера частями и читаются по мере обхода
+    // (ошибки сети и поиска - UncheckedIOException)
+    public FindStream find(SearchQuery query, FindOptions options) throws IOException {
         Request request = new Request.Builder()
                 .command(Command.FIND)
                 .searchQuery(query)
+                .findOptions(options)
+                .build();
+
+        writeRequest(request);
+        activeStream = new FindStream();
+        return activeStream;
+    }
+
+    public class FindStream implements Iterator<ScanPage.Entry>, AutoCloseable {
+        private Iterator<ScanPage.Entry> chunk = Collections.emptyIterator();
+        private boolean lastChunk;
+
+        @Override
+        public boolean hasNext() {
+            while (!chunk.hasNext() && !lastChunk) {
+                Response response = readChunk();
+                if (!response.isSuccess()) {
+                    throw new UncheckedIOException(new IOException("FIND failed: " + response.getMessage()));
+                }
+                chunk = response.getScanPage() != null
+                        ? response.getScanPage().getEntries().iterator() : Collections.emptyIterator();
+            }
+            return chunk.hasNext();
+        }
+
+        @Override
+        public ScanPage.Entry next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return chunk.next();
+        }
+
+        private Response readChunk() {
+            try {
+                Response response = readResponse();
+                if (!response.hasMore()) {
+                    lastChunk = true;
+                    activeStream = null;
+                }
+                return response;
+            } catch (IOException e) {
+                lastChunk = true;
+                activeStream = null;
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        // Сервер отправляет все части без ожидания клиента: непрочитанные части дочитываются
+        // и отбрасываются. Чтобы сервер не обходил лишнее, число результатов ограничивают limit
+        @Override
+        public void close() {
+            chunk = Collections.emptyIterator();
+            while (!lastChunk) {
+                readChunk();
+            }
+        }
+    }
+
+    // Страница диапазона ключей [fromKey, toKey) после pageToken (null - первая страница).
+    // limit <= 0 - размер страницы по умолчанию сервера
+    public ScanPage scan(byte[] fromKey, byte[] toKey, byte[] pageToken, int limit) throws IOException {
+        Request request = new Request.Builder()
+                .command(Command.SCAN)
+                .key(fromKey)
+                .toKey(toKey)
+                .pageToken(pageToken)
+                .limit(limit)
                 .build();
 
         Response response = sendRequest(request);
         if (response.isSuccess()) {
-            return response.getResults();
+            return response.getScanPage();
         } else {
-            System.err.println("FIND failed: " + response.getMessage());
-            return null;
+            throw new IOException("SCAN failed: " + response.getMessage());
+        }
+    }
+
+    public ScanPage scanPrefix(byte[] prefix, byte[] pageToken, int limit) throws IOException {
+        Request request = new Request.Builder()
+                .command(Command.SCAN_PREFIX)
+                .key(prefix)
+                .pageToken(pageToken)
+                .limit(limit)
+                .build();
+
+        Response response = sendRequest(request);
+        if (response.isSuccess()) {
+            return response.getScanPage();
+        } else {
+            throw new IOException("SCAN_PREFIX failed: " + response.getMessage());
         }
     }
 
+    // Ленивый обход: следующая страница запрашивается у сервера по мере чтения записей
+    // (ошибки сети - UncheckedIOException)
+    public Iterator<ScanPage.Entry> scan(byte[] fromKey, byte[] toKey, int pageSize) {
+        return new ScanIterator(pageToken -> scan(fromKey, toKey, pageToken, pageSize));
+    }
+
+    public Iterator<ScanPage.Entry> scanPrefix(byte[] prefix, int pageSize) {
+        return new ScanIterator(pageToken -> scanPrefix(prefix, pageToken, pageSize));
+    }
+
     public Response.SystemStats getStats() throws IOException {
         Request request = new Request.Builder()
                 .command(Command.STATS)
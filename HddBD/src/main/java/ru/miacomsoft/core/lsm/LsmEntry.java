@@ -0,0 +1,98 @@
+package ru.miacomsoft.core.lsm;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Comparator;
+
+// Запись LSM-дерева: значение ключа или надгробие (удаление).
+// Формат: [длина ключа][ключ][флаги][expiryTime][длина значения][значение][длина вектора][вектор имени]
+final class LsmEntry {
+    static final Comparator<byte[]> KEY_ORDER = Arrays::compareUnsigned;
+
+    private static final byte FLAG_TOMBSTONE = 1;
+
+    // Накладные расходы memtable на одну запись (узел списка с пропусками, объекты записи)
+    private static final int MEMORY_OVERHEAD = 96;
+
+    final byte[] key;
+    final byte[] value; // null - надгробие
+    final long expiryTime;
+    final float[] nameVector;
+
+    LsmEntry(byte[] key, byte[] value, long expiryTime, float[] nameVector) {
+        this.key = key;
+        this.value = value;
+        this.expiryTime = expiryTime;
+        this.nameVector = nameVector;
+    }
+
+    static LsmEntry tombstone(byte[] key) {
+        return new LsmEntry(key, null, -1, null);
+    }
+
+    boolean isTombstone() {
+        return value == null;
+    }
+
+    boolean isExpired(long nowSeconds) {
+        return expiryTime != -1 && expiryTime < nowSeconds;
+    }
+
+    boolean isLive(long nowSeconds) {
+        return !isTombstone() && !isExpired(nowSeconds);
+    }
+
+    int encodedSize() {
+        return 4 + key.length + 1 + 8 + 4 + (value != null ? value.length : 0)
+                + 4 + (nameVector != null ? nameVector.length * 4 : 0);
+    }
+
+    long memorySize() {
+        return encodedSize() + MEMORY_OVERHEAD;
+    }
+
+    void encode(ByteBuffer buffer) {
+        buffer.putInt(key.length);
+        buffer.put(key);
+        buffer.put(isTombstone() ? FLAG_TOMBSTONE : 0);
+        buffer.putLong(expiryTime);
+        if (value != null) {
+            buffer.putInt(value.length);
+            buffer.put(value);
+        } else {
+            buffer.putInt(0);
+        }
+        if (nameVector != null) {
+            buffer.putInt(nameVector.length);
+            for (float f : nameVector) {
+                buffer.putFloat(f);
+            }
+        } else {
+            buffer.putInt(-1);
+        }
+    }
+
+    byte[] encode() {
+        ByteBuffer buffer = ByteBuffer.allocate(encodedSize());
+        encode(buffer);
+        return buffer.array();
+    }
+
+    static LsmEntry decode(ByteBuffer buffer) {
+        byte[] key = new byte[buffer.getInt()];
+        buffer.get(key);
+        boolean tombstone = (buffer.get() & FLAG_TOMBSTONE) != 0;
+        long expiryTime = buffer.getLong();
+        byte[] value = new byte[buffer.getInt()];
+        buffer.get(value);
+        int vectorLength = buffer.getInt();
+        float[] nameVector = null;
+        if (vectorLength >= 0) {
+            nameVector = new float[vectorLength];
+            for (int i = 0; i < vectorLength; i++) {
+                nameVector[i] = buffer.getFloat();
+            }
+        }
+        return new LsmEntry(key, tombstone ? null : value, expiryTime, nameVector);
+    }
+}
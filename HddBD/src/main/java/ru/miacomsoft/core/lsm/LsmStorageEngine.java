@@ -0,0 +1,1097 @@
+package ru.miacomsoft.core.lsm;
+
+import ru.miacomsoft.core.*;
+import ru.miacomsoft.core.exceptions.DataManagerException;
+import ru.miacomsoft.core.exceptions.KeyNotFoundException;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+// Движок хранения на LSM-дереве. Запись попадает в журнал (через GroupCommitWriter) и в memtable;
+// заполненная memtable сбрасывается в SSTable уровня 0. Фоновое уплотнение по уровням (leveled):
+// таблицы уровня 0 сливаются с пересекающимися таблицами уровня 1, переполненный уровень N
+// сливает по одной таблице в уровень N+1. Перезапись ключа - новая запись без поиска места,
+// старые версии и надгробия удаляются при уплотнении.
+// Файлы движка лежат в каталоге <dataFileName>.lsm.
+public class LsmStorageEngine implements StorageEngine {
+    private static final int MAX_LEVELS = 7;
+    private static final int LEVEL_SIZE_MULTIPLIER = 10;
+
+    // Сколько заполненных memtable может ждать сброса, прежде чем запись приостановится
+    private static final int MAX_IMMUTABLE_MEMTABLES = 2;
+    // Задержка повтора сброса memtable после ошибки (удваивается до максимума)
+    private static final long FLUSH_RETRY_MIN_MILLIS = 100;
+    private static final long FLUSH_RETRY_MAX_MILLIS = 10_000;
+
+    // Записей в одной порции обхода find()
+    private static final int FIND_BATCH_ENTRIES = 1024;
+
+    private static final String MANIFEST_FILE = "MANIFEST";
+    private static final int MANIFEST_MAGIC = 0x4C534D46; // "LSMF"
+    private static final int MANIFEST_VERSION = 1;
+
+    private final File directory;
+    private final MemoryManager memoryManager;
+    private final StorageConfig config;
+    private final GroupCommitWriter commitWriter;
+    private final ScheduledExecutorService compactionExecutor;
+    private final IoRateLimiter compactionRateLimiter;
+
+    // Записи упорядочены монитором: позиции в журнале выдаются в порядке записи в memtable
+    private final Object writeMonitor = new Object();
+    // Таблицы закрываются и удаляются после уплотнения только под блокировкой записи
+    private final ReadWriteLock tablesLock = new ReentrantReadWriteLock();
+
+    private volatile MemTable memTable;
+    // Заполненные memtable в очереди на сброс, от новых к старым
+    private final List<MemTable> immutableMemTables = new CopyOnWriteArrayList<>();
+    // Уровни таблиц (списки не изменяются, при изменении уровня заменяются целиком).
+    // Уровень 0 - от новых таблиц к старым, ключи таблиц могут пересекаться;
+    // уровни 1+ - таблицы упорядочены по первому ключу и не пересекаются.
+    // Изменяются только в потоке уплотнения.
+    private volatile List<List<SSTable>> levels;
+    private final byte[][] compactPointers = new byte[MAX_LEVELS][];
+    private final AtomicLong nextFileId = new AtomicLong(1);
+    private final AtomicLong walSequence = new AtomicLong();
+    private volatile boolean closed;
+    // Ошибка последнего сброса memtable: пока сброс не удастся, запись отклоняется
+    private volatile Exception flushFailure;
+    private long flushRetryMillis = FLUSH_RETRY_MIN_MILLIS; // только поток уплотнения
+
+    // Статистика
+    private final AtomicLong flushCount = new AtomicLong();
+    private final AtomicLong compactionCount = new AtomicLong();
+    private final AtomicLong compactionBytesWritten = new AtomicLong();
+
+    public LsmStorageEngine(String dataFileName, String indexFileName, MemoryManager memoryManager,
+                            StorageConfig config) throws IOException {
+        this.directory = new File(dataFileName + ".lsm");
+        this.memoryManager = memoryManager;
+        this.config = config;
+
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new IOException("Cannot create LSM directory " + directory);
+        }
+
+        this.commitWriter = new GroupCommitWriter(config);
+        this.compactionExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "lsm-compaction");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.compactionRateLimiter = new IoRateLimiter(config.getCompactionBytesPerSecond());
+
+        loadTables();
+        recoverWriteAheadLogs();
+        this.memTable = newMemTable();
+
+        System.out.println("LSM storage engine initialized:");
+        System.out.println("  Directory: " + directory);
+        System.out.println("  Tables per level: " + describeLevels(levels));
+        System.out.println("  Memtable size: " + (config.getLsmMemtableBytes() / (1024 * 1024)) + " MB");
+        System.out.println("  Fsync policy: " + config.getFsyncPolicy());
+    }
+
+    // Основные методы API
+
+    @Override
+    public byte[] get(byte[] key) {
+        LsmEntry entry = lookup(key);
+        return entry != null && entry.isLive(nowSeconds()) ? entry.value : null;
+    }
+
+    @Override
+    public ByteBuffer getBuffer(byte[] key) {
+        byte[] data = get(key);
+        return data != null ? ByteBuffer.wrap(data).asReadOnlyBuffer() : null;
+    }
+
+    @Override
+    public CompletableFuture<Void> put(byte[] key, byte[] value, long expiryTime, float[] nameVector, float[] dataVector) {
+        if (key == null || key.length == 0) {
+            throw new DataManagerException("Key cannot be null or empty");
+        }
+        if (value == null) {
+            throw new DataManagerException("Value cannot be null");
+        }
+        // Вектор данных в LSM не хранится: он не возвращается ни одной операцией чтения
+        return write(new LsmEntry(key.clone(), value.clone(), expiryTime, nameVector));
+    }
+
+    @Override
+    public CompletableFuture<Void> update(byte[] key, byte[] newValue) {
+        if (key == null || key.length == 0) {
+            throw new DataManagerException("Key cannot be null or empty");
+        }
+        if (newValue == null) {
+            throw new DataManagerException("New value cannot be null");
+        }
+        synchronized (writeMonitor) {
+            LsmEntry existing = lookup(key);
+            if (existing == null || existing.isTombstone()) {
+                throw new KeyNotFoundException(key);
+            }
+            return write(new LsmEntry(key.clone(), newValue.clone(), existing.expiryTime, existing.nameVector));
+        }
+    }
+
+    @Override
+    public CompletableFuture<Void> delete(byte[] key) {
+        if (key == null || key.length == 0) {
+            throw new DataManagerException("Key cannot be null or empty");
+        }
+        synchronized (writeMonitor) {
+            // Надгробие пишется только для существующего ключа
+            LsmEntry existing = lookup(key);
+            if (existing == null || existing.isTombstone()) {
+                return CompletableFuture.completedFuture(null);
+            }
+            return write(LsmEntry.tombstone(key.clone()));
+        }
+    }
+
+    // Записи обходятся порциями по FIND_BATCH_ENTRIES по порядку ключей: каждая порция читается
+    // под блокировкой чтения таблиц, между порциями блокировка не держится (уплотнение не ждет
+    // окончания обхода курсора), следующая порция начинается после последнего ключа предыдущей
+    @Override
+    public FindCursor find(SearchQuery query, FindOptions options) {
+        if (query == null) {
+            throw new DataManagerException("Search query cannot be null");
+        }
+        if (query.getType() == SearchQuery.SearchType.EXACT_MATCH) {
+            LsmEntry entry = query.getKey() != null ? lookup(query.getKey()) : null;
+            Iterator<LsmEntry> entries = entry != null && entry.isLive(nowSeconds())
+                    ? List.of(entry).iterator() : Collections.emptyIterator();
+            return new FindCursor(new EntryMatches(entries, query), options);
+        }
+        // Маска с литеральным началом просматривает только диапазон ключей с этим началом
+        if (query.getType() == SearchQuery.SearchType.MASK_SEARCH && query.getMask() != null) {
+            byte[] prefix = SearchQuery.maskPrefix(query.getMask());
+            if (prefix.length > 0) {
+                return new FindCursor(new EntryMatches(
+                        new BatchIterator(prefix, ScanPage.prefixEnd(prefix)), query), options);
+            }
+        }
+        return new FindCursor(new EntryMatches(new BatchIterator(null, null), query), options);
+    }
+
+    // Просмотр диапазона: слияние memtable и таблиц, пересекающихся с диапазоном, начиная
+    // с первого ключа диапазона (каждая таблица читается с блока, содержащего этот ключ)
+    @Override
+    public ScanPage scan(byte[] fromKey, byte[] toKey, byte[] pageToken, int limit) {
+        if (limit <= 0) {
+            throw new DataManagerException("Scan limit must be positive: " + limit);
+        }
+        // Лишняя запись показывает, есть ли следующая страница
+        List<LsmEntry> live = liveEntries(fromKey, toKey, pageToken, limit < Integer.MAX_VALUE ? limit + 1 : limit);
+        List<ScanPage.Entry> entries = new ArrayList<>(Math.min(live.size(), limit));
+        for (int i = 0; i < live.size() && i < limit; i++) {
+            entries.add(new ScanPage.Entry(live.get(i).key, live.get(i).value));
+        }
+        return new ScanPage(entries, live.size() > limit ? entries.get(limit - 1).getKey() : null);
+    }
+
+    // Не более limit действующих записей из [fromKey, toKey) после afterKey, по порядку ключей
+    private List<LsmEntry> liveEntries(byte[] fromKey, byte[] toKey, byte[] afterKey, int limit) {
+        byte[] start = fromKey;
+        boolean afterStart = false;
+        if (afterKey != null && (fromKey == null || LsmEntry.KEY_ORDER.compare(afterKey, fromKey) >= 0)) {
+            start = afterKey;
+            afterStart = true;
+        }
+
+        List<LsmEntry> entries = new ArrayList<>();
+        long now = nowSeconds();
+        tablesLock.readLock().lock();
+        try {
+            Iterator<LsmEntry> merged = new MergingIterator(rangeSources(start, toKey));
+            while (merged.hasNext() && entries.size() < limit) {
+                LsmEntry entry = merged.next();
+                if (toKey != null && LsmEntry.KEY_ORDER.compare(entry.key, toKey) >= 0) {
+                    break;
+                }
+                if (entry.isLive(now) && !(afterStart && LsmEntry.KEY_ORDER.compare(entry.key, start) == 0)) {
+                    entries.add(entry);
+                }
+            }
+        } finally {
+            tablesLock.readLock().unlock();
+        }
+        return entries;
+    }
+
+    // Действующие записи диапазона [fromKey, toKey) порциями liveEntries()
+    private class BatchIterator implements Iterator<LsmEntry> {
+        private final byte[] fromKey;
+        private final byte[] toKey;
+        private Iterator<LsmEntry> batch = Collections.emptyIterator();
+        private byte[] lastKey;
+        private boolean lastBatch;
+
+        BatchIterator(byte[] fromKey, byte[] toKey) {
+            this.fromKey = fromKey;
+            this.toKey = toKey;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (!batch.hasNext() && !lastBatch) {
+                List<LsmEntry> entries = liveEntries(fromKey, toKey, lastKey, FIND_BATCH_ENTRIES);
+                lastBatch = entries.size() < FIND_BATCH_ENTRIES;
+                if (!entries.isEmpty()) {
+                    lastKey = entries.get(entries.size() - 1).key;
+                }
+                batch = entries.iterator();
+            }
+            return batch.hasNext();
+        }
+
+        @Override
+        public LsmEntry next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return batch.next();
+        }
+    }
+
+    // Записи, подходящие под условие поиска (значение уже прочитано вместе с записью)
+    private static class EntryMatches implements Iterator<FindCursor.Match> {
+        private final Iterator<LsmEntry> entries;
+        private final SearchQuery query;
+        private LsmEntry next;
+
+        EntryMatches(Iterator<LsmEntry> entries, SearchQuery query) {
+            this.entries = entries;
+            this.query = query;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (next == null && entries.hasNext()) {
+                LsmEntry entry = entries.next();
+                if (query.matches(entry.key, entry.nameVector)) {
+                    next = entry;
+                }
+            }
+            return next != null;
+        }
+
+        @Override
+        public FindCursor.Match next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            LsmEntry entry = next;
+            next = null;
+            return new FindCursor.Match() {
+                @Override
+                public byte[] key() {
+                    return entry.key;
+                }
+
+                @Override
+                public byte[] value() {
+                    return entry.value;
+                }
+            };
+        }
+    }
+
+    // Вспомогательные методы
+
+    private static long nowSeconds() {
+        return System.currentTimeMillis() / 1000;
+    }
+
+    // Последняя версия ключа (в том числе надгробие): memtable, затем таблицы от новых к старым
+    private LsmEntry lookup(byte[] key) {
+        LsmEntry entry = memTable.get(key);
+        if (entry != null) {
+            return entry;
+        }
+        for (MemTable immutable : immutableMemTables) {
+            entry = immutable.get(key);
+            if (entry != null) {
+                return entry;
+            }
+        }
+
+        tablesLock.readLock().lock();
+        try {
+            List<List<SSTable>> current = levels;
+            for (SSTable table : current.get(0)) {
+                entry = table.get(key);
+                if (entry != null) {
+                    return entry;
+                }
+            }
+            for (int level = 1; level < current.size(); level++) {
+                SSTable table = findTable(current.get(level), key);
+                if (table != null && (entry = table.get(key)) != null) {
+                    return entry;
+                }
+            }
+            return null;
+        } catch (IOException e) {
+            throw new DataManagerException("Error reading data for key: " + Arrays.toString(key), e);
+        } finally {
+            tablesLock.readLock().unlock();
+        }
+    }
+
+    // Таблица уровня 1+, диапазон которой содержит ключ
+    private static SSTable findTable(List<SSTable> tables, byte[] key) {
+        int low = 0;
+        int high = tables.size() - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            SSTable table = tables.get(mid);
+            if (LsmEntry.KEY_ORDER.compare(key, table.getFirstKey()) < 0) {
+                high = mid - 1;
+            } else if (LsmEntry.KEY_ORDER.compare(key, table.getLastKey()) > 0) {
+                low = mid + 1;
+            } else {
+                return table;
+            }
+        }
+        return null;
+    }
+
+    // Источники от новых к старым, начиная с ключа fromKey (null - с начала); таблицы вне
+    // диапазона [fromKey, toKey) пропускаются (вызывается под блокировкой чтения таблиц)
+    private List<Iterator<LsmEntry>> rangeSources(byte[] fromKey, byte[] toKey) {
+        if (fromKey == null) {
+            fromKey = new byte[0];
+        }
+        List<Iterator<LsmEntry>> sources = new ArrayList<>();
+        sources.add(memTable.iterator(fromKey));
+        for (MemTable immutable : immutableMemTables) {
+            sources.add(immutable.iterator(fromKey));
+        }
+        for (List<SSTable> level : levels) {
+            for (SSTable table : level) {
+                if (LsmEntry.KEY_ORDER.compare(table.getLastKey(), fromKey) >= 0
+                        && (toKey == null || LsmEntry.KEY_ORDER.compare(table.getFirstKey(), toKey) < 0)) {
+                    sources.add(table.iterator(fromKey));
+                }
+            }
+        }
+        return sources;
+    }
+
+    // Все источники от новых к старым (вызывается под блокировкой чтения таблиц)
+    private List<Iterator<LsmEntry>> allSources() {
+        List<Iterator<LsmEntry>> sources = new ArrayList<>();
+        sources.add(memTable.iterator());
+        for (MemTable immutable : immutableMemTables) {
+            sources.add(immutable.iterator());
+        }
+        for (List<SSTable> level : levels) {
+            for (SSTable table : level) {
+                sources.add(table.iterator());
+            }
+        }
+        return sources;
+    }
+
+    private CompletableFuture<Void> write(LsmEntry entry) {
+        long memoryNeeded = entry.memorySize();
+        synchronized (writeMonitor) {
+            if (closed) {
+                throw new DataManagerException("LSM storage engine is closed");
+            }
+            checkFlushFailure();
+            awaitMemTableSpace();
+            if (!memoryManager.allocateMemory(memoryNeeded)) {
+                throw new DataManagerException("Memory limit exceeded. Required: " + memoryNeeded +
+                        ", Available: " + (memoryManager.getMaxMemory() - memoryManager.getUsedMemory()));
+            }
+
+            MemTable target = memTable;
+            WriteAheadLog wal = target.getWal();
+            byte[] record = WriteAheadLog.encodeRecord(entry);
+            long position = wal.allocate(record.length);
+            CompletableFuture<Void> written = commitWriter.submit(walSequence.incrementAndGet(),
+                    wal.getChannel(), position, record);
+            target.put(entry, memoryNeeded);
+
+            if (target.getReservedBytes() >= config.getLsmMemtableBytes()) {
+                try {
+                    rotateMemTable();
+                } catch (IOException e) {
+                    throw new DataManagerException("Error creating memtable", e);
+                }
+            }
+            return written;
+        }
+    }
+
+    // Запись приостанавливается, пока поток уплотнения не сбросит накопившиеся memtable
+    private void awaitMemTableSpace() {
+        while (immutableMemTables.size() >= MAX_IMMUTABLE_MEMTABLES) {
+            checkFlushFailure();
+            try {
+                writeMonitor.wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new DataManagerException("Interrupted while waiting for memtable flush", e);
+            }
+        }
+    }
+
+    private void checkFlushFailure() {
+        Exception failure = flushFailure;
+        if (failure != null) {
+            throw new DataManagerException("Memtable flush failed, writes are rejected until it succeeds: " +
+                    failure.getMessage(), failure);
+        }
+    }
+
+    // Вызывается под монитором записи: memtable становится неизменяемой и ставится в очередь на сброс.
+    // Сначала она попадает в список неизменяемых, затем заменяется - читатели не теряют записи.
+    private void rotateMemTable() throws IOException {
+        MemTable full = memTable;
+        MemTable next = newMemTable();
+        immutableMemTables.add(0, full);
+        memTable = next;
+        compactionExecutor.execute(this::flushMemTable);
+    }
+
+    private MemTable newMemTable() throws IOException {
+        long id = nextFileId.getAndIncrement();
+        return new MemTable(new WriteAheadLog(id, new File(directory, String.format("wal-%06d.log", id))));
+    }
+
+    // Фоновая обработка (все изменения уровней выполняются в потоке уплотнения)
+
+    // Сбрасывает самую старую из неизменяемых memtable (задача ставится на каждую memtable).
+    // После ошибки memtable остается в очереди и сбрасывается повторно - более новые не обгоняют
+    // ее, и порядок таблиц уровня 0 сохраняется
+    private void flushMemTable() {
+        MemTable full = null;
+        for (MemTable immutable : immutableMemTables) {
+            full = immutable;
+        }
+        if (full == null) {
+            return;
+        }
+        try {
+            // Записи журнала этой memtable должны быть дописаны до его удаления
+            commitWriter.flush();
+
+            SSTable table = writeTable(full.iterator());
+            tablesLock.writeLock().lock();
+            try {
+                List<List<SSTable>> updated = copyLevels(levels);
+                if (table != null) {
+                    updated.get(0).add(0, table);
+                }
+                saveManifest(updated);
+                levels = freeze(updated);
+                // Таблица уже видна читателям - memtable можно убрать
+                immutableMemTables.remove(full);
+            } catch (IOException | RuntimeException e) {
+                if (table != null) {
+                    table.delete();
+                }
+                throw e;
+            } finally {
+                tablesLock.writeLock().unlock();
+            }
+        } catch (IOException | DataManagerException e) {
+            System.err.println("Error flushing memtable: " + e.getMessage());
+            synchronized (writeMonitor) {
+                flushFailure = e;
+                writeMonitor.notifyAll();
+                // После закрытия повторов нет: записи остаются в журнале и восстанавливаются при запуске
+                if (!closed) {
+                    compactionExecutor.schedule(this::flushMemTable, flushRetryMillis, TimeUnit.MILLISECONDS);
+                }
+            }
+            flushRetryMillis = Math.min(flushRetryMillis * 2, FLUSH_RETRY_MAX_MILLIS);
+            return;
+        }
+        flushRetryMillis = FLUSH_RETRY_MIN_MILLIS;
+
+        try {
+            full.getWal().delete();
+        } catch (IOException e) {
+            System.err.println("Error deleting write-ahead log: " + e.getMessage());
+        }
+        memoryManager.releaseMemory(full.getReservedBytes());
+        flushCount.incrementAndGet();
+        synchronized (writeMonitor) {
+            flushFailure = null;
+            writeMonitor.notifyAll();
+        }
+
+        try {
+            runCompactions();
+        } catch (IOException | DataManagerException e) {
+            System.err.println("Error during LSM compaction: " + e.getMessage());
+        }
+    }
+
+    // Сбрасывает memtable в одну таблицу уровня 0 (надгробия сохраняются)
+    private SSTable writeTable(Iterator<LsmEntry> entries) throws IOException {
+        long id = nextFileId.getAndIncrement();
+        SSTable.Writer writer = new SSTable.Writer(id, tableFile(id));
+        try {
+            while (entries.hasNext()) {
+                writer.add(entries.next());
+            }
+            return writer.finish();
+        } catch (IOException | RuntimeException e) {
+            writer.abort();
+            throw e;
+        }
+    }
+
+    // Выполняет уплотнения, пока какой-либо уровень переполнен
+    private void runCompactions() throws IOException {
+        while (!closed) {
+            List<List<SSTable>> current = levels;
+            if (current.get(0).size() >= config.getLsmLevel0Tables()) {
+                compactLevel(0, current.get(0));
+                continue;
+            }
+            boolean compacted = false;
+            for (int level = 1; level < MAX_LEVELS - 1; level++) {
+                if (levelBytes(current.get(level)) > maxLevelBytes(level)) {
+                    compactLevel(level, Collections.singletonList(pickTable(level, current.get(level))));
+                    compacted = true;
+                    break;
+                }
+            }
+            if (!compacted) {
+                return;
+            }
+        }
+    }
+
+    private long maxLevelBytes(int level) {
+        long bytes = config.getLsmTableBytes();
+        for (int i = 0; i < level; i++) {
+            bytes *= LEVEL_SIZE_MULTIPLIER;
+        }
+        return bytes;
+    }
+
+    private static long levelBytes(List<SSTable> tables) {
+        long bytes = 0;
+        for (SSTable table : tables) {
+            bytes += table.getFileSize();
+        }
+        return bytes;
+    }
+
+    // Таблицы уровня уплотняются по кругу, начиная с ключа, на котором остановилось прошлое уплотнение
+    private SSTable pickTable(int level, List<SSTable> tables) {
+        byte[] pointer = compactPointers[level];
+        if (pointer != null) {
+            for (SSTable table : tables) {
+                if (LsmEntry.KEY_ORDER.compare(table.getFirstKey(), pointer) > 0) {
+                    return table;
+                }
+            }
+        }
+        return tables.get(0);
+    }
+
+    // Сливает таблицы inputs уровня level с пересекающимися таблицами уровня level + 1
+    private void compactLevel(int level, List<SSTable> inputs) throws IOException {
+        byte[] from = inputs.get(0).getFirstKey();
+        byte[] to = inputs.get(0).getLastKey();
+        for (SSTable table : inputs) {
+            if (LsmEntry.KEY_ORDER.compare(table.getFirstKey(), from) < 0) from = table.getFirstKey();
+            if (LsmEntry.KEY_ORDER.compare(table.getLastKey(), to) > 0) to = table.getLastKey();
+        }
+
+        List<List<SSTable>> current = levels;
+        List<SSTable> overlapping = new ArrayList<>();
+        for (SSTable table : current.get(level + 1)) {
+            if (table.overlaps(from, to)) {
+                overlapping.add(table);
+            }
+        }
+
+        // Входные таблицы новее пересекающихся таблиц следующего уровня
+        List<SSTable> obsolete = new ArrayList<>(inputs);
+        obsolete.addAll(overlapping);
+        List<SSTable> outputs = mergeTables(obsolete, isBottomLevel(current, level + 1));
+
+        installCompaction(level, inputs, level + 1, overlapping, outputs);
+        compactPointers[level] = to;
+    }
+
+    // Глубже уровня нет таблиц: надгробия и просроченные записи можно удалять
+    private static boolean isBottomLevel(List<List<SSTable>> current, int level) {
+        for (int deeper = level + 1; deeper < current.size(); deeper++) {
+            if (!current.get(deeper).isEmpty()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Слияние таблиц (от новых к старым) в таблицы размером около lsmTableBytes
+    private List<SSTable> mergeTables(List<SSTable> sources, boolean bottomLevel) throws IOException {
+        List<Iterator<LsmEntry>> iterators = new ArrayList<>();
+        for (SSTable table : sources) {
+            iterators.add(table.iterator());
+        }
+        Iterator<LsmEntry> entries = new MergingIterator(iterators);
+        long now = nowSeconds();
+
+        List<SSTable> outputs = new ArrayList<>();
+        SSTable.Writer writer = null;
+        boolean completed = false;
+        try {
+            while (entries.hasNext()) {
+                LsmEntry entry = entries.next();
+                if (!entry.isLive(now)) {
+                    if (bottomLevel) {
+                        continue;
+                    }
+                    // Просроченное значение заменяется надгробием, чтобы не открыть старую версию
+                    entry = entry.isTombstone() ? entry : LsmEntry.tombstone(entry.key);
+                }
+
+                if (writer == null) {
+                    long id = nextFileId.getAndIncrement();
+                    writer = new SSTable.Writer(id, tableFile(id));
+                }
+                writer.add(entry);
+                compactionRateLimiter.acquire(entry.encodedSize());
+
+                if (writer.getEstimatedSize() >= config.getLsmTableBytes()) {
+                    outputs.add(writer.finish());
+                    writer = null;
+                }
+            }
+            if (writer != null) {
+                SSTable table = writer.finish();
+                writer = null;
+                if (table != null) {
+                    outputs.add(table);
+                }
+            }
+            completed = true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Compaction interrupted");
+        } finally {
+            // Незавершенное уплотнение не оставляет файлов
+            if (!completed) {
+                if (writer != null) {
+                    writer.abort();
+                }
+                for (SSTable table : outputs) {
+                    table.delete();
+                }
+            }
+        }
+        return outputs;
+    }
+
+    // Замена входных таблиц результатом уплотнения: новый манифест - точка фиксации,
+    // после него старые таблицы закрываются и удаляются
+    private void installCompaction(int inputLevel, List<SSTable> inputs, int outputLevel,
+                                   List<SSTable> overlapping, List<SSTable> outputs) throws IOException {
+        tablesLock.writeLock().lock();
+        try {
+            List<List<SSTable>> updated = copyLevels(levels);
+            updated.get(inputLevel).removeAll(inputs);
+            updated.get(outputLevel).removeAll(overlapping);
+            updated.get(outputLevel).addAll(outputs);
+            updated.get(outputLevel).sort((a, b) -> LsmEntry.KEY_ORDER.compare(a.getFirstKey(), b.getFirstKey()));
+            saveManifest(updated);
+            levels = freeze(updated);
+
+            for (SSTable table : inputs) {
+                table.delete();
+            }
+            for (SSTable table : overlapping) {
+                table.delete();
+            }
+        } finally {
+            tablesLock.writeLock().unlock();
+        }
+
+        long written = levelBytes(outputs);
+        compactionCount.incrementAndGet();
+        compactionBytesWritten.addAndGet(written);
+    }
+
+    // Полное уплотнение: все таблицы сливаются в нижний уровень, надгробия удаляются
+    private void compactAll() throws IOException {
+        List<List<SSTable>> current = levels;
+        List<SSTable> sources = new ArrayList<>();
+        int bottom = 1;
+        for (int level = 0; level < current.size(); level++) {
+            sources.addAll(current.get(level));
+            if (level > 0 && !current.get(level).isEmpty()) {
+                bottom = level;
+            }
+        }
+        if (sources.isEmpty()) {
+            return;
+        }
+
+        long sizeBefore = levelBytes(sources);
+        List<SSTable> outputs = mergeTables(sources, true);
+
+        tablesLock.writeLock().lock();
+        try {
+            List<List<SSTable>> updated = copyLevels(levels);
+            for (List<SSTable> level : updated) {
+                level.clear();
+            }
+            updated.get(bottom).addAll(outputs);
+            saveManifest(updated);
+            levels = freeze(updated);
+            for (SSTable table : sources) {
+                table.delete();
+            }
+        } finally {
+            tablesLock.writeLock().unlock();
+        }
+        compactionCount.incrementAndGet();
+        compactionBytesWritten.addAndGet(levelBytes(outputs));
+        System.out.println("LSM compaction completed: " + sources.size() + " tables -> " + outputs.size() +
+                " tables, " + sizeBefore + " -> " + levelBytes(outputs) + " bytes");
+    }
+
+    // Выполняет задачу в потоке уплотнения и ждет ее завершения
+    private void runOnCompactionThread(Callable<Void> task) throws IOException {
+        try {
+            compactionExecutor.submit(task).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DataManagerException("Interrupted while waiting for compaction thread", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new DataManagerException("LSM background task failed", e.getCause());
+        }
+    }
+
+    // Текущая memtable ставится в очередь на сброс (если в ней есть записи)
+    private void scheduleMemTableFlush() throws IOException {
+        synchronized (writeMonitor) {
+            if (!memTable.isEmpty()) {
+                rotateMemTable();
+            }
+        }
+    }
+
+    // Манифест и восстановление
+
+    private File tableFile(long id) {
+        return new File(directory, String.format("%06d.sst", id));
+    }
+
+    private void saveManifest(List<List<SSTable>> tables) throws IOException {
+        File manifest = new File(directory, MANIFEST_FILE);
+        File tmpFile = new File(directory, MANIFEST_FILE + ".tmp");
+        try (FileOutputStream fos = new FileOutputStream(tmpFile);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos))) {
+            out.writeInt(MANIFEST_MAGIC);
+            out.writeInt(MANIFEST_VERSION);
+            out.writeInt(tables.size());
+            for (List<SSTable> level : tables) {
+                out.writeInt(level.size());
+                for (SSTable table : level) {
+                    out.writeLong(table.getId());
+                }
+            }
+            out.flush();
+            fos.getFD().sync();
+        }
+        Files.move(tmpFile.toPath(), manifest.toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // Открывает таблицы из манифеста; файлы, которых нет в манифесте (остатки прерванного
+    // уплотнения), удаляются
+    private void loadTables() throws IOException {
+        List<List<SSTable>> loaded = new ArrayList<>();
+        for (int level = 0; level < MAX_LEVELS; level++) {
+            loaded.add(new ArrayList<>());
+        }
+        Set<Long> referenced = new HashSet<>();
+
+        File manifest = new File(directory, MANIFEST_FILE);
+        if (manifest.exists()) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(manifest)))) {
+                if (in.readInt() != MANIFEST_MAGIC || in.readInt() != MANIFEST_VERSION) {
+                    throw new IOException("Unknown LSM manifest format " + manifest);
+                }
+                int levelCount = in.readInt();
+                for (int level = 0; level < levelCount; level++) {
+                    int count = in.readInt();
+                    for (int i = 0; i < count; i++) {
+                        long id = in.readLong();
+                        loaded.get(level).add(SSTable.open(id, tableFile(id)));
+                        referenced.add(id);
+                    }
+                }
+            }
+        }
+
+        long maxId = 0;
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                long id = fileId(file.getName());
+                maxId = Math.max(maxId, id);
+                if (file.getName().endsWith(".sst") && !referenced.contains(id)) {
+                    Files.delete(file.toPath());
+                }
+            }
+        }
+        nextFileId.set(maxId + 1);
+        levels = freeze(loaded);
+    }
+
+    private static long fileId(String name) {
+        String digits = name.replaceAll("\\D", "");
+        return digits.isEmpty() ? 0 : Long.parseLong(digits);
+    }
+
+    // Журналы memtable, не сброшенных до остановки, применяются и сразу сбрасываются в уровень 0
+    private void recoverWriteAheadLogs() throws IOException {
+        File[] walFiles = directory.listFiles((dir, name) -> name.startsWith("wal-") && name.endsWith(".log"));
+        if (walFiles == null || walFiles.length == 0) {
+            return;
+        }
+        Arrays.sort(walFiles, Comparator.comparingLong(file -> fileId(file.getName())));
+
+        ConcurrentSkipListMap<byte[], LsmEntry> recovered = new ConcurrentSkipListMap<>(LsmEntry.KEY_ORDER);
+        for (File walFile : walFiles) {
+            for (LsmEntry entry : WriteAheadLog.replay(walFile)) {
+                recovered.put(entry.key, entry);
+            }
+        }
+
+        SSTable table = writeTable(recovered.values().iterator());
+        if (table != null) {
+            List<List<SSTable>> updated = copyLevels(levels);
+            updated.get(0).add(0, table);
+            saveManifest(updated);
+            levels = freeze(updated);
+        }
+        for (File walFile : walFiles) {
+            Files.delete(walFile.toPath());
+        }
+        System.out.println("LSM write-ahead log recovered: " + recovered.size() + " records");
+    }
+
+    private static List<List<SSTable>> copyLevels(List<List<SSTable>> source) {
+        List<List<SSTable>> copy = new ArrayList<>();
+        for (List<SSTable> level : source) {
+            copy.add(new ArrayList<>(level));
+        }
+        return copy;
+    }
+
+    private static List<List<SSTable>> freeze(List<List<SSTable>> source) {
+        List<List<SSTable>> frozen = new ArrayList<>();
+        for (List<SSTable> level : source) {
+            frozen.add(Collections.unmodifiableList(new ArrayList<>(level)));
+        }
+        return Collections.unmodifiableList(frozen);
+    }
+
+    private static String describeLevels(List<List<SSTable>> tables) {
+        StringBuilder description = new StringBuilder();
+        for (int level = 0; level < tables.size(); level++) {
+            if (level > 0) {
+                description.append('/');
+            }
+            description.append(tables.get(level).size());
+        }
+        return description.toString();
+    }
+
+    // Уплотнение, сборка мусора, резервная копия
+
+    @Override
+    public void compact() throws IOException {
+        System.out.println("LSM compaction started...");
+        scheduleMemTableFlush();
+        runOnCompactionThread(() -> {
+            compactAll();
+            return null;
+        });
+    }
+
+    // Удаленные и просроченные записи удаляет уплотнение - сборка мусора лишь запускает его проверку
+    @Override
+    public void runGarbageCollector() {
+        if (!closed) {
+            compactionExecutor.execute(() -> {
+                try {
+                    runCompactions();
+                } catch (IOException e) {
+                    System.err.println("Error during LSM compaction: " + e.getMessage());
+                }
+            });
+        }
+    }
+
+    @Override
+    public void backup(String backupPath) throws IOException {
+        System.out.println("Starting backup to: " + backupPath);
+        scheduleMemTableFlush();
+
+        File backupDir = new File(backupPath, directory.getName());
+        if (!backupDir.exists()) {
+            backupDir.mkdirs();
+        }
+        // Копирование в потоке уплотнения: набор таблиц не меняется, пока копия не снята
+        runOnCompactionThread(() -> {
+            // Несброшенные memtable в таблицы не попали - копия была бы неполной
+            Exception failure = flushFailure;
+            if (failure != null) {
+                throw new IOException("Memtable flush failed, backup is not possible: " + failure.getMessage(), failure);
+            }
+            for (List<SSTable> level : levels) {
+                for (SSTable table : level) {
+                    Files.copy(table.getFile().toPath(), new File(backupDir, table.getFile().getName()).toPath(),
+                            StandardCopyOption.REPLACE_EXISTING);
+                }
+            }
+            Files.copy(new File(directory, MANIFEST_FILE).toPath(), new File(backupDir, MANIFEST_FILE).toPath(),
+                    StandardCopyOption.REPLACE_EXISTING);
+            return null;
+        });
+        System.out.println("Backup completed successfully");
+    }
+
+    // Дополнительные методы
+
+    // Кэша значений у LSM-движка нет: последние записи читаются из memtable
+    @Override
+    public void setCacheTTL(int seconds) {
+    }
+
+    // Оценка: записи memtable и таблиц без учета повторных версий ключей и надгробий
+    @Override
+    public int getIndexSize() {
+        long count = memTable.size();
+        for (MemTable immutable : immutableMemTables) {
+            count += immutable.size();
+        }
+        for (List<SSTable> level : levels) {
+            for (SSTable table : level) {
+                count += table.getEntryCount();
+            }
+        }
+        return (int) Math.min(count, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public long getDataFileSize() {
+        long size = 0;
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                size += file.length();
+            }
+        }
+        return size;
+    }
+
+    @Override
+    public void flush() {
+        commitWriter.flush();
+    }
+
+    @Override
+    public BinaryDataManager.SystemStats getSystemStats() {
+        int tableCount = 0;
+        for (List<SSTable> level : levels) {
+            tableCount += level.size();
+        }
+        return new BinaryDataManager.SystemStats(
+                getIndexSize(),
+                getDataFileSize(),
+                0,
+                0,
+                memoryManager.getUsedMemory(),
+                memoryManager.getMaxMemory(),
+                memoryManager.getMemoryUsageRatio(),
+                0, 0, 0, 0, 0,
+                0, 0.0, 0.0, 0,
+                tableCount
+        );
+    }
+
+    public int getTableCount(int level) {
+        return levels.get(level).size();
+    }
+
+    public long getFlushCount() { return flushCount.get(); }
+    public long getCompactionCount() { return compactionCount.get(); }
+    public long getCompactionBytesWritten() { return compactionBytesWritten.get(); }
+
+    @Override
+    public void close() {
+        synchronized (writeMonitor) {
+            if (closed) {
+                return;
+            }
+            System.out.println("Closing LSM storage engine...");
+            // Последняя memtable сбрасывается в таблицу, чтобы при запуске не читать журнал
+            try {
+                if (!memTable.isEmpty()) {
+                    rotateMemTable();
+                }
+            } catch (IOException e) {
+                System.err.println("Error flushing memtable on close: " + e.getMessage());
+            }
+            closed = true;
+        }
+
+        try {
+            compactionExecutor.shutdown();
+            if (!compactionExecutor.awaitTermination(60, TimeUnit.SECONDS)) {
+                compactionExecutor.shutdownNow();
+            }
+
+            commitWriter.close();
+
+            // Пустой журнал последней memtable не нужен
+            MemTable last = memTable;
+            if (last.isEmpty()) {
+                last.getWal().delete();
+            } else {
+                last.getWal().close();
+            }
+            memoryManager.releaseMemory(last.getReservedBytes());
+            for (MemTable immutable : immutableMemTables) {
+                immutable.getWal().close();
+                memoryManager.releaseMemory(immutable.getReservedBytes());
+            }
+
+            for (List<SSTable> level : levels) {
+                for (SSTable table : level) {
+                    table.close();
+                }
+            }
+            System.out.println("LSM storage engine closed successfully");
+        } catch (IOException | InterruptedException e) {
+            throw new DataManagerException("Error closing LSM storage engine", e);
+        }
+    }
+}
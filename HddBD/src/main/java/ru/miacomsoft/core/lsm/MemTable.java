@@ -0,0 +1,52 @@
+package ru.miacomsoft.core.lsm;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Изменяемая часть LSM-дерева: отсортированные записи в памяти и их журнал.
+// После заполнения memtable становится неизменяемой и сбрасывается в SSTable уровня 0.
+final class MemTable {
+    private final ConcurrentSkipListMap<byte[], LsmEntry> entries = new ConcurrentSkipListMap<>(LsmEntry.KEY_ORDER);
+    private final WriteAheadLog wal;
+    // Память, зарезервированная в MemoryManager под записи (освобождается после сброса)
+    private final AtomicLong reservedBytes = new AtomicLong();
+
+    MemTable(WriteAheadLog wal) {
+        this.wal = wal;
+    }
+
+    void put(LsmEntry entry, long memorySize) {
+        entries.put(entry.key, entry);
+        reservedBytes.addAndGet(memorySize);
+    }
+
+    LsmEntry get(byte[] key) {
+        return entries.get(key);
+    }
+
+    Iterator<LsmEntry> iterator() {
+        return entries.values().iterator();
+    }
+
+    // Записи с ключами не меньше fromKey
+    Iterator<LsmEntry> iterator(byte[] fromKey) {
+        return entries.tailMap(fromKey, true).values().iterator();
+    }
+
+    boolean isEmpty() {
+        return entries.isEmpty();
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    long getReservedBytes() {
+        return reservedBytes.get();
+    }
+
+    WriteAheadLog getWal() {
+        return wal;
+    }
+}
@@ -0,0 +1,63 @@
+package ru.miacomsoft.core.lsm;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+// Слияние отсортированных источников в один упорядоченный по ключу поток.
+// Источники передаются от новых к старым: из нескольких версий ключа остается самая новая.
+final class MergingIterator implements Iterator<LsmEntry> {
+    private final PriorityQueue<Head> heads = new PriorityQueue<>();
+
+    private static class Head implements Comparable<Head> {
+        final Iterator<LsmEntry> source;
+        final int age;
+        LsmEntry entry;
+
+        Head(Iterator<LsmEntry> source, int age) {
+            this.source = source;
+            this.age = age;
+        }
+
+        @Override
+        public int compareTo(Head other) {
+            int keyCompare = LsmEntry.KEY_ORDER.compare(entry.key, other.entry.key);
+            return keyCompare != 0 ? keyCompare : Integer.compare(age, other.age);
+        }
+    }
+
+    MergingIterator(List<Iterator<LsmEntry>> sources) {
+        for (int i = 0; i < sources.size(); i++) {
+            advance(new Head(sources.get(i), i));
+        }
+    }
+
+    private void advance(Head head) {
+        if (head.source.hasNext()) {
+            head.entry = head.source.next();
+            heads.add(head);
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        return !heads.isEmpty();
+    }
+
+    @Override
+    public LsmEntry next() {
+        Head head = heads.poll();
+        if (head == null) {
+            throw new NoSuchElementException();
+        }
+        LsmEntry result = head.entry;
+        advance(head);
+
+        // Более старые версии того же ключа пропускаются
+        while (!heads.isEmpty() && LsmEntry.KEY_ORDER.compare(heads.peek().entry.key, result.key) == 0) {
+            advance(heads.poll());
+        }
+        return result;
+    }
+}
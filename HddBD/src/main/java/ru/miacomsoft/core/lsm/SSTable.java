@@ -0,0 +1,314 @@
+package ru.miacomsoft.core.lsm;
+
+import ru.miacomsoft.core.exceptions.DataManagerException;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.zip.CRC32;
+
+// Неизменяемая отсортированная таблица на диске.
+// Формат: блоки данных (~BLOCK_SIZE байт записей LsmEntry), индекс блоков и футер:
+// индекс - [первый ключ] + для каждого блока [последний ключ][смещение][длина][CRC32],
+// футер - [смещение индекса][количество записей][magic].
+// Индекс блоков держится в памяти: точечное чтение - один бинарный поиск и одно чтение блока.
+final class SSTable implements Closeable {
+    static final int BLOCK_SIZE = 4 * 1024;
+
+    private static final int MAGIC = 0x4C534D54; // "LSMT"
+    private static final int FOOTER_SIZE = 8 + 8 + 4;
+
+    private final long id;
+    private final File file;
+    private final FileChannel channel;
+    private final long fileSize;
+    private final long entryCount;
+    private final byte[] firstKey;
+    private final byte[][] blockLastKeys;
+    private final long[] blockOffsets;
+    private final int[] blockLengths;
+    private final int[] blockChecksums;
+
+    private SSTable(long id, File file, FileChannel channel, long fileSize, long entryCount, byte[] firstKey,
+                    byte[][] blockLastKeys, long[] blockOffsets, int[] blockLengths, int[] blockChecksums) {
+        this.id = id;
+        this.file = file;
+        this.channel = channel;
+        this.fileSize = fileSize;
+        this.entryCount = entryCount;
+        this.firstKey = firstKey;
+        this.blockLastKeys = blockLastKeys;
+        this.blockOffsets = blockOffsets;
+        this.blockLengths = blockLengths;
+        this.blockChecksums = blockChecksums;
+    }
+
+    static SSTable open(long id, File file) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            long fileSize = channel.size();
+            if (fileSize < FOOTER_SIZE) {
+                throw new IOException("SSTable is too short: " + file);
+            }
+            ByteBuffer footer = readFully(channel, fileSize - FOOTER_SIZE, FOOTER_SIZE);
+            long indexOffset = footer.getLong();
+            long entryCount = footer.getLong();
+            if (footer.getInt() != MAGIC || indexOffset < 0 || indexOffset > fileSize - FOOTER_SIZE) {
+                throw new IOException("Invalid SSTable footer: " + file);
+            }
+
+            ByteBuffer index = readFully(channel, indexOffset, (int) (fileSize - FOOTER_SIZE - indexOffset));
+            byte[] firstKey = readKey(index);
+            int blockCount = index.getInt();
+            byte[][] blockLastKeys = new byte[blockCount][];
+            long[] blockOffsets = new long[blockCount];
+            int[] blockLengths = new int[blockCount];
+            int[] blockChecksums = new int[blockCount];
+            for (int i = 0; i < blockCount; i++) {
+                blockLastKeys[i] = readKey(index);
+                blockOffsets[i] = index.getLong();
+                blockLengths[i] = index.getInt();
+                blockChecksums[i] = index.getInt();
+            }
+            return new SSTable(id, file, channel, fileSize, entryCount, firstKey,
+                    blockLastKeys, blockOffsets, blockLengths, blockChecksums);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private static byte[] readKey(ByteBuffer buffer) {
+        byte[] key = new byte[buffer.getInt()];
+        buffer.get(key);
+        return key;
+    }
+
+    private static ByteBuffer readFully(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) {
+                throw new EOFException("Unexpected end of SSTable at position " + position);
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    // Точечное чтение: запись ключа (в том числе надгробие) или null, если ключа в таблице нет
+    LsmEntry get(byte[] key) throws IOException {
+        if (!mayContain(key)) {
+            return null;
+        }
+        ByteBuffer block = readBlock(findBlock(key));
+        while (block.hasRemaining()) {
+            LsmEntry entry = LsmEntry.decode(block);
+            int compare = LsmEntry.KEY_ORDER.compare(entry.key, key);
+            if (compare == 0) {
+                return entry;
+            }
+            if (compare > 0) {
+                break;
+            }
+        }
+        return null;
+    }
+
+    // Первый блок, последний ключ которого не меньше искомого
+    private int findBlock(byte[] key) {
+        int low = 0;
+        int high = blockLastKeys.length - 1;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (LsmEntry.KEY_ORDER.compare(blockLastKeys[mid], key) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private ByteBuffer readBlock(int block) throws IOException {
+        ByteBuffer buffer = readFully(channel, blockOffsets[block], blockLengths[block]);
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), 0, blockLengths[block]);
+        if ((int) crc.getValue() != blockChecksums[block]) {
+            throw new IOException("Corrupted block " + block + " in SSTable " + file);
+        }
+        return buffer;
+    }
+
+    boolean mayContain(byte[] key) {
+        return LsmEntry.KEY_ORDER.compare(key, firstKey) >= 0
+                && LsmEntry.KEY_ORDER.compare(key, getLastKey()) <= 0;
+    }
+
+    boolean overlaps(byte[] from, byte[] to) {
+        return LsmEntry.KEY_ORDER.compare(getLastKey(), from) >= 0
+                && LsmEntry.KEY_ORDER.compare(firstKey, to) <= 0;
+    }
+
+    // Последовательный обход всех записей таблицы по блокам
+    Iterator<LsmEntry> iterator() {
+        return iterator(null);
+    }
+
+    // Обход записей с ключами не меньше fromKey (null - с начала таблицы): чтение начинается
+    // с блока, в котором может быть fromKey, предшествующие ему записи блока пропускаются
+    Iterator<LsmEntry> iterator(byte[] fromKey) {
+        return new Iterator<LsmEntry>() {
+            private int nextBlock = fromKey != null ? findBlock(fromKey) : 0;
+            private ByteBuffer block;
+            private LsmEntry next;
+
+            @Override
+            public boolean hasNext() {
+                while (next == null) {
+                    while (block == null || !block.hasRemaining()) {
+                        if (nextBlock >= blockOffsets.length) {
+                            return false;
+                        }
+                        try {
+                            block = readBlock(nextBlock++);
+                        } catch (IOException e) {
+                            throw new DataManagerException("Error reading SSTable " + file, e);
+                        }
+                    }
+                    LsmEntry entry = LsmEntry.decode(block);
+                    if (fromKey == null || LsmEntry.KEY_ORDER.compare(entry.key, fromKey) >= 0) {
+                        next = entry;
+                    }
+                }
+                return true;
+            }
+
+            @Override
+            public LsmEntry next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                LsmEntry entry = next;
+                next = null;
+                return entry;
+            }
+        };
+    }
+
+    long getId() { return id; }
+    File getFile() { return file; }
+    long getFileSize() { return fileSize; }
+    long getEntryCount() { return entryCount; }
+    byte[] getFirstKey() { return firstKey; }
+    byte[] getLastKey() { return blockLastKeys[blockLastKeys.length - 1]; }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    void delete() throws IOException {
+        close();
+        Files.deleteIfExists(file.toPath());
+    }
+
+    // Запись таблицы: записи передаются строго по возрастанию ключа
+    static final class Writer {
+        private final long id;
+        private final File file;
+        private final FileOutputStream fileStream;
+        private final DataOutputStream out;
+        private final ByteArrayOutputStream block = new ByteArrayOutputStream(BLOCK_SIZE * 2);
+        private final List<byte[]> blockLastKeys = new ArrayList<>();
+        private final List<long[]> blockPositions = new ArrayList<>(); // [смещение, длина, CRC32]
+        private final CRC32 crc = new CRC32();
+        private byte[] firstKey;
+        private byte[] lastKey;
+        private long position;
+        private long entryCount;
+
+        Writer(long id, File file) throws IOException {
+            this.id = id;
+            this.file = file;
+            this.fileStream = new FileOutputStream(file);
+            this.out = new DataOutputStream(new BufferedOutputStream(fileStream, 64 * 1024));
+        }
+
+        void add(LsmEntry entry) throws IOException {
+            byte[] encoded = entry.encode();
+            if (block.size() > 0 && block.size() + encoded.length > BLOCK_SIZE) {
+                finishBlock();
+            }
+            block.write(encoded);
+            if (firstKey == null) {
+                firstKey = entry.key;
+            }
+            lastKey = entry.key;
+            entryCount++;
+        }
+
+        private void finishBlock() throws IOException {
+            byte[] data = block.toByteArray();
+            crc.reset();
+            crc.update(data);
+            out.write(data);
+            blockLastKeys.add(lastKey);
+            blockPositions.add(new long[]{position, data.length, (int) crc.getValue()});
+            position += data.length;
+            block.reset();
+        }
+
+        long getEstimatedSize() {
+            return position + block.size();
+        }
+
+        long getEntryCount() {
+            return entryCount;
+        }
+
+        // Дописывает индекс и футер, сбрасывает файл на диск и открывает таблицу для чтения.
+        // Пустая таблица не создается - возвращается null.
+        SSTable finish() throws IOException {
+            if (entryCount == 0) {
+                abort();
+                return null;
+            }
+            if (block.size() > 0) {
+                finishBlock();
+            }
+
+            long indexOffset = position;
+            out.writeInt(firstKey.length);
+            out.write(firstKey);
+            out.writeInt(blockLastKeys.size());
+            for (int i = 0; i < blockLastKeys.size(); i++) {
+                byte[] key = blockLastKeys.get(i);
+                long[] block = blockPositions.get(i);
+                out.writeInt(key.length);
+                out.write(key);
+                out.writeLong(block[0]);
+                out.writeInt((int) block[1]);
+                out.writeInt((int) block[2]);
+            }
+            out.writeLong(indexOffset);
+            out.writeLong(entryCount);
+            out.writeInt(MAGIC);
+            out.flush();
+            fileStream.getFD().sync();
+            out.close();
+            return SSTable.open(id, file);
+        }
+
+        void abort() throws IOException {
+            out.close();
+            Files.deleteIfExists(file.toPath());
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package ru.miacomsoft.core.lsm;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+// Журнал записей memtable. Каждая запись: [длина][CRC32][запись LsmEntry].
+// Сами записи в файл выполняет GroupCommitWriter, журнал только выдает позиции.
+final class WriteAheadLog implements Closeable {
+    private static final int RECORD_HEADER_SIZE = 4 + 4;
+
+    private final long id;
+    private final File file;
+    private final FileChannel channel;
+    private long position;
+
+    WriteAheadLog(long id, File file) throws IOException {
+        this.id = id;
+        this.file = file;
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    // Вызывается под монитором записи движка, поэтому позиции выдаются в порядке постановки в очередь
+    long allocate(int recordLength) {
+        long recordPosition = position;
+        position += recordLength;
+        return recordPosition;
+    }
+
+    static byte[] encodeRecord(LsmEntry entry) {
+        int length = entry.encodedSize();
+        ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_SIZE + length);
+        record.putInt(length);
+        record.putInt(0);
+        entry.encode(record);
+
+        CRC32 crc = new CRC32();
+        crc.update(record.array(), RECORD_HEADER_SIZE, length);
+        record.putInt(4, (int) crc.getValue());
+        return record.array();
+    }
+
+    // Записи журнала по порядку. Чтение останавливается на недописанной или поврежденной
+    // записи - это хвост, не попавший на диск при сбое.
+    static List<LsmEntry> replay(File file) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+        List<LsmEntry> entries = new ArrayList<>();
+        CRC32 crc = new CRC32();
+        while (buffer.remaining() >= RECORD_HEADER_SIZE) {
+            int length = buffer.getInt();
+            int checksum = buffer.getInt();
+            if (length <= 0 || length > buffer.remaining()) {
+                System.err.println("Warning: Truncated write-ahead log " + file);
+                break;
+            }
+            crc.reset();
+            crc.update(buffer.array(), buffer.position(), length);
+            if ((int) crc.getValue() != checksum) {
+                System.err.println("Warning: Corrupted record in write-ahead log " + file);
+                break;
+            }
+            entries.add(LsmEntry.decode(buffer.slice(buffer.position(), length)));
+            buffer.position(buffer.position() + length);
+        }
+        return entries;
+    }
+
+    long getId() { return id; }
+    File getFile() { return file; }
+    FileChannel getChannel() { return channel; }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    void delete() throws IOException {
+        close();
+        Files.deleteIfExists(file.toPath());
+    }
+}
@@ -5,6 +5,7 @@ import ru.miacomsoft.core.server.protocol.*;
 
 import java.io.*;
 import java.net.Socket;
+import java.util.ArrayList;
 import java.util.List;
 
 public class ClientHandler implements Runnable {
@@ -12,6 +13,13 @@ public class ClientHandler implements Runnable {
     private final BinaryDataManager dataManager;
     private final MemoryManager memoryManager;
 
+    // Верхний предел размера страницы просмотра диапазона в одном ответе
+    private static final int MAX_SCAN_PAGE_SIZE = 10_000;
+
+    // Размер части потокового ответа FIND
+    private static final int FIND_CHUNK_ENTRIES = 1000;
+    private static final long FIND_CHUNK_BYTES = 1024 * 1024; // 1 MB
+
     public ClientHandler(Socket socket, BinaryDataManager dataManager, MemoryManager memoryManager) {
         this.clientSocket = socket;
         this.dataManager = dataManager;
@@ -37,14 +45,9 @@ public class ClientHandler implements Runnable {
                 byte[] requestData = new byte[requestLength];
                 dis.readFully(requestData);
 
-                // Обрабатываем запрос
-                byte[] responseData = processRequest(requestData);
-
-                // Отправляем ответ
+                // Обрабатываем запрос и отправляем ответ (FIND - несколькими частями)
                 DataOutputStream dos = new DataOutputStream(output);
-                dos.writeInt(responseData.length);
-                dos.write(responseData);
-                dos.flush();
+                processRequest(requestData, dos);
             }
 
         } catch (IOException e) {
@@ -59,42 +62,73 @@ public class ClientHandler implements Runnable {
         }
     }
 
-    private byte[] processRequest(byte[] requestData) {
+    private void processRequest(byte[] requestData, DataOutputStream dos) throws IOException {
+        Response response;
         try {
             Request request = ProtocolCodec.decodeRequest(requestData);
             System.out.println("Processing request: " + request);
 
-            Response response = handleCommand(request);
-            return ProtocolCodec.encodeResponse(response);
+            if (request.getCommand() == Command.FIND) {
+                streamFind(request, dos);
+                return;
+            }
+            response = handleCommand(request);
 
         } catch (Exception e) {
             System.err.println("Error processing request: " + e.getMessage());
-            try {
-                return ProtocolCodec.encodeResponse(new Response(false, "Error: " + e.getMessage()));
-            } catch (IOException ex) {
-                return new byte[0]; // Fallback
+            response = new Response(false, "Error: " + e.getMessage());
+        }
+        writeResponse(dos, response);
+    }
+
+    private static void writeResponse(DataOutputStream dos, Response response) throws IOException {
+        byte[] responseData = ProtocolCodec.encodeResponse(response);
+        dos.writeInt(responseData.length);
+        dos.write(responseData);
+        dos.flush();
+    }
+
+    // Результаты FIND отправляются частями по мере обхода курсора: не больше FIND_CHUNK_ENTRIES
+    // записей и примерно FIND_CHUNK_BYTES байт в части, у всех частей, кроме последней, hasMore.
+    // Ошибка во время обхода - последняя часть с success = false
+    private void streamFind(Request request, DataOutputStream dos) throws IOException {
+        FindOptions options = request.getFindOptions() != null ? request.getFindOptions() : FindOptions.defaults();
+        List<ScanPage.Entry> chunk = new ArrayList<>();
+        long chunkBytes = 0;
+        try (FindCursor cursor = dataManager.find(request.getSearchQuery(), options)) {
+            while (cursor.hasNext()) {
+                ScanPage.Entry entry = cursor.next();
+                chunk.add(entry);
+                chunkBytes += (entry.getKey() != null ? entry.getKey().length : 0)
+                        + (entry.getValue() != null ? entry.getValue().length : 0);
+                if (chunk.size() >= FIND_CHUNK_ENTRIES || chunkBytes >= FIND_CHUNK_BYTES) {
+                    // Часть отправляется, только когда известно, что за ней есть еще записи
+                    if (!cursor.hasNext()) {
+                        break;
+                    }
+                    writeResponse(dos, Response.chunk(new ScanPage(chunk, null), true));
+                    chunk = new ArrayList<>();
+                    chunkBytes = 0;
+                }
             }
+        } catch (Exception e) {
+            System.err.println("Error processing request: " + e.getMessage());
+            writeResponse(dos, new Response(false, "Error: " + e.getMessage()));
+            return;
         }
+        writeResponse(dos, Response.chunk(new ScanPage(chunk, null), false));
     }
 
     private Response handleCommand(Request request) {
         try {
             switch (request.getCommand()) {
                 case PUT:
-                    // Выделяем память под операцию
-                    long memoryNeeded = estimateMemoryUsage(request);
-                    if (!memoryManager.allocateMemory(memoryNeeded)) {
-                        return new Response(false, "Memory limit exceeded");
-                    }
-
-                    try {
-                        dataManager.put(request.getKey(), request.getValue(),
-                                request.getExpiryTime(), request.getNameVector(),
-                                request.getDataVector());
-                        return new Response(true, "Data stored successfully");
-                    } finally {
-                        memoryManager.releaseMemory(memoryNeeded);
-                    }
+                    // Память под операцию резервирует движок (при нехватке - вытесняя значения
+                    // из кэша); ответ отправляется после групповой записи на диск
+                    dataManager.put(request.getKey(), request.getValue(),
+                            request.getExpiryTime(), request.getNameVector(),
+                            request.getDataVector()).join();
+                    return new Response(true, "Data stored successfully");
 
                 case GET:
                     byte[] data = dataManager.get(request.getKey());
@@ -105,40 +139,41 @@ public class ClientHandler implements Runnable {
                     }
 
                 case UPDATE:
-                    memoryNeeded = estimateMemoryUsage(request);
-                    if (!memoryManager.allocateMemory(memoryNeeded)) {
-                        return new Response(false, "Memory limit exceeded");
-                    }
-
-                    try {
-                        dataManager.update(request.getKey(), request.getValue());
-                        return new Response(true, "Data updated successfully");
-                    } finally {
-                        memoryManager.releaseMemory(memoryNeeded);
-                    }
+                    dataManager.update(request.getKey(), request.getValue()).join();
+                    return new Response(true, "Data updated successfully");
 
                 case DELETE:
-                    dataManager.delete(request.getKey());
+                    dataManager.delete(request.getKey()).join();
                     return new Response(true, "Data deleted successfully");
 
-                case FIND:
-                    List<byte[]> results = dataManager.find(request.getSearchQuery());
-                    return new Response(true, "Search completed", results);
+                case SCAN:
+                    ScanPage page = dataManager.scan(request.getKey(), request.getToKey(),
+                            request.getPageToken(), scanPageSize(request.getLimit()));
+                    return new Response(true, "Scan completed", page);
+
+                case SCAN_PREFIX:
+                    // Пустой префикс приходит как отсутствующий ключ
+                    byte[] prefix = request.getKey() != null ? request.getKey() : new byte[0];
+                    ScanPage prefixPage = dataManager.scanPrefix(prefix, request.getPageToken(),
+                            scanPageSize(request.getLimit()));
+                    return new Response(true, "Scan completed", prefixPage);
 
                 case PING:
                     return new Response(true, "PONG");
 
                 case STATS:
-                    // Исправлено: убрано дублирование переменной stats
+                    // Исправлено: убрано дублирование переменной stats.
+                    // Статистика берется у движка хранения, чтобы команда работала с любым движком
+                    BinaryDataManager.SystemStats engineStats = dataManager.getSystemStats();
                     Response.SystemStats systemStats = new Response.SystemStats(
-                            dataManager.getIndexSize(),
-                            dataManager.getDataFileSize(),
-                            dataManager.getFreeSpaceManager().getFreeSpaceCount(),
-                            dataManager.getFreeSpaceManager().getTotalFreeSpace(),
+                            engineStats.getIndexSize(),
+                            engineStats.getDataFileSize(),
+                            engineStats.getFreeSpaceBlocks(),
+                            engineStats.getTotalFreeSpace(),
                             memoryManager.getUsedMemory(),
                             memoryManager.getMaxMemory(),
                             memoryManager.getMemoryUsageRatio(),
-                            dataManager.getCache().getSize()
+                            engineStats.getCacheSize()
                     );
                     return new Response(true, "System statistics", systemStats);
 
@@ -178,12 +213,11 @@ public class ClientHandler implements Runnable {
         }
     }
 
-    private long estimateMemoryUsage(Request request) {
-        long usage = 0;
-        if (request.getKey() != null) usage += request.getKey().length;
-        if (request.getValue() != null) usage += request.getValue().length;
-        if (request.getNameVector() != null) usage += request.getNameVector().length * 4;
-        if (request.getDataVector() != null) usage += request.getDataVector().length * 4;
-        return usage + 1024; // +1KB для служебных структур
+    // Размер страницы не задан - размер по умолчанию; слишком большой - ограничивается
+    private static int scanPageSize(int limit) {
+        if (limit <= 0) {
+            return BinaryDataManager.DEFAULT_SCAN_PAGE_SIZE;
+        }
+        return Math.min(limit, MAX_SCAN_PAGE_SIZE);
     }
-}
\ No newline at end of file
+}
@@ -17,7 +17,9 @@ public enum Command {
     SQL_UPDATE(14),       // Обновление данных
     SQL_DELETE(15),       // Удаление данных
     SQL_CREATE_INDEX(16), // Создание индекса
-    SQL_ADD_RELATION(17); // Добавление связи
+    SQL_ADD_RELATION(17), // Добавление связи
+    SCAN(18),             // Страница диапазона ключей [key, toKey)
+    SCAN_PREFIX(19);      // Страница ключей с префиксом key
 
     private final int code;
 
@@ -1,5 +1,7 @@
 package ru.miacomsoft.core.server.protocol;
 
+import ru.miacomsoft.core.FindOptions;
+import ru.miacomsoft.core.ScanPage;
 import ru.miacomsoft.core.SearchQuery;
 import ru.miacomsoft.core.SqlQuery;
 import ru.miacomsoft.core.SqlResult;
@@ -71,6 +73,22 @@ public class ProtocolCodec {
             dos.writeBoolean(false);
         }
 
+        // Scan: toKey, page token, limit
+        writeBytes(dos, request.getToKey());
+        writeBytes(dos, request.getPageToken());
+        dos.writeInt(request.getLimit());
+
+        // Find options
+        if (request.getFindOptions() != null) {
+            dos.writeBoolean(true);
+            FindOptions options = request.getFindOptions();
+            dos.writeInt(options.getOffset());
+            dos.writeInt(options.getLimit());
+            dos.writeInt(options.getProjection().ordinal());
+        } else {
+            dos.writeBoolean(false);
+        }
+
         dos.flush();
         return baos.toByteArray();
     }
@@ -131,6 +149,21 @@ public class ProtocolCodec {
             sqlQuery = decodeSqlQuery(dis);
         }
 
+        // Scan
+        byte[] toKey = readBytes(dis);
+        byte[] pageToken = readBytes(dis);
+        int limit = dis.readInt();
+
+        // Find options
+        FindOptions findOptions = null;
+        if (dis.readBoolean()) {
+            findOptions = FindOptions.builder()
+                    .offset(dis.readInt())
+                    .limit(dis.readInt())
+                    .projection(FindOptions.Projection.values()[dis.readInt()])
+                    .build();
+        }
+
         return new Request.Builder()
                 .command(command)
                 .key(key)
@@ -140,6 +173,10 @@ public class ProtocolCodec {
                 .nameVector(nameVector)
                 .dataVector(dataVector)
                 .sqlQuery(sqlQuery)
+                .toKey(toKey)
+                .pageToken(pageToken)
+                .limit(limit)
+                .findOptions(findOptions)
                 .build();
     }
 
@@ -202,6 +239,16 @@ public class ProtocolCodec {
             dos.writeBoolean(false);
         }
 
+        // Scan page
+        if (response.getScanPage() != null) {
+            dos.writeBoolean(true);
+            encodeScanPage(dos, response.getScanPage());
+        } else {
+            dos.writeBoolean(false);
+        }
+
+        dos.writeBoolean(response.hasMore());
+
         dos.flush();
         return baos.toByteArray();
     }
@@ -272,7 +319,56 @@ public class ProtocolCodec {
             sqlResult = decodeSqlResult(dis);
         }
 
-        return new Response(success, message, responseData, results, stats, sqlResult);
+        // Scan page
+        ScanPage scanPage = null;
+        if (dis.readBoolean()) {
+            scanPage = decodeScanPage(dis);
+        }
+
+        boolean hasMore = dis.readBoolean();
+
+        return new Response(success, message, responseData, results, stats, sqlResult, scanPage, hasMore);
+    }
+
+    // Методы для работы с ScanPage: [число записей]([ключ][значение])*[токен следующей страницы]
+    private static void encodeScanPage(DataOutputStream dos, ScanPage page) throws IOException {
+        dos.writeInt(page.getEntries().size());
+        for (ScanPage.Entry entry : page.getEntries()) {
+            writeBytes(dos, entry.getKey());
+            writeBytes(dos, entry.getValue());
+        }
+        writeBytes(dos, page.getNextPageToken());
+    }
+
+    private static ScanPage decodeScanPage(DataInputStream dis) throws IOException {
+        int count = dis.readInt();
+        List<ScanPage.Entry> entries = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            byte[] key = readBytes(dis);
+            byte[] value = readBytes(dis);
+            entries.add(new ScanPage.Entry(key, value));
+        }
+        return new ScanPage(entries, readBytes(dis));
+    }
+
+    // Массив байт с длиной; null передается как -1 (пустой массив - как пустой)
+    private static void writeBytes(DataOutputStream dos, byte[] bytes) throws IOException {
+        if (bytes == null) {
+            dos.writeInt(-1);
+            return;
+        }
+        dos.writeInt(bytes.length);
+        dos.write(bytes);
+    }
+
+    private static byte[] readBytes(DataInputStream dis) throws IOException {
+        int length = dis.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        dis.readFully(bytes);
+        return bytes;
     }
 
     // Методы для работы с SqlQuery
@@ -1,5 +1,6 @@
 package ru.miacomsoft.core.server.protocol;
 
+import ru.miacomsoft.core.FindOptions;
 import ru.miacomsoft.core.SearchQuery;
 import ru.miacomsoft.core.SqlQuery;
 
@@ -14,6 +15,11 @@ public class Request {
     private final float[] nameVector;
     private final float[] dataVector;
     private final SqlQuery sqlQuery; // Добавляем SQL запрос
+    // Просмотр диапазона: верхняя граница (не включительно), токен страницы, размер страницы
+    private final byte[] toKey;
+    private final byte[] pageToken;
+    private final int limit;
+    private final FindOptions findOptions; // Смещение, лимит и проекция результатов FIND
 
     private Request(Builder builder) {
         this.command = builder.command;
@@ -24,6 +30,10 @@ public class Request {
         this.nameVector = builder.nameVector;
         this.dataVector = builder.dataVector;
         this.sqlQuery = builder.sqlQuery;
+        this.toKey = builder.toKey;
+        this.pageToken = builder.pageToken;
+        this.limit = builder.limit;
+        this.findOptions = builder.findOptions;
     }
 
     public static class Builder {
@@ -35,6 +45,10 @@ public class Request {
         private float[] nameVector;
         private float[] dataVector;
         private SqlQuery sqlQuery;
+        private byte[] toKey;
+        private byte[] pageToken;
+        private int limit;
+        private FindOptions findOptions;
 
         public Builder command(Command command) {
             this.command = command;
@@ -76,6 +90,26 @@ public class Request {
             return this;
         }
 
+        public Builder toKey(byte[] toKey) {
+            this.toKey = toKey;
+            return this;
+        }
+
+        public Builder pageToken(byte[] pageToken) {
+            this.pageToken = pageToken;
+            return this;
+        }
+
+        public Builder limit(int limit) {
+            this.limit = limit;
+            return this;
+        }
+
+        public Builder findOptions(FindOptions findOptions) {
+            this.findOptions = findOptions;
+            return this;
+        }
+
         public Request build() {
             return new Request(this);
         }
@@ -90,6 +124,10 @@ public class Request {
     public float[] getNameVector() { return nameVector; }
     public float[] getDataVector() { return dataVector; }
     public SqlQuery getSqlQuery() { return sqlQuery; }
+    public byte[] getToKey() { return toKey; }
+    public byte[] getPageToken() { return pageToken; }
+    public int getLimit() { return limit; }
+    public FindOptions getFindOptions() { return findOptions; }
 
     @Override
     public String toString() {
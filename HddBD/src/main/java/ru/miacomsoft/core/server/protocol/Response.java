@@ -1,5 +1,6 @@
 package ru.miacomsoft.core.server.protocol;
 
+import ru.miacomsoft.core.ScanPage;
 import ru.miacomsoft.core.SqlResult;
 
 import java.util.Arrays;
@@ -12,6 +13,8 @@ public class Response {
     private final List<byte[]> results;
     private final SystemStats stats;
     private final SqlResult sqlResult; // Добавляем SQL результат
+    private final ScanPage scanPage;
+    private final boolean hasMore; // За ответом следуют еще части (потоковая выдача FIND)
 
     public Response(boolean success, String message) {
         this(success, message, null, null, null, null);
@@ -33,13 +36,35 @@ public class Response {
         this(success, message, null, null, null, sqlResult);
     }
 
+    public Response(boolean success, String message, ScanPage scanPage) {
+        this(success, message, null, null, null, null, scanPage);
+    }
+
     public Response(boolean success, String message, byte[] data, List<byte[]> results, SystemStats stats, SqlResult sqlResult) {
+        this(success, message, data, results, stats, sqlResult, null);
+    }
+
+    public Response(boolean success, String message, byte[] data, List<byte[]> results, SystemStats stats,
+                    SqlResult sqlResult, ScanPage scanPage) {
+        this(success, message, data, results, stats, sqlResult, scanPage, false);
+    }
+
+    // Часть потокового ответа: записи части в scanPage
+    public static Response chunk(ScanPage entries, boolean hasMore) {
+        return new Response(true, hasMore ? "Partial results" : "Search completed",
+                null, null, null, null, entries, hasMore);
+    }
+
+    public Response(boolean success, String message, byte[] data, List<byte[]> results, SystemStats stats,
+                    SqlResult sqlResult, ScanPage scanPage, boolean hasMore) {
         this.success = success;
         this.message = message;
         this.data = data;
         this.results = results;
         this.stats = stats;
         this.sqlResult = sqlResult;
+        this.scanPage = scanPage;
+        this.hasMore = hasMore;
     }
 
     // Getters
@@ -49,6 +74,8 @@ public class Response {
     public List<byte[]> getResults() { return results; }
     public SystemStats getStats() { return stats; }
     public SqlResult getSqlResult() { return sqlResult; }
+    public ScanPage getScanPage() { return scanPage; }
+    public boolean hasMore() { return hasMore; }
 
     public static class SystemStats {
         private final int indexSize;
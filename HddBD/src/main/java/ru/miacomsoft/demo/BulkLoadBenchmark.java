@@ -0,0 +1,74 @@
+package ru.miacomsoft.demo;
+
+import ru.miacomsoft.core.*;
+
+import java.io.File;
+import java.util.Random;
+
+// Сравнение загрузки ключей через put() и через пакетный загрузчик
+public class BulkLoadBenchmark {
+    private static final int KEY_COUNT = 500_000;
+    private static final int DATA_SIZE = 200;
+
+    public static void main(String[] args) throws Exception {
+        System.out.println("=== Bulk Load Benchmark ===");
+        System.out.println("Keys: " + KEY_COUNT + ", value size: " + DATA_SIZE + " bytes");
+
+        double putSeconds = runBenchmark(false);
+        double bulkSeconds = runBenchmark(true);
+
+        System.out.printf("%nSpeedup: %.2fx%n", putSeconds / bulkSeconds);
+    }
+
+    private static double runBenchmark(boolean bulk) throws Exception {
+        File dir = new File("./storage/bulk-benchmark");
+        deleteDirectory(dir);
+        dir.mkdirs();
+
+        StorageConfig config = StorageConfig.builder()
+                .fsyncPolicy(FsyncPolicy.BATCH)
+                .build();
+
+        try (BinaryDataManager manager = new BinaryDataManager(
+                new File(dir, "data.bin").getPath(), new File(dir, "index.idx").getPath(),
+                new MemoryManager(1024L * 1024 * 1024), config)) {
+            Random random = new Random(42);
+            byte[] value = new byte[DATA_SIZE];
+
+            long start = System.nanoTime();
+            if (bulk) {
+                try (BulkLoader loader = manager.bulkLoader()) {
+                    for (int i = 0; i < KEY_COUNT; i++) {
+                        random.nextBytes(value);
+                        loader.add(("bulk:" + i).getBytes(), value);
+                    }
+                    loader.finish();
+                }
+            } else {
+                for (int i = 0; i < KEY_COUNT; i++) {
+                    random.nextBytes(value);
+                    manager.put(("bulk:" + i).getBytes(), value.clone());
+                }
+                manager.flush();
+            }
+            double seconds = (System.nanoTime() - start) / 1_000_000_000.0;
+
+            System.out.printf("%n--- %s ---%n", bulk ? "Bulk loader" : "put()");
+            System.out.printf("  %.1f s, %,.0f keys/sec, index size: %d%n",
+                    seconds, KEY_COUNT / seconds, manager.getIndexSize());
+            return seconds;
+        } finally {
+            deleteDirectory(dir);
+        }
+    }
+
+    private static void deleteDirectory(File dir) {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+}
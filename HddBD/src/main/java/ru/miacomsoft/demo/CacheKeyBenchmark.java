@@ -0,0 +1,107 @@
+package ru.miacomsoft.demo;
+
+import ru.miacomsoft.core.DataCache;
+import ru.miacomsoft.core.MemoryManager;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Сравнение выделения памяти на один поиск в кэше: прежний ключ Arrays.toString(key)
+// против бинарного ключа DataCache. Замер через com.sun.management.ThreadMXBean.
+public class CacheKeyBenchmark {
+    private static final int KEY_COUNT = 10000;
+    private static final int KEY_SIZE = 32;
+    private static final int WARMUP_ITERATIONS = 2_000_000;
+    private static final int ITERATIONS = 5_000_000;
+
+    private static volatile Object sink;
+
+    public static void main(String[] args) throws Exception {
+        System.out.println("=== Cache Key Benchmark ===");
+        System.out.println("Keys: " + KEY_COUNT + ", key size: " + KEY_SIZE + " bytes, lookups: " + ITERATIONS);
+
+        byte[][] keys = new byte[KEY_COUNT][];
+        for (int i = 0; i < KEY_COUNT; i++) {
+            keys[i] = Arrays.copyOf(("cache-key-" + i).getBytes(), KEY_SIZE);
+        }
+        byte[] value = new byte[128];
+
+        // Прежний вариант: ключ - строковое представление массива
+        Map<String, byte[]> stringKeyed = new ConcurrentHashMap<>();
+        for (byte[] key : keys) {
+            stringKeyed.put(Arrays.toString(key), value);
+        }
+
+        // Текущий DataCache
+        MemoryManager memoryManager = new MemoryManager(256L * 1024 * 1024);
+        DataCache cache = new DataCache(memoryManager, 128L * 1024 * 1024);
+        for (byte[] key : keys) {
+            cache.put(key, value, null);
+        }
+
+        try {
+            runStringKeyed(stringKeyed, keys, WARMUP_ITERATIONS);
+            runDataCache(cache, keys, WARMUP_ITERATIONS);
+
+            Result before = measure(() -> runStringKeyed(stringKeyed, keys, ITERATIONS));
+            Result after = measure(() -> runDataCache(cache, keys, ITERATIONS));
+
+            print("Arrays.toString key", before);
+            print("binary key (DataCache)", after);
+            System.out.printf("%nAllocation reduction: %.1fx%n",
+                    before.bytesPerOp() / Math.max(after.bytesPerOp(), 1.0));
+        } finally {
+            cache.close();
+            memoryManager.close();
+        }
+    }
+
+    private static void runStringKeyed(Map<String, byte[]> map, byte[][] keys, int iterations) {
+        for (int i = 0; i < iterations; i++) {
+            sink = map.get(Arrays.toString(keys[i % keys.length]));
+        }
+    }
+
+    private static void runDataCache(DataCache cache, byte[][] keys, int iterations) {
+        for (int i = 0; i < iterations; i++) {
+            sink = cache.get(keys[i % keys.length]);
+        }
+    }
+
+    private static Result measure(Runnable body) {
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+
+        long allocatedBefore = threads.getThreadAllocatedBytes(threadId);
+        long start = System.nanoTime();
+        body.run();
+        long elapsed = System.nanoTime() - start;
+        long allocated = threads.getThreadAllocatedBytes(threadId) - allocatedBefore;
+        return new Result(allocated, elapsed);
+    }
+
+    private static void print(String name, Result result) {
+        System.out.printf("%n--- %s ---%n", name);
+        System.out.printf("  allocated: %,d bytes (%.1f bytes/op)%n", result.allocatedBytes, result.bytesPerOp());
+        System.out.printf("  time: %.1f ns/op, throughput: %,.0f ops/sec%n",
+                result.elapsedNanos / (double) ITERATIONS,
+                ITERATIONS / (result.elapsedNanos / 1_000_000_000.0));
+    }
+
+    private static class Result {
+        final long allocatedBytes;
+        final long elapsedNanos;
+
+        Result(long allocatedBytes, long elapsedNanos) {
+            this.allocatedBytes = allocatedBytes;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        double bytesPerOp() {
+            return allocatedBytes / (double) ITERATIONS;
+        }
+    }
+}
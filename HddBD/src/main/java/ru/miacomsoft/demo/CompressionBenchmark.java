@@ -0,0 +1,91 @@
+package ru.miacomsoft.demo;
+
+import ru.miacomsoft.core.*;
+
+import java.io.File;
+import java.util.Random;
+
+// Сравнение хранения JSON-значений без сжатия, со сжатием Deflater и с обученным словарем:
+// размер файлов данных, объем кэша и скорость записи/чтения
+public class CompressionBenchmark {
+    private static final int KEY_COUNT = 50000;
+    private static final int READS = 200_000;
+
+    public static void main(String[] args) throws Exception {
+        System.out.println("=== Compression Benchmark ===");
+        System.out.println("Keys: " + KEY_COUNT + ", reads: " + READS);
+
+        runBenchmark(CompressionCodec.NONE);
+        runBenchmark(CompressionCodec.DEFLATE);
+        runBenchmark(CompressionCodec.DEFLATE_DICTIONARY);
+    }
+
+    private static void runBenchmark(CompressionCodec codec) throws Exception {
+        File dir = new File("./storage/compression-benchmark");
+        deleteDirectory(dir);
+        dir.mkdirs();
+
+        StorageConfig config = StorageConfig.builder()
+                .fsyncPolicy(FsyncPolicy.NEVER)
+                .compression(codec)
+                .compressionMinBytes(64)
+                .build();
+
+        try (BinaryDataManager manager = new BinaryDataManager(
+                new File(dir, "data.bin").getPath(), new File(dir, "index.idx").getPath(),
+                new MemoryManager(1024L * 1024 * 1024), config)) {
+            Random random = new Random(42);
+            long rawBytes = 0;
+
+            long start = System.nanoTime();
+            for (int i = 0; i < KEY_COUNT; i++) {
+                byte[] value = createJson(i, random).getBytes();
+                rawBytes += value.length;
+                manager.put(("json:" + i).getBytes(), value);
+            }
+            manager.flush();
+            double writeSeconds = (System.nanoTime() - start) / 1_000_000_000.0;
+
+            start = System.nanoTime();
+            for (int i = 0; i < READS; i++) {
+                manager.get(("json:" + random.nextInt(KEY_COUNT)).getBytes());
+            }
+            double readSeconds = (System.nanoTime() - start) / 1_000_000_000.0;
+
+            System.out.printf("%n--- %s ---%n", codec);
+            System.out.printf("  writes: %,.0f ops/sec, cached reads: %,.0f ops/sec%n",
+                    KEY_COUNT / writeSeconds, READS / readSeconds);
+            System.out.printf("  values: %,d bytes, data files: %,d bytes, cache: %,d bytes%n",
+                    rawBytes, manager.getDataFileSize(), manager.getCache().getWeightedSize());
+            System.out.printf("  compressed values: %d, ratio: %.2fx%n",
+                    manager.getCompressor().getCompressedValues(), manager.getCompressor().getCompressionRatio());
+        } finally {
+            deleteDirectory(dir);
+        }
+    }
+
+    private static String createJson(int id, Random random) {
+        StringBuilder json = new StringBuilder("{\"id\":").append(id).append(",\"events\":[");
+        int events = 5 + random.nextInt(40);
+        for (int i = 0; i < events; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("{\"type\":\"").append(random.nextBoolean() ? "update" : "create")
+                    .append("\",\"user\":\"user-").append(random.nextInt(100))
+                    .append("\",\"timestamp\":").append(1700000000L + random.nextInt(1000000))
+                    .append(",\"status\":\"ok\"}");
+        }
+        return json.append("]}").toString();
+    }
+
+    private static void deleteDirectory(File dir) {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+}
@@ -0,0 +1,99 @@
+package ru.miacomsoft.demo;
+
+import ru.miacomsoft.core.BinaryDataManager;
+import ru.miacomsoft.core.FsyncPolicy;
+import ru.miacomsoft.core.MemoryManager;
+import ru.miacomsoft.core.StorageConfig;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class ConcurrencyBenchmark {
+    private static final int THREADS = 16;
+    private static final int KEY_COUNT = 10000;
+    private static final int DATA_SIZE = 512;
+    private static final int DURATION_SECONDS = 5;
+    private static final int WRITE_PERCENT = 20;
+
+    public static void main(String[] args) throws Exception {
+        System.out.println("=== Concurrency Benchmark ===");
+        System.out.println("Threads: " + THREADS + ", keys: " + KEY_COUNT +
+                ", writes: " + WRITE_PERCENT + "%, duration: " + DURATION_SECONDS + "s");
+
+        // Прежнее поведение: каждая запись берет эксклюзивную блокировку хранилища
+        double globalOps = runBenchmark("global write lock",
+                StorageConfig.builder().fsyncPolicy(FsyncPolicy.NEVER).globalWriteLock(true).build());
+
+        // Полосы блокировок по ключам
+        double stripedOps = runBenchmark("striped key locks",
+                StorageConfig.builder().fsyncPolicy(FsyncPolicy.NEVER).lockStripes(64).build());
+
+        System.out.printf("%nSpeedup: %.2fx%n", stripedOps / globalOps);
+    }
+
+    private static double runBenchmark(String name, StorageConfig config) throws Exception {
+        File dir = new File("./storage/benchmark");
+        deleteDirectory(dir);
+        dir.mkdirs();
+
+        try (BinaryDataManager manager = new BinaryDataManager(
+                new File(dir, "data.bin").getPath(), new File(dir, "index.idx").getPath(),
+                new MemoryManager(1024L * 1024 * 1024), config)) {
+            // Кэш не используется, чтобы чтения доходили до индекса и файла данных
+            manager.setCacheTTL(0);
+
+            byte[] value = new byte[DATA_SIZE];
+            for (int i = 0; i < KEY_COUNT; i++) {
+                manager.put(("bench:" + i).getBytes(), value);
+            }
+            manager.flush();
+
+            AtomicLong reads = new AtomicLong();
+            AtomicLong writes = new AtomicLong();
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(DURATION_SECONDS);
+
+            ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                futures.add(executor.submit(() -> {
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    while (System.nanoTime() < deadline) {
+                        byte[] key = ("bench:" + random.nextInt(KEY_COUNT)).getBytes();
+                        if (random.nextInt(100) < WRITE_PERCENT) {
+                            manager.put(key, value);
+                            writes.incrementAndGet();
+                        } else {
+                            manager.get(key);
+                            reads.incrementAndGet();
+                        }
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+            executor.shutdown();
+
+            double opsPerSecond = (reads.get() + writes.get()) / (double) DURATION_SECONDS;
+            System.out.printf("%n--- %s ---%n", name);
+            System.out.printf("  reads: %,d, writes: %,d, throughput: %,.0f ops/sec%n",
+                    reads.get(), writes.get(), opsPerSecond);
+            return opsPerSecond;
+        } finally {
+            deleteDirectory(dir);
+        }
+    }
+
+    private static void deleteDirectory(File dir) {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+}
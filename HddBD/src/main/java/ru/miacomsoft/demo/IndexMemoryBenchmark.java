@@ -0,0 +1,78 @@
+package ru.miacomsoft.demo;
+
+import ru.miacomsoft.core.*;
+
+import java.io.File;
+
+// Память индекса заголовков в куче и вне кучи, с упорядоченным индексом ключей и без него:
+// байт на ключ, время загрузки снимка и чтения
+public class IndexMemoryBenchmark {
+    private static final int KEY_COUNT = 2_000_000;
+
+    public static void main(String[] args) throws Exception {
+        System.out.println("=== Index Memory Benchmark ===");
+        System.out.println("Keys: " + KEY_COUNT);
+
+        runBenchmark(IndexStorage.HEAP, true);
+        runBenchmark(IndexStorage.HEAP, false);
+        runBenchmark(IndexStorage.OFF_HEAP, true);
+        runBenchmark(IndexStorage.OFF_HEAP, false);
+    }
+
+    private static void runBenchmark(IndexStorage storage, boolean ordered) throws Exception {
+        File dir = new File("./storage/index-benchmark");
+        deleteDirectory(dir);
+        dir.mkdirs();
+        String indexFile = new File(dir, "index.idx").getPath();
+
+        try {
+            HeaderIndex writer = new HeaderIndex(indexFile, storage, ordered);
+            for (int i = 0; i < KEY_COUNT; i++) {
+                byte[] key = ("user:" + i + ":profile").getBytes();
+                writer.put(key, new HeaderRecord(true, -1, key, i * 256L, 200, null, 256));
+            }
+            writer.close();
+            writer = null;
+
+            long heapBefore = usedHeap();
+            long start = System.nanoTime();
+            HeaderIndex index = new HeaderIndex(indexFile, storage, ordered);
+            double loadSeconds = (System.nanoTime() - start) / 1_000_000_000.0;
+            long heapBytes = usedHeap() - heapBefore;
+
+            start = System.nanoTime();
+            for (int i = 0; i < KEY_COUNT; i++) {
+                index.get(("user:" + i + ":profile").getBytes());
+            }
+            double getSeconds = (System.nanoTime() - start) / 1_000_000_000.0;
+
+            System.out.printf("%n--- %s%s ---%n", storage, ordered ? " + ordered keys" : "");
+            System.out.printf("  heap: %d bytes/key, off-heap: %d bytes/key%n",
+                    heapBytes / KEY_COUNT, index.getOffHeapBytes() / KEY_COUNT);
+            System.out.printf("  snapshot load: %.2f s, lookups: %,.0f ops/sec%n",
+                    loadSeconds, KEY_COUNT / getSeconds);
+            index.close();
+        } finally {
+            deleteDirectory(dir);
+        }
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static void deleteDirectory(File dir) {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+}
@@ -0,0 +1,80 @@
+package ru.miacomsoft.demo;
+
+import ru.miacomsoft.core.*;
+
+import java.io.File;
+import java.util.Iterator;
+
+// Поиск по маске полным перебором заголовков и через индексы: маски с литеральным началом -
+// диапазон упорядоченного индекса, маски, начинающиеся с шаблона, - индекс триграмм
+public class MaskSearchBenchmark {
+    private static final int KEY_COUNT = 2_000_000;
+    private static final String[] MASKS = {
+            "user:12345?:profile",
+            "user:*:settings",
+            "*:1234567:*",
+            "?ser:99999?:*",
+            "*:42?:profile"
+    };
+
+    public static void main(String[] args) throws Exception {
+        System.out.println("=== Mask Search Benchmark ===");
+        System.out.println("Keys: " + KEY_COUNT);
+
+        File dir = new File("./storage/mask-benchmark");
+        deleteDirectory(dir);
+        dir.mkdirs();
+        String indexFile = new File(dir, "index.idx").getPath();
+
+        try {
+            HeaderIndex index = new HeaderIndex(indexFile, IndexStorage.HEAP, true, true);
+            for (int i = 0; i < KEY_COUNT; i++) {
+                byte[] key = ("user:" + i + (i % 100 == 0 ? ":settings" : ":profile")).getBytes();
+                index.put(key, new HeaderRecord(true, -1, key, i * 256L, 200, null, 256));
+            }
+
+            for (String mask : MASKS) {
+                SearchQuery query = new SearchQuery.Builder().maskSearch(mask.getBytes()).build();
+
+                long start = System.nanoTime();
+                int scanned = 0;
+                for (HeaderRecord header : index.getAllRecords()) {
+                    if (query.matches(header.name, null)) {
+                        scanned++;
+                    }
+                }
+                double scanMillis = (System.nanoTime() - start) / 1_000_000.0;
+
+                start = System.nanoTime();
+                int indexed = 0;
+                Iterator<HeaderRecord> candidates = index.maskCandidates(mask.getBytes());
+                if (candidates == null) {
+                    candidates = index.getAllRecords().iterator();
+                }
+                while (candidates.hasNext()) {
+                    if (query.matches(candidates.next().name, null)) {
+                        indexed++;
+                    }
+                }
+                double indexMillis = (System.nanoTime() - start) / 1_000_000.0;
+
+                System.out.printf("%n--- %s ---%n", mask);
+                System.out.printf("  full scan: %d keys in %.2f ms%n", scanned, scanMillis);
+                System.out.printf("  indexed:   %d keys in %.2f ms%n", indexed, indexMillis);
+            }
+            index.close();
+        } finally {
+            deleteDirectory(dir);
+        }
+    }
+
+    private static void deleteDirectory(File dir) {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+}
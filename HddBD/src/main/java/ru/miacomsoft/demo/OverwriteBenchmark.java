@@ -0,0 +1,154 @@
+package ru.miacomsoft.demo;
+
+import ru.miacomsoft.core.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Сравнение движков хранения на нагрузке с частой перезаписью ключей значениями
+// случайного размера: скорость записи, скорость чтения и размер файлов на диске
+// относительно объема живых данных.
+public class OverwriteBenchmark {
+    private static final int THREADS = 4;
+    private static final int KEY_COUNT = 20000;
+    private static final int OVERWRITES = 400_000;
+    private static final int MIN_VALUE_SIZE = 64;
+    private static final int MAX_VALUE_SIZE = 2048;
+    private static final int READS = 200_000;
+
+    public static void main(String[] args) throws Exception {
+        System.out.println("=== Overwrite Benchmark ===");
+        System.out.println("Threads: " + THREADS + ", keys: " + KEY_COUNT + ", overwrites: " + OVERWRITES +
+                ", value size: " + MIN_VALUE_SIZE + "-" + MAX_VALUE_SIZE + " bytes");
+
+        Result inPlace = runBenchmark(StorageConfig.builder()
+                .storageEngine(StorageEngineType.IN_PLACE)
+                .fsyncPolicy(FsyncPolicy.NEVER)
+                .build());
+        Result lsm = runBenchmark(StorageConfig.builder()
+                .storageEngine(StorageEngineType.LSM)
+                .fsyncPolicy(FsyncPolicy.NEVER)
+                .build());
+
+        System.out.printf("%nLSM / IN_PLACE: writes %.2fx, reads %.2fx, disk usage %.2fx%n",
+                lsm.writesPerSecond / inPlace.writesPerSecond,
+                lsm.readsPerSecond / inPlace.readsPerSecond,
+                (double) lsm.diskBytes / inPlace.diskBytes);
+    }
+
+    private static Result runBenchmark(StorageConfig config) throws Exception {
+        File dir = new File("./storage/overwrite-benchmark");
+        deleteDirectory(dir);
+        dir.mkdirs();
+
+        try (BinaryDataManager manager = new BinaryDataManager(
+                new File(dir, "data.bin").getPath(), new File(dir, "index.idx").getPath(),
+                new MemoryManager(1024L * 1024 * 1024), config)) {
+            // Кэш не используется, чтобы чтения доходили до файлов
+            manager.setCacheTTL(0);
+
+            // Текущий размер значения каждого ключа - для подсчета объема живых данных
+            AtomicLong[] valueSizes = new AtomicLong[KEY_COUNT];
+            for (int i = 0; i < KEY_COUNT; i++) {
+                valueSizes[i] = new AtomicLong();
+            }
+
+            // 1. Перезапись: каждый поток пишет случайные ключи значениями случайного размера
+            long start = System.nanoTime();
+            runParallel(OVERWRITES / THREADS, random -> {
+                int key = random.nextInt(KEY_COUNT);
+                byte[] value = new byte[MIN_VALUE_SIZE + random.nextInt(MAX_VALUE_SIZE - MIN_VALUE_SIZE)];
+                random.nextBytes(value);
+                synchronized (valueSizes[key]) {
+                    manager.put(("overwrite:" + key).getBytes(), value);
+                    valueSizes[key].set(value.length);
+                }
+            });
+            manager.flush();
+            double writeSeconds = (System.nanoTime() - start) / 1_000_000_000.0;
+
+            // 2. Случайные чтения
+            start = System.nanoTime();
+            runParallel(READS / THREADS, random -> manager.get(("overwrite:" + random.nextInt(KEY_COUNT)).getBytes()));
+            double readSeconds = (System.nanoTime() - start) / 1_000_000_000.0;
+
+            long liveBytes = 0;
+            for (AtomicLong size : valueSizes) {
+                liveBytes += size.get();
+            }
+            Result result = new Result(OVERWRITES / writeSeconds, READS / readSeconds, directorySize(dir));
+
+            System.out.printf("%n--- %s ---%n", config.getStorageEngine());
+            System.out.printf("  writes: %,.0f ops/sec, reads: %,.0f ops/sec%n",
+                    result.writesPerSecond, result.readsPerSecond);
+            System.out.printf("  live data: %,d bytes, on disk: %,d bytes (%.2fx)%n",
+                    liveBytes, result.diskBytes, (double) result.diskBytes / liveBytes);
+            System.out.println("  " + manager.getSystemStats());
+            return result;
+        } finally {
+            deleteDirectory(dir);
+        }
+    }
+
+    private interface Operation {
+        void run(ThreadLocalRandom random) throws Exception;
+    }
+
+    private static void runParallel(int operationsPerThread, Operation operation) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            futures.add(executor.submit(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                for (int i = 0; i < operationsPerThread; i++) {
+                    operation.run(random);
+                }
+                return null;
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+    }
+
+    private static long directorySize(File dir) {
+        long size = 0;
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                size += file.isDirectory() ? directorySize(file) : file.length();
+            }
+        }
+        return size;
+    }
+
+    private static void deleteDirectory(File dir) {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.isDirectory()) {
+                    deleteDirectory(file);
+                } else {
+                    file.delete();
+                }
+            }
+        }
+        dir.delete();
+    }
+
+    private static class Result {
+        final double writesPerSecond;
+        final double readsPerSecond;
+        final long diskBytes;
+
+        Result(double writesPerSecond, double readsPerSecond, long diskBytes) {
+            this.writesPerSecond = writesPerSecond;
+            this.readsPerSecond = readsPerSecond;
+            this.diskBytes = diskBytes;
+        }
+    }
+}